@@ -0,0 +1,52 @@
+package bench;
+
+import java.io.IOException;
+import model.SingleImageModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Representing a JMH benchmark of downscaling to half size and of mosaics.
+ */
+public class AdjustmentBenchmark extends GeneratedImage {
+
+  /**
+   * The number of seeds given to every mosaic; a mosaic's time grows with its seeds.
+   */
+  @Param({"100"})
+  public int seeds;
+
+  private SingleImageModel image;
+
+  /**
+   * Gives the next call a fresh copy of the image.
+   */
+  @Setup(Level.Invocation)
+  public void copy() throws IOException {
+    image = freshCopy();
+  }
+
+  /**
+   * Downscales the image to half its width and height.
+   *
+   * @return the downscaled image, so the work can't be skipped
+   */
+  @Benchmark
+  public SingleImageModel downscale() {
+    image.applyDownscale(width / 2, height / 2);
+    return image;
+  }
+
+  /**
+   * Makes a mosaic of the image.
+   *
+   * @return the mosaic, so the work can't be skipped
+   */
+  @Benchmark
+  public SingleImageModel mosaic() {
+    image.applyMosaic(seeds);
+    return image;
+  }
+}
@@ -0,0 +1,43 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import model.FileType;
+import model.SingleImageModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Representing a JMH benchmark of saving the image as each file type.
+ */
+public class ExportBenchmark extends GeneratedImage {
+
+  /**
+   * The file type saved; every file type when not given.
+   */
+  @Param
+  public FileType type;
+
+  private SingleImageModel image;
+  private Path file;
+
+  /**
+   * Loads the image to be saved.
+   */
+  @Override
+  protected void prepare() throws IOException {
+    image = freshCopy();
+    file = dir.resolve("out." + type.name().toLowerCase());
+  }
+
+  /**
+   * Saves the image.
+   *
+   * @return the number of bytes written, so the work can't be skipped
+   */
+  @Benchmark
+  public long export() throws IOException {
+    image.export(file.toString(), type);
+    return file.toFile().length();
+  }
+}
@@ -0,0 +1,42 @@
+package bench;
+
+import java.io.IOException;
+import model.FilterType;
+import model.SingleImageModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Representing a JMH benchmark of each filter.
+ */
+public class FilterBenchmark extends GeneratedImage {
+
+  /**
+   * The filter applied; every filter when not given.
+   */
+  @Param
+  public FilterType filter;
+
+  private SingleImageModel image;
+
+  /**
+   * Gives the next call a fresh copy of the image.
+   */
+  @Setup(Level.Invocation)
+  public void copy() throws IOException {
+    image = freshCopy();
+  }
+
+  /**
+   * Applies the filter.
+   *
+   * @return the filtered image, so the work can't be skipped
+   */
+  @Benchmark
+  public SingleImageModel filter() {
+    image.applyFilter(filter);
+    return image;
+  }
+}
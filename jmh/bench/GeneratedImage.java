@@ -0,0 +1,124 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import model.DecodedImageCache;
+import model.FileType;
+import model.ImageModelCreator;
+import model.SingleImageModel;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Representing the image every JMH benchmark works on: noise over a gradient, made the same way
+ * every run so results can be compared between runs, and saved as a PNG once per trial. Each
+ * benchmark gets a fresh copy before every call, from the decoded image cache, so copying costs
+ * no decode and isn't timed.
+ *
+ * <p>JMH doesn't order setups of the same level between a class and its superclass, so
+ * benchmarks that need more than the image prepare it in {@link #prepare()} instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx4g", "-Djava.awt.headless=true"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class GeneratedImage {
+
+  /**
+   * The size of the image, in megapixels.
+   */
+  @Param({"1", "4", "16", "50"})
+  public int megapixels;
+
+  protected int width;
+  protected int height;
+  protected Path dir;
+  protected Path source;
+  private long cacheBytes;
+
+  /**
+   * Saves the image for the trial and sizes the cache to hold it.
+   */
+  @Setup(Level.Trial)
+  public void saveSource() throws IOException {
+    width = (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3));
+    height = (int) Math.round(width * 0.75);
+    dir = Files.createTempDirectory("jmh");
+    source = dir.resolve("source.png");
+    ImageIO.write(generate(width, height, megapixels), "png", source.toFile());
+    DecodedImageCache cache = ImageModelCreator.getCache();
+    cacheBytes = cache.getMaxBytes();
+    cache.setMaxBytes(4L * width * height + (1 << 20));
+    ImageModelCreator.load(FileType.PNG, source.toString());
+    prepare();
+  }
+
+  /**
+   * Prepares anything else the benchmark needs, once the image is saved.
+   */
+  protected void prepare() throws IOException {
+    // Nothing else by default
+  }
+
+  /**
+   * Deletes the trial's files and puts the cache back as it was.
+   */
+  @TearDown(Level.Trial)
+  public void deleteFiles() {
+    ImageModelCreator.getCache().setMaxBytes(cacheBytes);
+    File[] files = dir.toFile().listFiles();
+    for (File file : files == null ? new File[0] : files) {
+      file.delete();
+    }
+    dir.toFile().delete();
+  }
+
+  /**
+   * Returns a fresh copy of the image, sharing the cached pixels.
+   *
+   * @return the copy
+   */
+  protected SingleImageModel freshCopy() throws IOException {
+    return ImageModelCreator.load(FileType.PNG, source.toString());
+  }
+
+  // Returns an image of noise over a gradient, the same for the same arguments; plain noise
+  // would compress unrealistically badly, and plain gradients unrealistically well
+  private static BufferedImage generate(int width, int height, long seed) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(seed);
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int red = clamp(255 * x / width + random.nextInt(33) - 16);
+        int green = clamp(255 * y / height + random.nextInt(33) - 16);
+        int blue = clamp(255 * (x + y) / (width + height) + random.nextInt(33) - 16);
+        row[x] = red << 16 | green << 8 | blue;
+      }
+      image.setRGB(0, y, width, 1, row, 0, width);
+    }
+    return image;
+  }
+
+  private static int clamp(int value) {
+    return Math.max(0, Math.min(255, value));
+  }
+}
@@ -0,0 +1,44 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import model.FileType;
+import model.ImageModelCreator;
+import model.SingleImageModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Representing a JMH benchmark of loading the image from each file type. The cache is turned
+ * off, so every load decodes the file.
+ */
+public class LoadBenchmark extends GeneratedImage {
+
+  /**
+   * The file type loaded; every file type when not given.
+   */
+  @Param
+  public FileType type;
+
+  private Path file;
+
+  /**
+   * Saves the image as the file type, then turns the cache off.
+   */
+  @Override
+  protected void prepare() throws IOException {
+    file = dir.resolve("in." + type.name().toLowerCase());
+    freshCopy().export(file.toString(), type);
+    ImageModelCreator.getCache().setMaxBytes(0);
+  }
+
+  /**
+   * Loads the image.
+   *
+   * @return the loaded image, so the work can't be skipped
+   */
+  @Benchmark
+  public SingleImageModel load() throws IOException {
+    return ImageModelCreator.load(type, file.toString());
+  }
+}
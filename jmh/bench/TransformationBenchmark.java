@@ -0,0 +1,42 @@
+package bench;
+
+import java.io.IOException;
+import model.SingleImageModel;
+import model.TransformationType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Representing a JMH benchmark of each transformation.
+ */
+public class TransformationBenchmark extends GeneratedImage {
+
+  /**
+   * The transformation applied; every transformation when not given.
+   */
+  @Param
+  public TransformationType transformation;
+
+  private SingleImageModel image;
+
+  /**
+   * Gives the next call a fresh copy of the image.
+   */
+  @Setup(Level.Invocation)
+  public void copy() throws IOException {
+    image = freshCopy();
+  }
+
+  /**
+   * Applies the transformation.
+   *
+   * @return the transformed image, so the work can't be skipped
+   */
+  @Benchmark
+  public SingleImageModel transformation() {
+    image.applyTransformation(transformation);
+    return image;
+  }
+}
@@ -1,7 +1,9 @@
 import controller.ImageModelScriptController;
+import controller.ImageModelServerController;
 import java.io.IOException;
 import java.util.Scanner;
 import model.LayeredImageModel;
+import model.OperationMetrics;
 import view.ImageModelGraphicsView;
 
 /**
@@ -13,10 +15,14 @@ public class ImageProcessingProgram {
    * The main method.
    */
   public static void main(String[] args) throws IOException {
+    // Lets JMX clients such as JConsole read how long each kind of operation takes
+    OperationMetrics.register();
     System.out.println("Which version would you like to run? Your options are:");
     System.out.println("-script [path-of-script-file]");
     System.out.println("-text");
     System.out.println("-interactive");
+    System.out.println("-batch [recipe-file] [input-directory] [output-directory]");
+    System.out.println("-serve [port]");
 
     Scanner sc = new Scanner(System.in);
     String userInput = sc.nextLine();
@@ -29,6 +35,36 @@ public class ImageProcessingProgram {
         System.out.println("Couldn't find file.");
       }
     }
+    else if (userInput.startsWith("-batch ")) {
+      String[] batchArgs = userInput.substring(7).trim().split("\\s+");
+      if (batchArgs.length != 3) {
+        System.out.println("Usage: -batch [recipe-file] [input-directory] [output-directory]");
+        return;
+      }
+      try {
+        ImageModelScriptController.runBatch(batchArgs[0], batchArgs[1], batchArgs[2]);
+      }
+      catch (IOException | IllegalArgumentException e) {
+        System.out.println(e.getMessage());
+      }
+    }
+    else if (userInput.startsWith("-serve ")) {
+      ImageModelServerController server;
+      try {
+        server = new ImageModelServerController(Integer.parseInt(userInput.substring(7).trim()));
+      }
+      catch (NumberFormatException e) {
+        System.out.println("Usage: -serve [port]");
+        return;
+      }
+      catch (IOException | IllegalArgumentException e) {
+        System.out.println("Cannot serve: " + e.getMessage());
+        return;
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+      System.out.println("Serving on localhost port " + server.getPort()
+          + ": POST images to /process, metrics at /metrics. Stop with Ctrl+C.");
+    }
     else if (userInput.equals("-text")) {
       ImageModelScriptController.run();
     }
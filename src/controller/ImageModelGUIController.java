@@ -1,139 +1,322 @@
 package controller;
 
-import java.io.FileNotFoundException;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import model.BlendMode;
+import model.CommandEvent;
+import model.ExportOptions;
 import model.FileType;
 import model.FilterType;
 import model.ImageModelCreator;
 import model.LayeredImageModel;
+import model.ProjectFormat;
 import model.TransformationType;
-import view.ImageModelGraphicsView;
+import view.ImageModelGUIView;
 
 /**
- * Representing a GUI controller for the image processing program.
+ * Representing a GUI controller for the image processing program. Commands run one at a time,
+ * in the order given, on a background thread, so the window stays responsive while they run;
+ * when the last one given finishes, the view is updated in place.
+ *
+ * <p>Edits that keep the image's size are previewed first: the command is applied to a copy of
+ * the image shrunk to the height it is shown at, and the result shown straight away, while the
+ * full-size image catches up in the background. The view only shows the full-size result once
+ * no newer command is waiting, so a run of quick edits isn't held up redrawing each one.
  */
 public abstract class ImageModelGUIController {
 
+  // Runs commands one after another, off the event thread
+  private static final ExecutorService COMMANDS = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "gui-commands");
+    thread.setDaemon(true);
+    return thread;
+  });
+  // Commands given but not yet finished, oldest first; only used on the event thread
+  private static final Deque<Command> PENDING = new ArrayDeque<Command>();
+  // The models replaced by a "load full", and the model the last one loaded, so commands
+  // given before it finished apply to the new model; only used on the command thread
+  private static final Set<LayeredImageModel> REPLACED =
+      Collections.newSetFromMap(new WeakHashMap<LayeredImageModel, Boolean>());
+  private static LayeredImageModel replacement;
+  // Runs commands on the preview copy, off the event thread
+  private static final ExecutorService PREVIEWS = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "gui-previews");
+    thread.setDaemon(true);
+    return thread;
+  });
+  // A shrunk copy of the model as it will be once every command given has run, or null if
+  // not known; only used on the preview thread
+  private static LayeredImageModel proxy;
+  // The height the preview copy is made at, which is the height the image is shown at
+  private static volatile int previewHeight = 500;
+  // Commands given but not yet run, or running
+  private static final AtomicInteger UNFINISHED = new AtomicInteger();
+
   /**
-   * Processes a command and performs its specified operation on the image model.
+   * Queues a command to be performed on the image model in the background. The view shows
+   * that it is running, and shows the result or the error once it has finished.
    *
    * @param model    image model being used
    * @param view     view being used
    * @param input    the command
-   * @throws IOException when any error is encountered while other methods are called.
    */
-  public static void processCommand(LayeredImageModel model, ImageModelGraphicsView view,
-      String input) throws IOException {
+  public static void processCommand(LayeredImageModel model, ImageModelGUIView view,
+      String input) {
+    Command command = new Command(model, view, input);
+    PENDING.add(command);
+    UNFINISHED.incrementAndGet();
+    previewHeight = view.getPreviewHeight();
+    if (isPreviewable(input)) {
+      PREVIEWS.execute(() -> preview(command));
+    }
+    else {
+      PREVIEWS.execute(() -> proxy = null);
+    }
+    view.showRunning(PENDING.peek().input, PENDING.size() - 1);
+    COMMANDS.execute(command);
+  }
 
-    if (input.startsWith("load full")) {
+  /**
+   * Cancels every command not yet finished. Those still waiting never run. The one running
+   * finishes, since an operation can't be stopped partway, but a load, filter, transformation
+   * or adjustment is then undone, leaving the image as it was; other commands, such as saves,
+   * take effect regardless.
+   */
+  public static void cancelCommands() {
+    for (Command command : PENDING) {
+      command.cancelRequested = true;
+    }
+  }
+
+  // Applies the command to the preview copy and shows the result, unless the full-size result
+  // is shown first. If the copy can't take the command, previews stop until the queue empties.
+  private static void preview(Command command) {
+    if (proxy == null) {
+      return;
+    }
+    BufferedImage image;
+    try {
+      runCommand(proxy, command.input);
+      image = proxy.isEmpty() || proxy.layerIsEmpty() ? null : proxy.exportDISPLAY();
+    }
+    catch (IOException | RuntimeException e) {
+      proxy = null;
+      return;
+    }
+    if (image != null) {
+      SwingUtilities.invokeLater(() -> {
+        if (PENDING.contains(command)) {
+          command.view.showPreview(image, command.input);
+        }
+      });
+    }
+  }
+
+  // Makes a new preview copy of the model, once every command given has run; a command given
+  // meanwhile may have started changing the model, so the copy is then dropped
+  private static void refreshProxy(LayeredImageModel model) {
+    PREVIEWS.execute(() -> {
+      LayeredImageModel copy = model.isEmpty() ? null : model.proxy(previewHeight);
+      proxy = UNFINISHED.get() == 0 ? copy : null;
+    });
+  }
+
+  /**
+   * Representing one command being performed in the background.
+   */
+  private static final class Command extends SwingWorker<LayeredImageModel, String> {
+    private final LayeredImageModel given;
+    private final ImageModelGUIView view;
+    private final String input;
+    private volatile boolean cancelRequested;
+    // Set on the command thread before it returns, read once it has; the model is only set
+    // if this was the last command given, as it is only shown then
+    private LayeredImageModel shown;
+    private BufferedImage display;
+    private Rectangle changed;
+    private boolean cancelled;
+
+    private Command(LayeredImageModel model, ImageModelGUIView view, String input) {
+      this.given = model;
+      this.view = view;
+      this.input = input;
+    }
+
+    @Override
+    protected LayeredImageModel doInBackground() throws IOException {
+      LayeredImageModel model = REPLACED.contains(given) ? replacement : given;
+      boolean applied = false;
       try {
-        model = ImageModelCreator.loadLayeredProject(input.substring(9));
+        if (cancelRequested) {
+          cancelled = true;
+          return null;
+        }
+        publish(input);
+        CommandEvent event = CommandEvent.start();
+        LayeredImageModel result = runCommand(model, input);
+        event.finish("gui", input, 0, result);
+        if (result != model) {
+          REPLACED.add(given);
+          REPLACED.add(model);
+          replacement = result;
+          model = result;
+        }
+        if (cancelRequested && isRevertible(input)) {
+          result.undo();
+          cancelled = true;
+        }
+        else {
+          applied = true;
+        }
+        return result;
       }
-      catch (FileNotFoundException | IllegalArgumentException | NullPointerException fnfe) {
-        view.renderMessage(fnfe.getMessage());
+      finally {
+        // The preview copy had the command applied, so no longer matches if it didn't take
+        if (!applied) {
+          PREVIEWS.execute(() -> proxy = null);
+        }
+        if (UNFINISHED.decrementAndGet() == 0) {
+          shown = model;
+          if (!model.isEmpty() && !model.layerIsEmpty()) {
+            display = model.exportDISPLAY();
+            changed = model.getLastDisplayChange();
+          }
+          refreshProxy(model);
+        }
       }
     }
-    else if (input.startsWith("create layer")) {
+
+    @Override
+    protected void process(List<String> started) {
+      view.showRunning(input, PENDING.size() - 1);
+    }
+
+    @Override
+    protected void done() {
+      PENDING.remove(this);
+      if (shown != null) {
+        view.showModel(shown, display, changed);
+      }
       try {
-        model.newLayer(input.substring(13));
+        get();
+        view.showFinished((cancelled ? "Cancelled " : "Finished ") + input);
       }
-      catch (IllegalArgumentException | NullPointerException iae) {
-        view.renderMessage(iae.getMessage());
+      catch (ExecutionException e) {
+        view.showFinished("Failed " + input);
+        view.renderMessage(e.getCause().getMessage() != null ? e.getCause().getMessage()
+            : e.getCause().toString());
       }
-    }
-    else if (input.startsWith("current")) {
-      try {
-        model.current(input.substring(8));
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
-      catch (IllegalArgumentException | NullPointerException iae) {
-        view.renderMessage(iae.getMessage());
+      if (!PENDING.isEmpty()) {
+        view.showRunning(PENDING.peek().input, PENDING.size() - 1);
       }
     }
+  }
+
+  // Returns whether the given command can be applied to the preview copy: it changes only the
+  // layers' pixels, not their size, or only which layers are shown and how
+  private static boolean isPreviewable(String input) {
+    return input.startsWith("filter") || input.startsWith("transformation")
+        || input.startsWith("adjustment mosaic") || input.startsWith("blend")
+        || input.startsWith("visible") || input.startsWith("invisible")
+        || input.startsWith("current") || input.startsWith("create layer");
+  }
+
+  // Returns whether undoing the given command, once it has run, restores the image
+  private static boolean isRevertible(String input) {
+    return (input.startsWith("load") && !input.startsWith("load full"))
+        || input.startsWith("filter") || input.startsWith("transformation")
+        || input.startsWith("adjustment");
+  }
+
+  /**
+   * Performs a command's specified operation on the image model.
+   *
+   * @param model    image model being used
+   * @param input    the command
+   * @return the model the command leaves in use, which is a new one after "load full"
+   * @throws IOException when any error is encountered while other methods are called.
+   */
+  private static LayeredImageModel runCommand(LayeredImageModel model, String input)
+      throws IOException {
+
+    if (input.startsWith("load full")) {
+      return ImageModelCreator.loadLayeredProject(input.substring(9).trim());
+    }
+    else if (input.startsWith("create layer")) {
+      model.newLayer(input.substring(13));
+    }
+    else if (input.startsWith("current")) {
+      model.current(input.substring(8));
+    }
     else if (input.startsWith("load")) {
-      try {
-        String filetype = input.substring(input.indexOf(".", input.indexOf(".") + 1));
-        model.loadToLayer(ImageModelCreator.load(FileType.getEnum(filetype), input.substring(5)));
-      }
-      catch (IOException | IllegalStateException | NullPointerException ie) {
-        view.renderMessage(ie.getMessage());
-      }
+      String filetype = input.substring(input.indexOf(".", input.indexOf(".") + 1));
+      model.loadToLayer(ImageModelCreator.load(FileType.getEnum(filetype), input.substring(5)));
+    }
+    else if (input.startsWith("save composite")) {
+      String filetype = input.substring(input.indexOf("."));
+      model.exportComposite(input.substring(15), new ExportOptions(FileType.getEnum(filetype)));
+    }
+    else if (input.startsWith("save full binary")) {
+      model.exportFullProject(input.substring(17), ProjectFormat.BINARY);
     }
     else if (input.startsWith("save full")) {
-      try {
-        model.exportFullProject(input.substring(9));
-      }
-      catch (NullPointerException npe) {
-        view.renderMessage(npe.getMessage());
-      }
+      model.exportFullProject(input.substring(9).trim());
     }
     else if (input.startsWith("save")) {
-      try {
-        String filetype = input.substring(input.indexOf("."));
-        model.export(input.substring(5), FileType.getEnum(filetype));
-      }
-      catch (IOException | NullPointerException ie) {
-        view.renderMessage(ie.getMessage());
-      }
+      String filetype = input.substring(input.indexOf("."));
+      model.export(input.substring(5), FileType.getEnum(filetype));
     }
     else if (input.startsWith("filter")) {
-      try {
-        String filtertype = input.substring(7);
-        model.applyFilter(FilterType.valueOf(filtertype.toUpperCase()));
-      }
-      catch (IllegalArgumentException | NullPointerException iae) {
-        view.renderMessage(iae.getMessage());
-      }
+      String filtertype = input.substring(7);
+      model.applyFilter(FilterType.valueOf(filtertype.toUpperCase()));
     }
     else if (input.startsWith("transformation")) {
-      try {
-        String transformationtype = input.substring(15);
-        model.applyTransformation(TransformationType.valueOf(transformationtype.toUpperCase()));
-      }
-      catch (IllegalArgumentException | NullPointerException iae) {
-        view.renderMessage(iae.getMessage());
-      }
+      String transformationtype = input.substring(15);
+      model.applyTransformation(TransformationType.valueOf(transformationtype.toUpperCase()));
     }
     else if (input.startsWith("adjustment downscale")) {
-      try {
-        int width = Integer.parseInt(input.substring(21));
-        int height = Integer.parseInt(input.substring(input.indexOf("&")));
-        model.applyDownscale(width, height);
-      }
-      catch (IllegalArgumentException | NullPointerException iae) {
-        view.renderMessage(iae.getMessage());
-      }
+      ImageModelScriptController.parseRecipe(Collections.singletonList(input)).get(0)
+          .accept(model);
     }
     else if (input.startsWith("adjustment mosaic")) {
-      try {
-        int seed = Integer.parseInt(input.substring(18));
-        model.applyMosaic(seed);
-      }
-      catch (IllegalArgumentException | NullPointerException iae) {
-        view.renderMessage(iae.getMessage());
-      }
+      int seed = Integer.parseInt(input.substring(18));
+      model.applyMosaic(seed);
+    }
+    else if (input.startsWith("blend")) {
+      String mode = input.substring(6);
+      model.setBlendMode(BlendMode.valueOf(mode.toUpperCase()));
+    }
+    else if (input.startsWith("undo")) {
+      model.undo();
+    }
+    else if (input.startsWith("redo")) {
+      model.redo();
     }
     else if (input.startsWith("visible")) {
-      try {
-        model.visible();
-      }
-      catch (NullPointerException npe) {
-        view.renderMessage(npe.getMessage());
-      }
+      model.visible();
     }
     else if (input.startsWith("invisible")) {
-      try {
-        model.invisible();
-      }
-      catch (NullPointerException npe) {
-        view.renderMessage(npe.getMessage());
-      }
+      model.invisible();
     }
     else {
-      view.renderMessage("Unknown command %s" + input);
+      throw new IllegalArgumentException("Unknown command " + input);
     }
-
-    view.makeInvisible();
-    ImageModelGraphicsView newView = new ImageModelGraphicsView(model);
-    newView.makeVisible();
+    return model;
   }
 }
@@ -1,12 +1,34 @@
 package controller;
 
+import java.awt.Rectangle;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import model.BackgroundSaver;
+import model.BatchProcessor;
+import model.BlendMode;
+import model.CommandEvent;
+import model.ExportOptions;
 import model.FileType;
 import model.FilterType;
+import model.ImageModel;
 import model.ImageModelCreator;
 import model.LayeredImageModel;
+import model.OperationMetrics;
+import model.ProjectFormat;
+import model.StreamingPipeline;
 import model.TransformationType;
 import view.ImageModelTextView;
 import view.ImageModelView;
@@ -16,48 +38,192 @@ import view.ImageModelView;
  */
 public abstract class ImageModelScriptController {
 
+  // Prints the operation metrics every so often, while a script asks for it
+  private static final ScheduledExecutorService METRICS = Executors
+      .newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metrics-dump");
+        thread.setDaemon(true);
+        return thread;
+      });
+  private static ScheduledFuture<?> metricsDump;
+
   /**
    * Calls the command processor so that the user inputs commands interactively.
    */
   public static void run() throws IOException {
     System.out.println("Only one command per line:"
         + "\nload full [filename] // create layer [name] // current [name] // load [filename] // "
-        + "save [filename]\nsave full [filename] // filter [filtertype] // "
-        + "transformation [transformationtype] // adjustment downscale [width]&[height] // "
-        + "adjustment mosaic [seed] // visible // invisible // exit");
-    processCommands(new Scanner(System.in));
+        + "save [filename]\nsave composite [filename] // save full [filename] // "
+        + "save full binary [filename] // "
+        + "filter [filtertype] ([x],[y],[width],[height]) // "
+        + "transformation [transformationtype] ([x],[y],[width],[height]) // "
+        + "adjustment downscale [width]&[height] // "
+        + "adjustment mosaic [seed] // blend [over|multiply|screen] // visible // invisible // "
+        + "undo // redo // defer [on|off] // metrics (every [seconds]|off) // exit"
+        + "\nall [operation] // layers [name],[name],... [operation], where the operation is "
+        + "a filter, transformation or adjustment command"
+        + "\nstream [filename], followed by filter and transformation commands, then "
+        + "save [filename]");
+    Scanner sc = new Scanner(System.in);
+    processCommands(new Iterator<String>() {
+      @Override
+      public boolean hasNext() {
+        return sc.hasNextLine();
+      }
+
+      @Override
+      public String next() {
+        return sc.nextLine();
+      }
+    }, null);
   }
 
   /**
-   * Calls the command processor so that the user imports a file containing the commands.
+   * Calls the command processor so that the user imports a file containing the commands. The
+   * whole script is read first, so images it loads can be decoded ahead of the commands that
+   * load them.
    *
    * @param filename    name of file with commands
    * @throws FileNotFoundException if a file with the designated filename is not found.
    */
   public static void run(String filename) throws IOException {
-    try {
-      processCommands(new Scanner(ImageModelScriptController.class.getResourceAsStream(
-          "/res/" + filename)));
-    }
-    catch (FileNotFoundException fnfe) {
+    InputStream in = ImageModelScriptController.class.getResourceAsStream("/res/" + filename);
+    if (in == null) {
       throw new FileNotFoundException("File " + filename + " not found!");
     }
+    List<String> script = new ArrayList<String>();
+    try (Scanner sc = new Scanner(in)) {
+      while (sc.hasNextLine()) {
+        script.add(sc.nextLine());
+      }
+    }
+    processCommands(script.iterator(), new LoadPrefetcher(script));
+  }
+
+  /**
+   * Applies a recipe of filter, transformation and adjustment commands, one per line, to every
+   * image in a directory, several images at a time, then reports how it went. The recipe is
+   * read once, before any image is; blank lines and lines starting with # are ignored.
+   *
+   * @param recipe      name of the file with the commands
+   * @param inputDir    the directory to read images from
+   * @param outputDir   the directory to write the changed images to, under the same names
+   * @throws IOException if the recipe or either directory can't be read
+   * @throws IllegalArgumentException if a line of the recipe isn't a valid operation
+   */
+  public static void runBatch(String recipe, String inputDir, String outputDir)
+      throws IOException, IllegalArgumentException {
+    List<Consumer<ImageModel>> operations =
+        parseRecipe(Files.readAllLines(Paths.get(recipe)), " of " + recipe);
+    BatchProcessor.Summary summary = new BatchProcessor(operations)
+        .run(Paths.get(inputDir), Paths.get(outputDir));
+    new ImageModelTextView(null).renderMessage(summary.toString());
   }
 
   /**
-   * Processes the commands and performs its specified operations on the image model.
+   * Turns a recipe of filter, transformation and adjustment commands, one per entry, into the
+   * operations they describe, such as for a {@link model.JobService}. Blank entries and entries
+   * starting with # are ignored.
    *
-   * @param sc    scanner being used
+   * @param commands    the commands, written as they would be in a script
+   * @return the operations, in order
+   * @throws IllegalArgumentException if a command isn't a valid operation, naming its line
+   */
+  public static List<Consumer<ImageModel>> parseRecipe(List<String> commands)
+      throws IllegalArgumentException {
+    if (commands == null) {
+      throw new IllegalArgumentException("Null method parameters");
+    }
+    return parseRecipe(commands, "");
+  }
+
+  // Parses a recipe, naming where it came from in the message of a bad line
+  private static List<Consumer<ImageModel>> parseRecipe(List<String> commands, String source)
+      throws IllegalArgumentException {
+    List<Consumer<ImageModel>> operations = new ArrayList<Consumer<ImageModel>>();
+    for (int i = 0; i < commands.size(); i++) {
+      String line = commands.get(i).trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      try {
+        operations.add(parseOperation(line));
+      }
+      catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+        throw new IllegalArgumentException("Line " + (i + 1) + source + ": " + e.getMessage());
+      }
+    }
+    return operations;
+  }
+
+  /**
+   * Processes the commands and performs its specified operations on the image model. Saves of
+   * single images are written in the background while later commands run; a command that reads
+   * or writes the same files first waits for them, and every save is finished before this
+   * returns.
+   *
+   * @param lines       the commands
+   * @param prefetcher  decodes the images later commands load, or null if they aren't known
    * @throws IOException when any error is encountered while other methods are called.
    */
-  private static void processCommands(Scanner sc) throws IOException {
+  private static void processCommands(Iterator<String> lines, LoadPrefetcher prefetcher)
+      throws IOException {
+    BackgroundSaver saver = new BackgroundSaver();
+    try {
+      processCommands(lines, prefetcher, saver);
+    }
+    finally {
+      dumpMetrics(0, null);
+      try {
+        saver.close();
+      }
+      catch (IOException ie) {
+        System.out.println(ie.getMessage());
+      }
+    }
+  }
+
+  // Runs the commands, handing saves of single images to the given saver
+  private static void processCommands(Iterator<String> lines, LoadPrefetcher prefetcher,
+      BackgroundSaver saver) throws IOException {
     LayeredImageModel model = new LayeredImageModel();
     ImageModelView view = new ImageModelTextView(model);
+    StreamingPipeline stream = null;
     String input;
+    int lineNumber = 0;
+    String source = prefetcher != null ? "script" : "text";
 
-    while (sc.hasNextLine()) {
-      input = sc.nextLine();
-      if (input.startsWith("load full")) {
+    while (lines.hasNext()) {
+      input = lines.next();
+      CommandEvent event = CommandEvent.start();
+      if (prefetcher != null) {
+        prefetcher.reached(lineNumber);
+      }
+      lineNumber++;
+      if (stream != null) {
+        stream = processStreamCommand(stream, input, view);
+      }
+      else if (input.startsWith("stream")) {
+        awaitSaves(saver, null, view);
+        try {
+          String filetype = input.substring(input.indexOf("."));
+          stream = new StreamingPipeline(FileType.getEnum(filetype), input.substring(7));
+        }
+        catch (IllegalArgumentException | StringIndexOutOfBoundsException iae) {
+          view.renderMessage(iae.getMessage());
+        }
+      }
+      else if (input.startsWith("all ") || input.startsWith("layers ")) {
+        try {
+          processBulkCommand(model, input);
+        }
+        catch (IllegalArgumentException | IllegalStateException
+            | StringIndexOutOfBoundsException iae) {
+          view.renderMessage(iae.getMessage());
+        }
+      }
+      else if (input.startsWith("load full")) {
+        awaitSaves(saver, null, view);
         try {
           model = ImageModelCreator.loadLayeredProject(input.substring(9));
         }
@@ -82,6 +248,7 @@ public abstract class ImageModelScriptController {
         }
       }
       else if (input.startsWith("load")) {
+        awaitSaves(saver, input.substring(Math.min(5, input.length())), view);
         try {
           String filetype = input.substring(input.indexOf("."));
           model.loadToLayer(ImageModelCreator.load(FileType.getEnum(filetype), input.substring(5)));
@@ -90,27 +257,47 @@ public abstract class ImageModelScriptController {
           view.renderMessage(ie.getMessage());
         }
       }
+      else if (input.startsWith("save composite")) {
+        try {
+          String filetype = input.substring(input.indexOf("."));
+          saver.save(model.compositeSnapshot(), input.substring(15),
+              new ExportOptions(FileType.getEnum(filetype)));
+        }
+        catch (IOException | IllegalStateException | NullPointerException ie) {
+          view.renderMessage(ie.getMessage());
+        }
+      }
+      else if (input.startsWith("save full binary")) {
+        awaitSaves(saver, null, view);
+        try {
+          model.exportFullProject(input.substring(17), ProjectFormat.BINARY);
+        }
+        catch (IOException | IllegalStateException | NullPointerException npe) {
+          view.renderMessage(npe.getMessage());
+        }
+      }
       else if (input.startsWith("save full")) {
+        awaitSaves(saver, null, view);
         try {
           model.exportFullProject(input.substring(9));
         }
-        catch (NullPointerException npe) {
+        catch (IOException | IllegalStateException | NullPointerException npe) {
           view.renderMessage(npe.getMessage());
         }
       }
       else if (input.startsWith("save")) {
         try {
           String filetype = input.substring(input.indexOf("."));
-          model.export(input.substring(5), FileType.getEnum(filetype));
+          saver.save(model.layerSnapshot(), input.substring(5),
+              new ExportOptions(FileType.getEnum(filetype)));
         }
-        catch (IOException | NullPointerException ie) {
+        catch (IOException | IllegalStateException | NullPointerException ie) {
           view.renderMessage(ie.getMessage());
         }
       }
       else if (input.startsWith("filter")) {
         try {
-          String filtertype = input.substring(7);
-          model.applyFilter(FilterType.valueOf(filtertype.toUpperCase()));
+          parseOperation(input).accept(model);
         }
         catch (IllegalArgumentException | NullPointerException iae) {
           view.renderMessage(iae.getMessage());
@@ -118,8 +305,7 @@ public abstract class ImageModelScriptController {
       }
       else if (input.startsWith("transformation")) {
         try {
-          String transformationtype = input.substring(15);
-          model.applyTransformation(TransformationType.valueOf(transformationtype.toUpperCase()));
+          parseOperation(input).accept(model);
         }
         catch (IllegalArgumentException | NullPointerException iae) {
           view.renderMessage(iae.getMessage());
@@ -127,9 +313,7 @@ public abstract class ImageModelScriptController {
       }
       else if (input.startsWith("adjustment downscale")) {
         try {
-          int width = Integer.parseInt(input.substring(21));
-          int height = Integer.parseInt(input.substring(input.indexOf("&")));
-          model.applyDownscale(width, height);
+          parseOperation(input).accept(model);
         }
         catch (IllegalArgumentException | NullPointerException iae) {
           view.renderMessage(iae.getMessage());
@@ -144,6 +328,59 @@ public abstract class ImageModelScriptController {
           view.renderMessage(iae.getMessage());
         }
       }
+      else if (input.startsWith("blend")) {
+        try {
+          String mode = input.substring(6);
+          model.setBlendMode(BlendMode.valueOf(mode.toUpperCase()));
+        }
+        catch (IllegalArgumentException | IllegalStateException | NullPointerException iae) {
+          view.renderMessage(iae.getMessage());
+        }
+      }
+      else if (input.startsWith("undo")) {
+        try {
+          model.undo();
+        }
+        catch (IllegalStateException ise) {
+          view.renderMessage(ise.getMessage());
+        }
+      }
+      else if (input.startsWith("redo")) {
+        try {
+          model.redo();
+        }
+        catch (IllegalStateException ise) {
+          view.renderMessage(ise.getMessage());
+        }
+      }
+      else if (input.startsWith("defer ")) {
+        try {
+          model.setDeferred(parseSwitch(input.substring(6)));
+        }
+        catch (IllegalArgumentException | IllegalStateException iae) {
+          view.renderMessage(iae.getMessage());
+        }
+      }
+      else if (input.startsWith("metrics")) {
+        try {
+          if (input.equals("metrics")) {
+            view.renderMessage(OperationMetrics.get().getReport());
+          }
+          else if (input.equals("metrics off")) {
+            dumpMetrics(0, null);
+          }
+          else if (input.startsWith("metrics every ")) {
+            dumpMetrics(Integer.parseInt(input.substring(14).trim()), view);
+          }
+          else {
+            throw new IllegalArgumentException("Expected metrics, metrics every [seconds] or "
+                + "metrics off: " + input);
+          }
+        }
+        catch (IllegalArgumentException iae) {
+          view.renderMessage(iae.getMessage());
+        }
+      }
       else if (input.startsWith("visible")) {
         try {
           model.visible();
@@ -161,11 +398,197 @@ public abstract class ImageModelScriptController {
         }
       }
       else if (input.startsWith("exit")) {
+        event.finish(source, input, lineNumber, model);
         return;
       }
       else {
         System.out.println(String.format("Unknown command %s", input));
       }
+      event.finish(source, input, lineNumber, model);
+    }
+  }
+
+  // Prints the operation metrics to the given view every given number of seconds, in place of
+  // any earlier dump, or stops printing them if the number is zero
+  private static synchronized void dumpMetrics(int seconds, ImageModelView view)
+      throws IllegalArgumentException {
+    if (seconds < 0) {
+      throw new IllegalArgumentException("Seconds between metrics can't be negative");
+    }
+    if (metricsDump != null) {
+      metricsDump.cancel(false);
+      metricsDump = null;
+    }
+    if (seconds > 0) {
+      metricsDump = METRICS.scheduleAtFixedRate(() -> {
+        try {
+          view.renderMessage(OperationMetrics.get().getReport());
+        }
+        catch (IOException e) {
+          // the next dump tries again
+        }
+      }, seconds, seconds, TimeUnit.SECONDS);
+    }
+  }
+
+  // Waits for the background saves of the given file, or of every file if it is null, and
+  // reports any that failed
+  private static void awaitSaves(BackgroundSaver saver, String filename, ImageModelView view)
+      throws IOException {
+    try {
+      if (filename == null) {
+        saver.awaitAll();
+      }
+      else {
+        saver.await(filename);
+      }
+    }
+    catch (IOException ie) {
+      view.renderMessage(ie.getMessage());
+    }
+  }
+
+  /**
+   * Applies a filter, transformation or adjustment to several layers at once. The command is
+   * either "all [operation]" or "layers [name],[name],... [operation]".
+   *
+   * @param model    the model whose layers are changed
+   * @param input    the command
+   * @throws IllegalArgumentException if the command or a layer name is invalid
+   * @throws IllegalStateException if the operation failed on any layer
+   */
+  private static void processBulkCommand(LayeredImageModel model, String input)
+      throws IllegalArgumentException, IllegalStateException {
+    List<String> names = null;
+    String operation;
+    if (input.startsWith("all ")) {
+      operation = input.substring(4);
+    }
+    else {
+      String rest = input.substring(7);
+      int space = rest.indexOf(" ");
+      if (space < 0) {
+        throw new IllegalArgumentException("No operation given: " + input);
+      }
+      names = Arrays.asList(rest.substring(0, space).split(","));
+      operation = rest.substring(space + 1);
+    }
+    model.applyToLayers(names, parseOperation(operation));
+  }
+
+  /**
+   * Turns a filter, transformation or adjustment command into an operation on one image.
+   * Filters and transformations may end with a region, [x],[y],[width],[height], to change
+   * only that part of the image.
+   *
+   * @param input    the command
+   * @return the operation the command describes
+   * @throws IllegalArgumentException if the command isn't a valid operation
+   */
+  private static Consumer<ImageModel> parseOperation(String input)
+      throws IllegalArgumentException {
+    if (input.startsWith("filter")) {
+      String[] args = input.substring(7).split(" ");
+      FilterType filter = FilterType.valueOf(args[0].toUpperCase());
+      if (args.length > 1) {
+        Rectangle region = parseRegion(args[1]);
+        return image -> image.applyFilter(filter, region);
+      }
+      return image -> image.applyFilter(filter);
+    }
+    else if (input.startsWith("transformation")) {
+      String[] args = input.substring(15).split(" ");
+      TransformationType transf = TransformationType.valueOf(args[0].toUpperCase());
+      if (args.length > 1) {
+        Rectangle region = parseRegion(args[1]);
+        return image -> image.applyTransformation(transf, region);
+      }
+      return image -> image.applyTransformation(transf);
+    }
+    else if (input.startsWith("adjustment downscale")) {
+      String[] size = input.substring(21).split("&");
+      if (size.length != 2) {
+        throw new IllegalArgumentException("Downscale needs [width]&[height]: " + input);
+      }
+      int width = Integer.parseInt(size[0].trim());
+      int height = Integer.parseInt(size[1].trim());
+      return image -> image.applyDownscale(width, height);
+    }
+    else if (input.startsWith("adjustment mosaic")) {
+      int seeds = Integer.parseInt(input.substring(18).trim());
+      return image -> image.applyMosaic(seeds);
+    }
+    throw new IllegalArgumentException(
+        "Only filters, transformations and adjustments can be applied to several layers: "
+            + input);
+  }
+
+  // Reads on or off
+  private static boolean parseSwitch(String input) throws IllegalArgumentException {
+    if (input.equals("on")) {
+      return true;
+    }
+    else if (input.equals("off")) {
+      return false;
+    }
+    throw new IllegalArgumentException("Expected on or off: " + input);
+  }
+
+  // Reads a region given as [x],[y],[width],[height]
+  private static Rectangle parseRegion(String input) throws IllegalArgumentException {
+    String[] parts = input.split(",");
+    if (parts.length != 4) {
+      throw new IllegalArgumentException("A region is given as [x],[y],[width],[height]: "
+          + input);
+    }
+    return new Rectangle(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+        Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+  }
+
+  /**
+   * Adds a command to a streaming pipeline, or runs the pipeline when the command is a save.
+   * The image being streamed is never held in memory as a whole, so only filters and
+   * transformations can be applied to it.
+   *
+   * @param stream   the pipeline being built
+   * @param input    the command
+   * @param view     view being used
+   * @return the pipeline if it is still being built, or null once it has been run
+   * @throws IOException when any error is encountered while other methods are called.
+   */
+  private static StreamingPipeline processStreamCommand(StreamingPipeline stream, String input,
+      ImageModelView view) throws IOException {
+    if (input.startsWith("filter")) {
+      try {
+        String filtertype = input.substring(7);
+        stream.addFilter(FilterType.valueOf(filtertype.toUpperCase()));
+      }
+      catch (IllegalArgumentException | StringIndexOutOfBoundsException iae) {
+        view.renderMessage(iae.getMessage());
+      }
+    }
+    else if (input.startsWith("transformation")) {
+      try {
+        String transformationtype = input.substring(15);
+        stream.addTransformation(TransformationType.valueOf(transformationtype.toUpperCase()));
+      }
+      catch (IllegalArgumentException | StringIndexOutOfBoundsException iae) {
+        view.renderMessage(iae.getMessage());
+      }
+    }
+    else if (input.startsWith("save") && !input.startsWith("save full")) {
+      try {
+        String filetype = input.substring(input.indexOf("."));
+        stream.run(FileType.getEnum(filetype), input.substring(5));
+      }
+      catch (IOException | IllegalArgumentException | StringIndexOutOfBoundsException ie) {
+        view.renderMessage(ie.getMessage());
+      }
+      return null;
+    }
+    else {
+      view.renderMessage("Only filter and transformation commands can be streamed: " + input);
     }
+    return stream;
   }
 }
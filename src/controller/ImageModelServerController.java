@@ -0,0 +1,304 @@
+package controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import model.FileType;
+import model.ImageModel;
+import model.JobService;
+
+/**
+ * Representing a server controller for the image processing program, which answers requests
+ * from the same machine over HTTP so that one long-running process serves every job. It only
+ * listens on the loopback address.
+ *
+ * <p>{@code POST /process?in=[type]&out=[type]&op=[command]&op=...} takes an encoded image as
+ * its body and answers with the result, where each op is a filter, transformation or
+ * adjustment command as written in a script, applied in order, and out defaults to in. The
+ * types are png, jpeg and ppm. {@code GET /metrics} answers with counts and stage timings as
+ * plain text, one "name value" per line.
+ *
+ * <p>A fixed number of requests are processed at once and a fixed number more wait their turn;
+ * any request beyond those is turned away with 503 straight away rather than queued without
+ * bound.
+ */
+public final class ImageModelServerController implements Closeable {
+
+  // The largest image accepted, in bytes
+  private static final int MAX_BODY = 64 * 1024 * 1024;
+  // The stages timed for each request; images come and go in memory, so no file is touched
+  private static final JobService.Stage[] STAGES = {JobService.Stage.QUEUED,
+      JobService.Stage.DECODE, JobService.Stage.PROCESS, JobService.Stage.ENCODE};
+
+  private final HttpServer server;
+  private final ExecutorService handlers;
+  private final JobService jobs;
+  private final int maxOutstanding;
+  // Requests being processed or waiting to be
+  private final AtomicInteger outstanding;
+
+  private final AtomicLong requests;
+  private final AtomicLong succeeded;
+  private final AtomicLong badRequests;
+  private final AtomicLong rejected;
+  private final AtomicLong failed;
+  private final LongAdder bytesIn;
+  private final LongAdder bytesOut;
+  private final LongAdder[] stageNanos;
+
+  /**
+   * Starts a server on the given port of the loopback address.
+   *
+   * @param port           the port to listen on, or 0 for any free port
+   * @param maxConcurrent  the most requests processed at once
+   * @param maxQueued      the most requests waiting to be processed
+   * @throws IOException if the port can't be listened on
+   * @throws IllegalArgumentException if a limit isn't positive, or the queue is negative
+   */
+  public ImageModelServerController(int port, int maxConcurrent, int maxQueued)
+      throws IOException, IllegalArgumentException {
+    if (maxConcurrent < 1 || maxQueued < 0) {
+      throw new IllegalArgumentException("Request limits must be positive");
+    }
+    this.jobs = new JobService(Math.min(maxConcurrent,
+        Runtime.getRuntime().availableProcessors()), maxConcurrent);
+    this.maxOutstanding = maxConcurrent + maxQueued;
+    this.outstanding = new AtomicInteger();
+    this.requests = new AtomicLong();
+    this.succeeded = new AtomicLong();
+    this.badRequests = new AtomicLong();
+    this.rejected = new AtomicLong();
+    this.failed = new AtomicLong();
+    this.bytesIn = new LongAdder();
+    this.bytesOut = new LongAdder();
+    this.stageNanos = new LongAdder[JobService.Stage.values().length];
+    for (int i = 0; i < stageNanos.length; i++) {
+      stageNanos[i] = new LongAdder();
+    }
+    AtomicInteger count = new AtomicInteger();
+    this.handlers = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "server-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), port), maxOutstanding);
+    server.setExecutor(handlers);
+    server.createContext("/process", this::process);
+    server.createContext("/metrics", this::metrics);
+    server.start();
+  }
+
+  /**
+   * Starts a server on the given port of the loopback address, processing as many requests at
+   * once as there are processors, with four times as many more waiting.
+   *
+   * @param port           the port to listen on, or 0 for any free port
+   * @throws IOException if the port can't be listened on
+   */
+  public ImageModelServerController(int port) throws IOException {
+    this(port, Runtime.getRuntime().availableProcessors(),
+        4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Returns the port the server listens on.
+   *
+   * @return the port
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Stops the server, waiting up to a second for requests being answered.
+   */
+  @Override
+  public void close() {
+    server.stop(1);
+    jobs.close();
+    handlers.shutdown();
+  }
+
+  // Answers POST /process
+  private void process(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    try (exchange) {
+      if (!exchange.getRequestMethod().equals("POST")) {
+        badRequests.incrementAndGet();
+        respond(exchange, 405, "Use POST with the image as the body");
+        return;
+      }
+      if (outstanding.incrementAndGet() > maxOutstanding) {
+        outstanding.decrementAndGet();
+        rejected.incrementAndGet();
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        respond(exchange, 503, "Too many requests waiting; try again shortly");
+        return;
+      }
+      // The place is given up before answering, so a client sending its next request as soon
+      // as it has the answer never finds it still taken
+      AtomicBoolean admitted = new AtomicBoolean(true);
+      Runnable release = () -> {
+        if (admitted.getAndSet(false)) {
+          outstanding.decrementAndGet();
+        }
+      };
+      try {
+        processAdmitted(exchange, release);
+      }
+      finally {
+        release.run();
+      }
+    }
+  }
+
+  // Processes a request that has a place in the queue, giving the place up before answering
+  private void processAdmitted(HttpExchange exchange, Runnable release) throws IOException {
+    FileType inputType;
+    FileType outputType;
+    List<Consumer<ImageModel>> recipe;
+    try {
+      String in = null;
+      String out = null;
+      List<String> commands = new ArrayList<String>();
+      String query = exchange.getRequestURI().getRawQuery();
+      for (String param : query == null ? new String[0] : query.split("&")) {
+        int equals = param.indexOf('=');
+        String name = equals < 0 ? param : param.substring(0, equals);
+        String value = equals < 0 ? ""
+            : URLDecoder.decode(param.substring(equals + 1), StandardCharsets.UTF_8);
+        if (name.equals("in")) {
+          in = value;
+        }
+        else if (name.equals("out")) {
+          out = value;
+        }
+        else if (name.equals("op")) {
+          commands.add(value);
+        }
+      }
+      if (in == null) {
+        throw new IllegalArgumentException("Give the image's type as in=png, jpeg or ppm");
+      }
+      inputType = FileType.getEnum("." + in);
+      outputType = out == null ? inputType : FileType.getEnum("." + out);
+      recipe = ImageModelScriptController.parseRecipe(commands);
+    }
+    catch (IllegalArgumentException e) {
+      release.run();
+      badRequests.incrementAndGet();
+      respond(exchange, 400, e.getMessage());
+      return;
+    }
+    byte[] image = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+    if (image.length > MAX_BODY) {
+      release.run();
+      badRequests.incrementAndGet();
+      respond(exchange, 413, "Image is larger than " + MAX_BODY + " bytes");
+      return;
+    }
+    bytesIn.add(image.length);
+
+    JobService.Result result;
+    try {
+      result = jobs.submit(recipe, image, inputType, outputType).get();
+    }
+    catch (ExecutionException e) {
+      release.run();
+      if (e.getCause() instanceof Error) {
+        failed.incrementAndGet();
+        respond(exchange, 500, "Cannot process image: " + e.getCause());
+      }
+      else {
+        badRequests.incrementAndGet();
+        respond(exchange, 400, "Cannot process image: " + e.getCause().getMessage());
+      }
+      return;
+    }
+    catch (InterruptedException e) {
+      release.run();
+      Thread.currentThread().interrupt();
+      failed.incrementAndGet();
+      respond(exchange, 503, "Server is stopping");
+      return;
+    }
+    release.run();
+
+    StringBuilder timing = new StringBuilder();
+    for (JobService.Stage stage : STAGES) {
+      stageNanos[stage.ordinal()].add((long) (result.getMillis(stage) * 1e6));
+      timing.append(timing.length() > 0 ? ", " : "").append(stage.name().toLowerCase())
+          .append(String.format(";dur=%.2f", result.getMillis(stage)));
+    }
+    byte[] encoded = result.getEncoded();
+    exchange.getResponseHeaders().set("Content-Type", contentType(outputType));
+    exchange.getResponseHeaders().set("Server-Timing", timing.toString());
+    exchange.sendResponseHeaders(200, encoded.length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(encoded);
+    }
+    bytesOut.add(encoded.length);
+    succeeded.incrementAndGet();
+  }
+
+  private static String contentType(FileType type) {
+    switch (type) {
+      case PNG: return "image/png";
+      case JPEG: return "image/jpeg";
+      default: return "image/x-portable-pixmap";
+    }
+  }
+
+  // Answers GET /metrics
+  private void metrics(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      StringBuilder report = new StringBuilder();
+      line(report, "requests_total", requests.get());
+      line(report, "requests_succeeded", succeeded.get());
+      line(report, "requests_bad", badRequests.get());
+      line(report, "requests_rejected", rejected.get());
+      line(report, "requests_failed", failed.get());
+      line(report, "requests_outstanding", outstanding.get());
+      line(report, "bytes_in_total", bytesIn.sum());
+      line(report, "bytes_out_total", bytesOut.sum());
+      for (JobService.Stage stage : STAGES) {
+        line(report, "stage_" + stage.name().toLowerCase() + "_ms_total",
+            stageNanos[stage.ordinal()].sum() / 1_000_000);
+      }
+      line(report, "virtual_threads", jobs.usesVirtualThreads() ? 1 : 0);
+      respond(exchange, 200, report.toString().trim());
+    }
+  }
+
+  private static void line(StringBuilder report, String name, long value) {
+    report.append(name).append(' ').append(value).append('\n');
+  }
+
+  // Sends a short plain-text response
+  private static void respond(HttpExchange exchange, int status, String message)
+      throws IOException {
+    byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
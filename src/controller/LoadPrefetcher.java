@@ -0,0 +1,85 @@
+package controller;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import model.FileType;
+import model.ImageModelCreator;
+
+/**
+ * Representing the images a script loads, found by reading the script before it runs, so
+ * that each can be decoded in the background a few commands before it is needed. An image
+ * the script saves before loading it is left alone, since it doesn't exist yet in the form
+ * the load expects.
+ */
+final class LoadPrefetcher {
+
+  // How many upcoming loads are decoded ahead, which bounds the memory prefetching takes
+  private static final int LOOKAHEAD = 2;
+
+  private final List<Integer> lines;
+  private final List<FileType> types;
+  private final List<String> files;
+  // The first load not yet prefetched
+  private int next;
+
+  /**
+   * Finds the loads in the given script.
+   *
+   * @param script  the commands, one per line
+   */
+  LoadPrefetcher(List<String> script) {
+    this.lines = new ArrayList<Integer>();
+    this.types = new ArrayList<FileType>();
+    this.files = new ArrayList<String>();
+    Set<String> saved = new HashSet<String>();
+    for (int i = 0; i < script.size(); i++) {
+      String input = script.get(i);
+      if (input.startsWith("save composite ")) {
+        saved.add(key(input.substring(15)));
+      }
+      else if (input.startsWith("save ") && !input.startsWith("save full")) {
+        saved.add(key(input.substring(5)));
+      }
+      else if (input.startsWith("load ") && !input.startsWith("load full")
+          && input.contains(".")) {
+        String file = input.substring(5);
+        try {
+          FileType type = FileType.getEnum(input.substring(input.lastIndexOf(".")));
+          if (!saved.contains(key(file))) {
+            lines.add(i);
+            types.add(type);
+            files.add(file);
+          }
+        }
+        catch (IllegalArgumentException e) {
+          // Not an image the load could read; it reports that itself
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts decoding the next few images loaded after the given line, if not already started.
+   *
+   * @param line  the index of the line about to run
+   */
+  void reached(int line) {
+    int upcoming = 0;
+    while (upcoming < lines.size() && lines.get(upcoming) <= line) {
+      upcoming++;
+    }
+    next = Math.max(next, upcoming);
+    while (next < lines.size() && next < upcoming + LOOKAHEAD) {
+      ImageModelCreator.prefetch(types.get(next), files.get(next));
+      next++;
+    }
+  }
+
+  // Identifies a file however its name is written
+  private static String key(String filename) {
+    return Paths.get(filename).toAbsolutePath().normalize().toString();
+  }
+}
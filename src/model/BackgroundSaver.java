@@ -0,0 +1,154 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Representing a queue of images being saved in the background, in the order they were
+ * handed over, so that whoever saves them can carry on meanwhile. Since each image is a
+ * snapshot, later changes to the model it came from don't affect what gets written. Failures
+ * are reported when the saves they belong to are waited for.
+ */
+public final class BackgroundSaver implements Closeable {
+
+  // The most images queued at once; queuing another first waits for the oldest
+  private static final int MAX_QUEUED = 4;
+
+  private final ExecutorService encoder;
+  // Saves not yet waited for, oldest first
+  private final List<Save> pending;
+
+  /**
+   * Constructs a saver with its own encoding thread.
+   */
+  public BackgroundSaver() {
+    this.encoder = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "background-saver");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.pending = new ArrayList<Save>();
+  }
+
+  /**
+   * Queues an image to be written to the given file. If too many images are already queued,
+   * first waits for the oldest to be written.
+   *
+   * @param image     the image to write
+   * @param filename  String representing the name of the file to write
+   * @param options   the file type and encoder settings to use
+   * @throws IOException if the oldest image waited for couldn't be written
+   */
+  public void save(ImageSnapshot image, String filename, ExportOptions options)
+      throws IOException {
+    List<Save> oldest;
+    synchronized (this) {
+      oldest = new ArrayList<Save>(pending.subList(0,
+          Math.max(0, pending.size() - MAX_QUEUED + 1)));
+      pending.removeAll(oldest);
+      pending.add(new Save(filename, encoder.submit(() -> {
+        image.export(filename, options);
+        return null;
+      })));
+    }
+    finish(oldest);
+  }
+
+  /**
+   * Waits until the given file has been written, if a save of it is queued.
+   *
+   * @param filename  String representing the name of the file
+   * @throws IOException if the file couldn't be written
+   */
+  public void await(String filename) throws IOException {
+    String key = key(filename);
+    finish(take(save -> save.key.equals(key)));
+  }
+
+  /**
+   * Waits until every queued image has been written.
+   *
+   * @throws IOException if any file couldn't be written, listing each
+   */
+  public void awaitAll() throws IOException {
+    finish(take(save -> true));
+  }
+
+  /**
+   * Waits for every queued image, then stops the encoding thread.
+   *
+   * @throws IOException if any file couldn't be written
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      awaitAll();
+    }
+    finally {
+      encoder.shutdown();
+    }
+  }
+
+  // Removes and returns the queued saves matching the given test
+  private synchronized List<Save> take(Predicate<Save> test) {
+    List<Save> taken = new ArrayList<Save>();
+    for (Iterator<Save> it = pending.iterator(); it.hasNext(); ) {
+      Save save = it.next();
+      if (test.test(save)) {
+        taken.add(save);
+        it.remove();
+      }
+    }
+    return taken;
+  }
+
+  // Waits for the given saves, reporting every one that failed
+  private static void finish(List<Save> saves) throws IOException {
+    StringBuilder errors = new StringBuilder();
+    for (Save save : saves) {
+      try {
+        save.result.get();
+      }
+      catch (ExecutionException e) {
+        errors.append(errors.length() > 0 ? System.lineSeparator() : "").append("Cannot save ")
+            .append(save.filename).append(": ").append(e.getCause().getMessage());
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while saving " + save.filename);
+      }
+    }
+    if (errors.length() > 0) {
+      throw new IOException(errors.toString());
+    }
+  }
+
+  // Identifies a file however its name is written
+  private static String key(String filename) {
+    return Paths.get(filename).toAbsolutePath().normalize().toString();
+  }
+
+  /**
+   * Representing one queued save.
+   */
+  private static final class Save {
+    private final String filename;
+    private final String key;
+    private final Future<?> result;
+
+    private Save(String filename, Future<?> result) {
+      this.filename = filename;
+      this.key = key(filename);
+      this.result = result;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Representing one recipe of operations applied to every image in a directory. Images are
+ * processed concurrently on the shared {@link WorkPool}, each loaded, changed and saved under
+ * the same name and type in the output directory. At most a fixed number of images are held
+ * at once, so reading the directory waits for finished images rather than loading ahead of
+ * the workers. A file that fails is reported and the rest carry on.
+ */
+public final class BatchProcessor {
+
+  private final List<Consumer<ImageModel>> recipe;
+  private final int maxInFlight;
+
+  /**
+   * Constructs a processor applying the given operations, in order, to each image.
+   *
+   * @param recipe       the operations to apply
+   * @param maxInFlight  the most images held in memory at once
+   * @throws IllegalArgumentException if the recipe is null or the limit isn't positive
+   */
+  public BatchProcessor(List<Consumer<ImageModel>> recipe, int maxInFlight)
+      throws IllegalArgumentException {
+    if (recipe == null) {
+      throw new IllegalArgumentException("Null method parameters");
+    }
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("At least one image must be allowed in flight");
+    }
+    this.recipe = new ArrayList<Consumer<ImageModel>>(recipe);
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Constructs a processor holding two images per worker of the shared pool at once.
+   *
+   * @param recipe       the operations to apply
+   */
+  public BatchProcessor(List<Consumer<ImageModel>> recipe) throws IllegalArgumentException {
+    this(recipe, 2 * WorkPool.pool().getParallelism());
+  }
+
+  /**
+   * Applies the recipe to every .png, .jpeg and .ppm file in the input directory, writing the
+   * results to the output directory, which is created if needed. Other files are skipped.
+   *
+   * @param inputDir   the directory to read images from
+   * @param outputDir  the directory to write images to
+   * @return what was processed, what failed and how long it took
+   * @throws IOException if either directory can't be used
+   */
+  public Summary run(Path inputDir, Path outputDir) throws IOException {
+    Files.createDirectories(outputDir);
+    if (Files.isSameFile(inputDir, outputDir)) {
+      throw new IOException("The output directory must differ from the input directory");
+    }
+    Semaphore inFlight = new Semaphore(maxInFlight);
+    ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<Long>();
+    Map<String, String> failures = Collections.synchronizedMap(new TreeMap<String, String>());
+    AtomicLong pixels = new AtomicLong();
+    int skipped = 0;
+    long start = System.nanoTime();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(inputDir)) {
+      for (Path file : files) {
+        FileType type = typeOf(file);
+        if (type == null || !Files.isRegularFile(file)) {
+          skipped++;
+          continue;
+        }
+        inFlight.acquire();
+        WorkPool.pool().execute(() -> {
+          long began = System.nanoTime();
+          try {
+            pixels.addAndGet(process(file, type, outputDir.resolve(file.getFileName())));
+            latencies.add(System.nanoTime() - began);
+          }
+          catch (IOException | RuntimeException | OutOfMemoryError e) {
+            failures.put(file.getFileName().toString(), String.valueOf(e.getMessage()));
+          }
+          finally {
+            inFlight.release();
+          }
+        });
+      }
+      // Every permit is back once the last image is done
+      inFlight.acquire(maxInFlight);
+      inFlight.release(maxInFlight);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while processing " + inputDir);
+    }
+    long[] sorted = new long[latencies.size()];
+    int i = 0;
+    for (long latency : latencies) {
+      sorted[i++] = latency;
+    }
+    Arrays.sort(sorted);
+    return new Summary(sorted, failures, skipped, pixels.get(), System.nanoTime() - start);
+  }
+
+  // Loads, changes and saves one image, returning the number of pixels it was loaded with
+  private long process(Path file, FileType type, Path output) throws IOException {
+    SingleImageModel image = ImageModelCreator.loadUncached(type, file.toString());
+    long pixels = (long) image.getWidth() * image.getHeight();
+    for (Consumer<ImageModel> operation : recipe) {
+      operation.accept(image);
+    }
+    image.export(output.toString(), new ExportOptions(type));
+    return pixels;
+  }
+
+  // Returns the type of the given image file, or null if it isn't one
+  private static FileType typeOf(Path file) {
+    String name = file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    if (dot < 0) {
+      return null;
+    }
+    try {
+      return FileType.getEnum(name.substring(dot));
+    }
+    catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Representing the outcome of a batch: how many images were processed, which failed and
+   * why, and how long each took.
+   */
+  public static final class Summary {
+    private final long[] latencies;
+    private final Map<String, String> failures;
+    private final int skipped;
+    private final long pixels;
+    private final long elapsed;
+
+    private Summary(long[] latencies, Map<String, String> failures, int skipped, long pixels,
+        long elapsed) {
+      this.latencies = latencies;
+      this.failures = new TreeMap<String, String>(failures);
+      this.skipped = skipped;
+      this.pixels = pixels;
+      this.elapsed = elapsed;
+    }
+
+    /**
+     * Returns the number of images loaded, changed and saved.
+     *
+     * @return the number of successful images
+     */
+    public int getSucceeded() {
+      return latencies.length;
+    }
+
+    /**
+     * Returns the files that failed, by name, with the reason each failed.
+     *
+     * @return the failed files in name order
+     */
+    public Map<String, String> getFailures() {
+      return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Returns the number of files in the input directory that weren't images.
+     *
+     * @return the number of skipped files
+     */
+    public int getSkipped() {
+      return skipped;
+    }
+
+    /**
+     * Returns the time taken to load, change and save an image, below which the given
+     * fraction of the successful images fall.
+     *
+     * @param fraction  the fraction, from 0 to 1, such as 0.99 for the 99th percentile
+     * @return the latency in milliseconds, or 0 if no image succeeded
+     */
+    public double getLatencyPercentile(double fraction) {
+      if (latencies.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(fraction * latencies.length);
+      return latencies[Math.max(0, Math.min(latencies.length, rank) - 1)] / 1e6;
+    }
+
+    /**
+     * Returns a report of the batch: counts, throughput and latency percentiles, followed by
+     * each failure.
+     *
+     * @return the report
+     */
+    @Override
+    public String toString() {
+      double seconds = elapsed / 1e9;
+      StringBuilder report = new StringBuilder();
+      report.append(String.format("Processed %d images, %d failed, %d skipped in %.2f s",
+          getSucceeded(), failures.size(), skipped, seconds));
+      report.append(System.lineSeparator()).append(String.format(
+          "Throughput: %.1f images/s, %.1f megapixels/s", getSucceeded() / seconds,
+          pixels / 1e6 / seconds));
+      report.append(System.lineSeparator()).append(String.format(
+          "Latency: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+          getLatencyPercentile(0.5), getLatencyPercentile(0.9), getLatencyPercentile(0.99),
+          getLatencyPercentile(1)));
+      for (Map.Entry<String, String> failure : failures.entrySet()) {
+        report.append(System.lineSeparator()).append("Failed ").append(failure.getKey())
+            .append(": ").append(failure.getValue());
+      }
+      return report.toString();
+    }
+  }
+}
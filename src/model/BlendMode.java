@@ -0,0 +1,8 @@
+package model;
+
+/**
+ * Enum representing the ways a layer can be blended onto the layers below it.
+ */
+public enum BlendMode {
+  OVER, MULTIPLY, SCREEN
+}
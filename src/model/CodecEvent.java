@@ -0,0 +1,97 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Representing Java Flight Recorder events for turning a file's bytes into pixels and back.
+ */
+final class CodecEvent {
+
+  private CodecEvent() {
+  }
+
+  /**
+   * Representing an image being decoded, from a file, from memory or from a project.
+   */
+  @Name("imageprocessing.Decode")
+  @Label("Image Decode")
+  @Category("Image Processing")
+  @Description("An image decoded into pixels")
+  static final class Decode extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Format")
+    String format;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+  }
+
+  /**
+   * Representing an image being encoded, into a file or into memory.
+   */
+  @Name("imageprocessing.Encode")
+  @Label("Image Encode")
+  @Category("Image Processing")
+  @Description("An image encoded from pixels")
+  static final class Encode extends Event {
+    @Label("File")
+    @Description("The file written, or null if encoded into memory")
+    String file;
+
+    @Label("Format")
+    String format;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+  }
+
+  // Starts timing a decode
+  static Decode startDecode() {
+    Decode event = new Decode();
+    event.begin();
+    return event;
+  }
+
+  // Records a decode of the given file into the given image as finished, if wanted
+  static void finish(Decode event, String file, String format, SingleImageModel image) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.file = file;
+      event.format = format;
+      event.width = image.getWidth();
+      event.height = image.getHeight();
+      event.commit();
+    }
+  }
+
+  // Starts timing an encode
+  static Encode startEncode() {
+    Encode event = new Encode();
+    event.begin();
+    return event;
+  }
+
+  // Records an encode of an image of the given size as finished, if wanted
+  static void finish(Encode event, String file, FileType format, int width, int height) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.file = file;
+      event.format = format.name().toLowerCase();
+      event.width = width;
+      event.height = height;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Representing a Java Flight Recorder event for one command given to the program, from a
+ * script, the text prompt or the GUI, so that a recording shows which command each stretch of
+ * work, allocation or pause belongs to. The thread it ran on is recorded with every event.
+ */
+@Name("imageprocessing.Command")
+@Label("Image Command")
+@Category("Image Processing")
+@Description("A command given to the image processor, from starting it to finishing it")
+public final class CommandEvent extends Event {
+
+  @Label("Source")
+  @Description("Where the command came from: script, text or gui")
+  private String source;
+
+  @Label("Command")
+  @Description("The command as given, with its parameters")
+  private String command;
+
+  @Label("Line")
+  @Description("The command's line in its script or typed text, counting from 1, or 0 if "
+      + "from the GUI")
+  private int line;
+
+  @Label("Layer")
+  @Description("The current layer once the command finished, if any")
+  private String layer;
+
+  @Label("Width")
+  private int width;
+
+  @Label("Height")
+  private int height;
+
+  /**
+   * Starts timing a command.
+   *
+   * @return the event, to finish once the command has
+   */
+  public static CommandEvent start() {
+    CommandEvent event = new CommandEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Records the command as finished, if a recording wants it, along with the current layer of
+   * the given model and its size as of its last finished operation.
+   *
+   * @param source    where the command came from
+   * @param command   the command
+   * @param line      its line in its script or typed text, or 0
+   * @param model     the model the command left in use, or null if none
+   */
+  public void finish(String source, String command, int line, LayeredImageModel model) {
+    end();
+    if (!shouldCommit()) {
+      return;
+    }
+    this.source = source;
+    this.command = command;
+    this.line = line;
+    Layer current = model == null ? null : model.currentLayer();
+    if (current != null) {
+      this.layer = current.getName();
+      if (!current.isEmpty()) {
+        this.width = current.width();
+        this.height = current.height();
+      }
+    }
+    commit();
+  }
+}
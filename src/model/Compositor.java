@@ -0,0 +1,251 @@
+package model;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Blends the visible layers of a layered image, bottom (first) to top (last), each with its
+ * own blend mode, into a premultiplied ARGB image, and keeps the result between calls.
+ * Alongside the result it keeps the blend of the layers up to a few evenly spaced checkpoint
+ * layers, so that when a layer changes, or is shown or hidden, only the area it covers is
+ * recomputed, starting from the nearest checkpoint below it.
+ *
+ * <p>Layers are read through their images' snapshots, so a composite can be computed while an
+ * operation on one of the layers is still running; it shows that layer as it was before.
+ *
+ * <p>The result is double-buffered: each update is written into the buffer handed out the time
+ * before, after copying over just the area that changed since, so an update costs only the
+ * area it covers. A result handed out for display is therefore only good until the next
+ * update but one. One kept instead, for saving, is never written again.
+ */
+final class Compositor {
+
+  // The most intermediate blends kept, which bounds memory at a few canvases
+  private static final int MAX_CHECKPOINTS = 4;
+
+  private int width;
+  private int height;
+  private int[] composite;
+  // The previous result, written next unless it was kept, and where it differs from the
+  // current one
+  private int[] spare;
+  private Rectangle spareBehind;
+  private boolean compositeKept;
+  private boolean spareKept;
+  private int stride;
+  // checkpoints[i], when present, holds the blend of layers 0 through i
+  private int[][] checkpoints;
+  // What each layer looked like when the result was last computed
+  private SingleImageModel[] seenImages;
+  private long[] seenVersions;
+  private int[] seenWidths;
+  private int[] seenHeights;
+  private boolean[] seenVisible;
+  private BlendMode[] seenModes;
+  private Rectangle lastChange;
+
+  /**
+   * Returns the blend of the visible layers, recomputing only what changed since last time.
+   * The canvas is as large as the largest non-empty layer, and anything no visible layer
+   * covers is transparent.
+   *
+   * @param layers    the layers to blend, bottom to top
+   * @param keep      whether later updates must leave the result as it is; otherwise it's only
+   *                  good until the next update but one
+   * @return an image holding the blend
+   * @throws IllegalStateException if every layer is empty
+   */
+  synchronized SingleImageModel composite(List<Layer> layers, boolean keep)
+      throws IllegalStateException {
+    int n = layers.size();
+    SingleImageModel[] images = new SingleImageModel[n];
+    ImageSnapshot[] snapshots = new ImageSnapshot[n];
+    boolean[] visible = new boolean[n];
+    BlendMode[] modes = new BlendMode[n];
+    int canvasWidth = 0;
+    int canvasHeight = 0;
+    for (int i = 0; i < n; i++) {
+      Layer layer = layers.get(i);
+      if (!layer.isEmpty()) {
+        images[i] = layer.getImage();
+        snapshots[i] = images[i].snapshot();
+        visible[i] = layer.isVisible();
+        modes[i] = layer.getBlendMode();
+        canvasWidth = Math.max(canvasWidth, snapshots[i].getWidth());
+        canvasHeight = Math.max(canvasHeight, snapshots[i].getHeight());
+      }
+    }
+    if (canvasWidth == 0 || canvasHeight == 0) {
+      throw new IllegalStateException("Every layer is currently empty.");
+    }
+
+    int newStride = Math.max(1, (n + MAX_CHECKPOINTS - 1) / MAX_CHECKPOINTS);
+    int lowest;
+    Rectangle dirty = null;
+    boolean rebuild = composite == null || canvasWidth != width || canvasHeight != height
+        || newStride != stride || n < seenImages.length;
+    if (!rebuild && checkpoints.length != n) {
+      // A layer was added, which may call for a checkpoint that doesn't exist yet
+      int[][] grown = new int[n][];
+      System.arraycopy(checkpoints, 0, grown, 0, checkpoints.length);
+      checkpoints = grown;
+      stride = newStride;
+      for (int i = 0; i < n; i++) {
+        rebuild |= isCheckpoint(i, n) && checkpoints[i] == null;
+      }
+    }
+    if (rebuild) {
+      width = canvasWidth;
+      height = canvasHeight;
+      stride = newStride;
+      composite = null;
+      spare = null;
+      checkpoints = new int[n][];
+      lowest = 0;
+      dirty = new Rectangle(0, 0, width, height);
+    }
+    else {
+      // Finds the lowest changed layer and the area covered by every change
+      lowest = n;
+      for (int i = 0; i < n; i++) {
+        SingleImageModel before = i < seenImages.length ? seenImages[i] : null;
+        boolean changed = i >= seenImages.length || before != images[i]
+            || (before != null && snapshots[i].getVersion() != seenVersions[i])
+            || visible[i] != seenVisible[i] || modes[i] != seenModes[i];
+        if (!changed) {
+          continue;
+        }
+        lowest = Math.min(lowest, i);
+        Rectangle region;
+        if (before == images[i] && visible[i] == seenVisible[i] && modes[i] == seenModes[i]
+            && snapshots[i].getWidth() == seenWidths[i]
+            && snapshots[i].getHeight() == seenHeights[i]) {
+          // Only the pixels changed, and the image knows where
+          region = snapshots[i].getChangedRegion(seenVersions[i]);
+          if (region.isEmpty()) {
+            continue;
+          }
+        }
+        else {
+          // The change covers both where the layer was and where it is now
+          region = new Rectangle();
+          if (before != null) {
+            region.add(new Rectangle(0, 0, seenWidths[i], seenHeights[i]));
+          }
+          if (snapshots[i] != null) {
+            region.add(new Rectangle(0, 0, snapshots[i].getWidth(), snapshots[i].getHeight()));
+          }
+        }
+        dirty = dirty == null ? region : dirty.union(region);
+      }
+    }
+    if (dirty != null) {
+      dirty = dirty.intersection(new Rectangle(0, 0, width, height));
+    }
+    if (lowest < n && dirty != null && !dirty.isEmpty()) {
+      OperationMetrics.Sample sample = OperationMetrics.start();
+      blend(snapshots, visible, modes, lowest, dirty);
+      sample.stop("composite", (long) dirty.width * dirty.height);
+      lastChange = dirty;
+    }
+    else {
+      lastChange = new Rectangle();
+    }
+
+    seenImages = images;
+    seenVisible = visible;
+    seenModes = modes;
+    seenVersions = new long[n];
+    seenWidths = new int[n];
+    seenHeights = new int[n];
+    for (int i = 0; i < n; i++) {
+      if (snapshots[i] != null) {
+        seenVersions[i] = snapshots[i].getVersion();
+        seenWidths[i] = snapshots[i].getWidth();
+        seenHeights[i] = snapshots[i].getHeight();
+      }
+    }
+    compositeKept |= keep;
+    return new SingleImageModel(width, height, 255, composite, true);
+  }
+
+  // Returns the part of the result that changed the last time it was computed
+  synchronized Rectangle getLastChange() {
+    return lastChange == null ? new Rectangle() : new Rectangle(lastChange);
+  }
+
+  // Recomputes the given area, starting from the nearest checkpoint below the given layer
+  private void blend(ImageSnapshot[] images, boolean[] visible, BlendMode[] modes,
+      int lowest, Rectangle dirty) {
+    swapBuffers(dirty);
+    int start = lowest - 1;
+    while (start >= 0 && !isCheckpoint(start, images.length)) {
+      start--;
+    }
+    int x0 = dirty.x;
+    int x1 = dirty.x + dirty.width;
+    int y0 = dirty.y;
+    int y1 = dirty.y + dirty.height;
+    for (int y = y0; y < y1; y++) {
+      if (start >= 0) {
+        System.arraycopy(checkpoints[start], y * width + x0, composite, y * width + x0,
+            dirty.width);
+      }
+      else {
+        Arrays.fill(composite, y * width + x0, y * width + x1, 0);
+      }
+    }
+    for (int i = start + 1; i < images.length; i++) {
+      ImageSnapshot image = images[i];
+      if (image != null && visible[i]) {
+        int[] src = image.getData();
+        int w = Math.min(x1, image.getWidth()) - x0;
+        int h = Math.min(y1, image.getHeight());
+        for (int y = y0; y < h && w > 0; y++) {
+          Kernels.blendRow(modes[i], src, y * image.getWidth() + x0, image.hasAlpha(),
+              composite, y * width + x0, w);
+        }
+      }
+      if (isCheckpoint(i, images.length)) {
+        if (checkpoints[i] == null) {
+          checkpoints[i] = new int[width * height];
+        }
+        for (int y = y0; y < y1; y++) {
+          System.arraycopy(composite, y * width + x0, checkpoints[i], y * width + x0,
+              dirty.width);
+        }
+      }
+    }
+  }
+
+  // Makes the spare buffer the current one, ready for the given area to be recomputed in it:
+  // it's brought up to date from the current one, or made afresh if it was kept or there's none
+  private void swapBuffers(Rectangle dirty) {
+    int[] next;
+    if (composite == null) {
+      next = new int[width * height];
+    }
+    else if (spare == null || spareKept) {
+      next = composite.clone();
+    }
+    else {
+      next = spare;
+      for (int y = spareBehind.y; y < spareBehind.y + spareBehind.height; y++) {
+        System.arraycopy(composite, y * width + spareBehind.x, next, y * width + spareBehind.x,
+            spareBehind.width);
+      }
+    }
+    spare = composite;
+    spareBehind = new Rectangle(dirty);
+    spareKept = compositeKept;
+    composite = next;
+    compositeKept = false;
+  }
+
+  // Returns whether the blend up to the given layer is kept; the top layer never is, since
+  // its blend is the result itself
+  private boolean isCheckpoint(int index, int count) {
+    return index < count - 1 && index % stride == stride - 1;
+  }
+}
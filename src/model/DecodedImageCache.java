@@ -0,0 +1,240 @@
+package model;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Representing a bounded, least-recently-used cache of decoded images, keyed by the canonical
+ * path of their file. An entry only counts as a hit while the file's modification time and size
+ * are unchanged. Every load hands out a new image sharing the cached pixels; since images
+ * replace their pixels rather than modifying them, editing one never affects the others.
+ * A file is only decoded once at a time: loads of a file already being decoded, for example
+ * by a prefetch, wait for that decode instead of starting their own.
+ */
+public final class DecodedImageCache {
+
+  // Rough per-entry cost beyond the pixels themselves
+  private static final long ENTRY_OVERHEAD = 256;
+
+  private final LinkedHashMap<String, Entry> entries;
+  // Decodes in progress, by key, for loads of the same file to wait on
+  private final Map<String, CompletableFuture<Entry>> decoding;
+  private long maxBytes;
+  private long bytes;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * Constructs an empty cache holding at most the given number of bytes of pixels.
+   *
+   * @param maxBytes    the most memory the cached images may take up
+   */
+  public DecodedImageCache(long maxBytes) throws IllegalArgumentException {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Cache size can't be negative");
+    }
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    this.decoding = new HashMap<String, CompletableFuture<Entry>>();
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Changes how much memory the cached images may take up, evicting images if needed. A limit
+   * of zero turns the cache off.
+   *
+   * @param maxBytes    the most memory the cached images may take up
+   */
+  public synchronized void setMaxBytes(long maxBytes) throws IllegalArgumentException {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Cache size can't be negative");
+    }
+    this.maxBytes = maxBytes;
+    evict();
+  }
+
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Removes every image from this cache. The counters are left as they are.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "DecodedImageCache[" + entries.size() + " images, " + bytes + "/" + maxBytes
+        + " bytes, " + hits + " hits, " + misses + " misses, " + evictions + " evictions]";
+  }
+
+  /**
+   * Returns the image in the given file, decoding it with the given decoder only if it isn't
+   * already cached.
+   *
+   * @param filename    the file holding the image
+   * @param decoder     decodes the file when it isn't cached
+   * @return a new image sharing the cached pixels
+   * @throws FileNotFoundException if the file can't be found or read
+   */
+  SingleImageModel load(String filename, Decoder decoder) throws FileNotFoundException {
+    File file = new File(filename);
+    String key;
+    long modified;
+    long size;
+    try {
+      key = file.getCanonicalPath();
+      BasicFileAttributes attributes = Files.readAttributes(file.toPath(),
+          BasicFileAttributes.class);
+      modified = attributes.lastModifiedTime().toMillis();
+      size = attributes.size();
+    }
+    catch (IOException e) {
+      throw new FileNotFoundException("Cannot find file: " + filename);
+    }
+
+    CompletableFuture<Entry> pending;
+    CompletableFuture<Entry> own = null;
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.modified == modified && entry.size == size) {
+        hits++;
+        return entry.view();
+      }
+      if (entry != null) {
+        entries.remove(key);
+        bytes -= entry.bytes;
+      }
+      misses++;
+      pending = decoding.get(key);
+      if (pending == null) {
+        own = new CompletableFuture<Entry>();
+        decoding.put(key, own);
+      }
+    }
+    if (own == null) {
+      Entry entry = await(pending);
+      if (entry.modified == modified && entry.size == size) {
+        return entry.view();
+      }
+      // The file changed while it was being decoded
+      return decoder.decode();
+    }
+
+    // Decodes outside the lock so that loads of other files aren't held up
+    Entry entry;
+    try {
+      entry = new Entry(decoder.decode(), modified, size);
+    }
+    catch (FileNotFoundException | RuntimeException | Error e) {
+      synchronized (this) {
+        decoding.remove(key);
+      }
+      own.completeExceptionally(e);
+      throw e;
+    }
+    synchronized (this) {
+      decoding.remove(key);
+      if (entry.bytes <= maxBytes) {
+        Entry old = entries.put(key, entry);
+        if (old != null) {
+          bytes -= old.bytes;
+        }
+        bytes += entry.bytes;
+        evict();
+      }
+    }
+    own.complete(entry);
+    return entry.view();
+  }
+
+  // Waits for a decode started by another load, failing the same way it did
+  private static Entry await(CompletableFuture<Entry> pending) throws FileNotFoundException {
+    try {
+      return pending.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof FileNotFoundException) {
+        throw (FileNotFoundException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  // Drops least recently used images until the cache fits its limit
+  private void evict() {
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      bytes -= it.next().getValue().bytes;
+      it.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Representing a way to decode an image file that isn't cached yet.
+   */
+  interface Decoder {
+    SingleImageModel decode() throws FileNotFoundException;
+  }
+
+  /**
+   * Representing one decoded image and the state of the file it came from.
+   */
+  private static final class Entry {
+    private final int width;
+    private final int height;
+    private final int maxValue;
+    private final boolean alpha;
+    private final int[] data;
+    private final long modified;
+    private final long size;
+    private final long bytes;
+
+    private Entry(SingleImageModel image, long modified, long size) {
+      this.width = image.getWidth();
+      this.height = image.getHeight();
+      this.maxValue = image.getMaxValue();
+      this.alpha = image.hasAlpha();
+      this.data = image.getData();
+      this.modified = modified;
+      this.size = size;
+      this.bytes = data.length * 4L + ENTRY_OVERHEAD;
+    }
+
+    private SingleImageModel view() {
+      return new SingleImageModel(width, height, maxValue, data, alpha);
+    }
+  }
+}
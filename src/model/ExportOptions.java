@@ -0,0 +1,100 @@
+package model;
+
+/**
+ * Representing how an image should be encoded when it's exported: the file type, plus the
+ * settings that apply to it.
+ */
+public final class ExportOptions {
+
+  /**
+   * The PNG compression level used unless told otherwise, trading size for speed like zlib's
+   * own default.
+   */
+  public static final int DEFAULT_PNG_LEVEL = 6;
+
+  /**
+   * The JPEG quality used unless told otherwise, matching ImageIO's default.
+   */
+  public static final float DEFAULT_JPEG_QUALITY = 0.75f;
+
+  // PNGs are compressed on several threads by default only when there's more than one
+  // processor to run them on; otherwise the blocks would only add flush markers
+  private static final boolean DEFAULT_PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+
+  private final FileType fileType;
+  private final int pngLevel;
+  private final float jpegQuality;
+  private final boolean parallel;
+
+  /**
+   * Constructs options for the given file type with all of its settings spelled out.
+   *
+   * @param fileType      the type of file to write
+   * @param pngLevel      the deflate level for PNG files, from 0 (fastest) to 9 (smallest)
+   * @param jpegQuality   the quality for JPEG files, from 0 (smallest) to 1 (best)
+   * @param parallel      whether a PNG is compressed in blocks on several threads at once
+   */
+  public ExportOptions(FileType fileType, int pngLevel, float jpegQuality, boolean parallel)
+      throws IllegalArgumentException {
+    if (fileType == null) {
+      throw new IllegalArgumentException("Null method parameters");
+    }
+    if (pngLevel < 0 || pngLevel > 9) {
+      throw new IllegalArgumentException("PNG compression level must be between 0 and 9");
+    }
+    if (!(jpegQuality >= 0 && jpegQuality <= 1)) {
+      throw new IllegalArgumentException("JPEG quality must be between 0 and 1");
+    }
+    this.fileType = fileType;
+    this.pngLevel = pngLevel;
+    this.jpegQuality = jpegQuality;
+    this.parallel = parallel;
+  }
+
+  /**
+   * Constructs options for the given file type with default settings, compressing PNGs on
+   * several threads if there is more than one processor.
+   *
+   * @param fileType      the type of file to write
+   */
+  public ExportOptions(FileType fileType) throws IllegalArgumentException {
+    this(fileType, DEFAULT_PNG_LEVEL, DEFAULT_JPEG_QUALITY, DEFAULT_PARALLEL);
+  }
+
+  /**
+   * Returns options for writing a PNG at the given compression level.
+   *
+   * @param level       the deflate level, from 0 (fastest) to 9 (smallest)
+   * @param parallel    whether the image is compressed in blocks on several threads at once
+   * @return the options
+   */
+  public static ExportOptions png(int level, boolean parallel) throws IllegalArgumentException {
+    return new ExportOptions(FileType.PNG, level, DEFAULT_JPEG_QUALITY, parallel);
+  }
+
+  /**
+   * Returns options for writing a JPEG at the given quality.
+   *
+   * @param quality    the quality, from 0 (smallest) to 1 (best)
+   * @return the options
+   */
+  public static ExportOptions jpeg(float quality) throws IllegalArgumentException {
+    return new ExportOptions(FileType.JPEG, DEFAULT_PNG_LEVEL, quality, DEFAULT_PARALLEL);
+  }
+
+  public FileType getFileType() {
+    return fileType;
+  }
+
+  public int getPngLevel() {
+    return pngLevel;
+  }
+
+  public float getJpegQuality() {
+    return jpegQuality;
+  }
+
+  public boolean isParallel() {
+    return parallel;
+  }
+}
@@ -0,0 +1,466 @@
+package model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Representing the undo and redo stacks of a layered image. Each step is a list of changes,
+ * and each change is stored as cheaply as it can be: changes to visibility or blend mode as a
+ * record of the operation, and changes to pixels as the tiles that changed.
+ *
+ * <p>Replaced pixels are first kept by reference, since images never modify their pixel
+ * arrays, so undoing a step just swaps them back in whatever the size of the image. Only once
+ * the history holds more than its byte budget are steps compacted, oldest first, into the
+ * tiles that differ, deflated if that makes them smaller; undoing a compacted step costs one
+ * copy of the image plus the changed tiles. If that still isn't enough, the oldest steps are
+ * forgotten. The newest step to undo and the newest step to redo are never compacted or
+ * forgotten, so undoing one step can always be redone.
+ */
+final class History {
+
+  // The budget used unless another is set: an eighth of the heap, up to 512 MB
+  static final long DEFAULT_MAX_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 8,
+      512L * 1024 * 1024);
+  private static final int TILE_SIZE = 64;
+
+  private final Deque<List<Change>> undoSteps;
+  private final Deque<List<Change>> redoSteps;
+  private long maxBytes;
+
+  History() {
+    this.undoSteps = new ArrayDeque<List<Change>>();
+    this.redoSteps = new ArrayDeque<List<Change>>();
+    this.maxBytes = DEFAULT_MAX_BYTES;
+  }
+
+  // Sets the most memory, in bytes, the history may hold before evicting its oldest steps
+  void setMaxBytes(long bytes) throws IllegalArgumentException {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("History budget cannot be negative");
+    }
+    maxBytes = bytes;
+    trim();
+  }
+
+  long getMaxBytes() {
+    return maxBytes;
+  }
+
+  // Returns the memory, in bytes, currently held by the history
+  long getBytes() {
+    long total = 0;
+    for (Deque<List<Change>> steps : Arrays.asList(undoSteps, redoSteps)) {
+      for (List<Change> step : steps) {
+        for (Change change : step) {
+          total += change.bytes();
+        }
+      }
+    }
+    return total;
+  }
+
+  boolean canUndo() {
+    return !undoSteps.isEmpty();
+  }
+
+  boolean canRedo() {
+    return !redoSteps.isEmpty();
+  }
+
+  // Records a step that was just applied, which makes anything undone unavailable to redo
+  void record(List<Change> step) {
+    if (step.isEmpty()) {
+      return;
+    }
+    redoSteps.clear();
+    push(undoSteps, step);
+  }
+
+  // Reverts the newest step, making it available to redo
+  void undo() throws IllegalStateException {
+    if (undoSteps.isEmpty()) {
+      throw new IllegalStateException("Nothing to undo.");
+    }
+    push(redoSteps, revert(undoSteps.pollLast()));
+  }
+
+  // Applies the most recently undone step again
+  void redo() throws IllegalStateException {
+    if (redoSteps.isEmpty()) {
+      throw new IllegalStateException("Nothing to redo.");
+    }
+    push(undoSteps, revert(redoSteps.pollLast()));
+  }
+
+  void clear() {
+    undoSteps.clear();
+    redoSteps.clear();
+  }
+
+  // Reverts every change of a step, last first, and returns the step that reverts them back
+  private static List<Change> revert(List<Change> step) {
+    List<Change> inverse = new ArrayList<Change>();
+    for (int i = step.size() - 1; i >= 0; i--) {
+      inverse.add(step.get(i).revert());
+    }
+    return inverse;
+  }
+
+  private void push(Deque<List<Change>> steps, List<Change> step) {
+    steps.addLast(step);
+    trim();
+  }
+
+  // Compacts, then drops, the steps furthest from the current state until the budget is met,
+  // keeping the newest step each way
+  private void trim() {
+    long total = getBytes();
+    List<List<Change>> oldestFirst = new ArrayList<List<Change>>(undoSteps);
+    if (!oldestFirst.isEmpty()) {
+      oldestFirst.remove(oldestFirst.size() - 1);
+    }
+    oldestFirst.addAll(redoSteps);
+    if (!redoSteps.isEmpty()) {
+      oldestFirst.remove(oldestFirst.size() - 1);
+    }
+    for (int i = 0; i < oldestFirst.size() && total > maxBytes; i++) {
+      total -= bytes(oldestFirst.get(i));
+      for (Change change : oldestFirst.get(i)) {
+        change.compact();
+      }
+      total += bytes(oldestFirst.get(i));
+    }
+    while (total > maxBytes && undoSteps.size() > 1) {
+      total -= bytes(undoSteps.pollFirst());
+    }
+    while (total > maxBytes && redoSteps.size() > 1) {
+      total -= bytes(redoSteps.pollFirst());
+    }
+  }
+
+  private static long bytes(List<Change> step) {
+    long total = 0;
+    for (Change change : step) {
+      total += change.bytes();
+    }
+    return total;
+  }
+
+  /**
+   * Representing one reversible change to a layered image.
+   */
+  abstract static class Change {
+
+    // Reverts this change and returns the change that reverts it back
+    abstract Change revert();
+
+    // Returns the memory this change holds on to, in bytes
+    long bytes() {
+      return 0;
+    }
+
+    // Shrinks the memory this change holds on to, if it can
+    void compact() {
+    }
+  }
+
+  /**
+   * Representing a layer being shown or hidden.
+   */
+  static final class Visibility extends Change {
+    private final Layer layer;
+
+    Visibility(Layer layer) {
+      this.layer = layer;
+    }
+
+    @Override
+    Change revert() {
+      layer.flipVisibility();
+      return this;
+    }
+  }
+
+  /**
+   * Representing a layer's blend mode being changed.
+   */
+  static final class Blend extends Change {
+    private final Layer layer;
+    private final BlendMode before;
+
+    Blend(Layer layer, BlendMode before) {
+      this.layer = layer;
+      this.before = before;
+    }
+
+    @Override
+    Change revert() {
+      BlendMode after = layer.getBlendMode();
+      layer.setBlendMode(before);
+      return new Blend(layer, after);
+    }
+  }
+
+  /**
+   * Representing a layer being given a different image, kept by reference.
+   */
+  static final class Replace extends Change {
+    private final Layer layer;
+    private final SingleImageModel before;
+
+    Replace(Layer layer, SingleImageModel before) {
+      this.layer = layer;
+      this.before = before;
+    }
+
+    @Override
+    Change revert() {
+      SingleImageModel after = layer.isEmpty() ? null : layer.getImage();
+      layer.addImage(before);
+      return new Replace(layer, after);
+    }
+
+    @Override
+    long bytes() {
+      return before == null ? 0 : before.getData().length * (long) Integer.BYTES;
+    }
+  }
+
+  /**
+   * Representing the pixels of an image changing. The pixels it replaced are held as an array
+   * until compacted, then as the tiles that differ from the pixels that replaced them, or as
+   * the whole image if its size changed.
+   */
+  static final class Pixels extends Change {
+    private final SingleImageModel image;
+    private final int width;
+    private final int height;
+    private final int afterWidth;
+    private final int afterHeight;
+    private int[] before;
+    private int[] after;
+    // Once compacted: the indices of the stored tiles, null for the whole image
+    private int[] tiles;
+    private byte[] stored;
+    private boolean deflated;
+
+    /**
+     * Records that the given image's pixels were replaced.
+     *
+     * @param image    the image that changed
+     * @param before   the pixels it held before
+     * @param width    the width it had before
+     * @param height   the height it had before
+     */
+    Pixels(SingleImageModel image, int[] before, int width, int height) {
+      this.image = image;
+      this.before = before;
+      this.width = width;
+      this.height = height;
+      this.after = image.getData();
+      this.afterWidth = image.getWidth();
+      this.afterHeight = image.getHeight();
+    }
+
+    @Override
+    Change revert() throws IllegalStateException {
+      int[] current = image.getData();
+      if (image.getWidth() != afterWidth || image.getHeight() != afterHeight) {
+        throw new IllegalStateException("Image was changed outside of its history");
+      }
+      int[] restored;
+      if (before != null) {
+        restored = before;
+      }
+      else if (tiles == null) {
+        restored = new int[width * height];
+        unpack(restored);
+      }
+      else {
+        restored = current.clone();
+        unpack(restored);
+      }
+      image.restore(restored, width, height);
+      before = null;
+      after = null;
+      stored = null;
+      return new Pixels(image, current, afterWidth, afterHeight);
+    }
+
+    @Override
+    long bytes() {
+      if (before != null) {
+        return before.length * (long) Integer.BYTES;
+      }
+      return (stored == null ? 0 : stored.length)
+          + (tiles == null ? 0 : tiles.length * (long) Integer.BYTES);
+    }
+
+    @Override
+    void compact() {
+      if (before == null) {
+        return;
+      }
+      int[] changed;
+      if (width != afterWidth || height != afterHeight) {
+        changed = null;
+      }
+      else {
+        changed = changedTiles();
+        // Storing every tile separately only costs more than storing the whole image
+        if (changed.length == tileCount()) {
+          changed = null;
+        }
+      }
+      ByteBuffer raw;
+      if (changed == null) {
+        raw = ByteBuffer.allocate(before.length * Integer.BYTES).order(ByteOrder.nativeOrder());
+        raw.asIntBuffer().put(before);
+      }
+      else {
+        raw = ByteBuffer.allocate(tilePixels(changed) * Integer.BYTES)
+            .order(ByteOrder.nativeOrder());
+        IntBuffer pixels = raw.asIntBuffer();
+        for (int tile : changed) {
+          int x0 = tileX(tile);
+          int y0 = tileY(tile);
+          int w = Math.min(TILE_SIZE, width - x0);
+          for (int y = y0; y < Math.min(height, y0 + TILE_SIZE); y++) {
+            pixels.put(before, y * width + x0, w);
+          }
+        }
+      }
+      byte[] packed = deflate(raw.array());
+      deflated = packed != null;
+      stored = deflated ? packed : raw.array();
+      tiles = changed;
+      before = null;
+      after = null;
+    }
+
+    // Finds the tiles where the pixels before and after differ
+    private int[] changedTiles() {
+      int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+      int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+      List<Integer> changed = new ArrayList<Integer>();
+      for (int row = 0; row < rows; row++) {
+        for (int column = 0; column < columns; column++) {
+          int x0 = column * TILE_SIZE;
+          int w = Math.min(TILE_SIZE, width - x0);
+          for (int y = row * TILE_SIZE; y < Math.min(height, (row + 1) * TILE_SIZE); y++) {
+            int from = y * width + x0;
+            if (!Arrays.equals(before, from, from + w, after, from, from + w)) {
+              changed.add(row * columns + column);
+              break;
+            }
+          }
+        }
+      }
+      int[] result = new int[changed.size()];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = changed.get(i);
+      }
+      return result;
+    }
+
+    private int tileCount() {
+      return ((width + TILE_SIZE - 1) / TILE_SIZE) * ((height + TILE_SIZE - 1) / TILE_SIZE);
+    }
+
+    private int tilePixels(int[] changed) {
+      int total = 0;
+      for (int tile : changed) {
+        total += Math.min(TILE_SIZE, width - tileX(tile))
+            * Math.min(TILE_SIZE, height - tileY(tile));
+      }
+      return total;
+    }
+
+    private int tileX(int tile) {
+      return tile % ((width + TILE_SIZE - 1) / TILE_SIZE) * TILE_SIZE;
+    }
+
+    private int tileY(int tile) {
+      return tile / ((width + TILE_SIZE - 1) / TILE_SIZE) * TILE_SIZE;
+    }
+
+    // Writes the stored pixels into the given array, which holds the pixels after the change
+    // if only tiles were stored
+    private void unpack(int[] dst) throws IllegalStateException {
+      int length = tiles == null ? dst.length : tilePixels(tiles);
+      IntBuffer source = ByteBuffer.wrap(deflated ? inflate(stored, length * Integer.BYTES)
+          : stored).order(ByteOrder.nativeOrder()).asIntBuffer();
+      if (tiles == null) {
+        source.get(dst);
+        return;
+      }
+      int[] pixels = new int[length];
+      source.get(pixels);
+      int position = 0;
+      for (int tile : tiles) {
+        int x0 = tileX(tile);
+        int y0 = tileY(tile);
+        int w = Math.min(TILE_SIZE, width - x0);
+        for (int y = y0; y < Math.min(height, y0 + TILE_SIZE); y++) {
+          System.arraycopy(pixels, position, dst, y * width + x0, w);
+          position += w;
+        }
+      }
+    }
+
+    // Deflates the given bytes at the fastest level, or returns null if that doesn't make
+    // them any smaller
+    private static byte[] deflate(byte[] raw) {
+      Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+      try {
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+        byte[] buffer = new byte[64 * 1024];
+        while (!deflater.finished() && out.size() < raw.length) {
+          out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return deflater.finished() && out.size() < raw.length ? out.toByteArray() : null;
+      }
+      finally {
+        deflater.end();
+      }
+    }
+
+    private static byte[] inflate(byte[] packed, int length) throws IllegalStateException {
+      byte[] raw = new byte[length];
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(packed);
+        int n = 0;
+        while (n < length && !inflater.finished()) {
+          int read = inflater.inflate(raw, n, length - n);
+          if (read == 0 && inflater.needsInput()) {
+            break;
+          }
+          n += read;
+        }
+        if (n != length) {
+          throw new IllegalStateException("Corrupt undo history");
+        }
+        return raw;
+      }
+      catch (DataFormatException e) {
+        throw new IllegalStateException("Corrupt undo history");
+      }
+      finally {
+        inflater.end();
+      }
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package model;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 
@@ -17,6 +18,16 @@ public interface ImageModel {
    */
   void applyFilter(FilterType filter);
 
+  /**
+   * Applies a filter to part of this image. Pixels just outside the region are read but left
+   * unchanged.
+   *
+   * @param filter  FilterType representing the specific type of filter to be applied
+   * @param region  the part of the image to change, clipped to the image
+   * @throws IllegalArgumentException if the region lies outside of the image
+   */
+  void applyFilter(FilterType filter, Rectangle region) throws IllegalArgumentException;
+
   /**
    * Applies a color transformation to this image.
    *
@@ -25,6 +36,17 @@ public interface ImageModel {
    */
   void applyTransformation(TransformationType transf);
 
+  /**
+   * Applies a color transformation to part of this image.
+   *
+   * @param transf  TransformationType representing the specific type of transformation
+   *               to be applied
+   * @param region  the part of the image to change, clipped to the image
+   * @throws IllegalArgumentException if the region lies outside of the image
+   */
+  void applyTransformation(TransformationType transf, Rectangle region)
+      throws IllegalArgumentException;
+
   /**
    * Applies a downscale adjustment to this image.
    *
@@ -47,6 +69,14 @@ public interface ImageModel {
    */
   void export(String filename, FileType fileType) throws IOException;
 
+  /**
+   * Creates a file from this image, encoded with the given options.
+   *
+   * @param filename  String representing the name of the file that this image should be saved to
+   * @param options   the file type and encoder settings to use
+   */
+  void export(String filename, ExportOptions options) throws IOException;
+
   /**
    * Creates a BufferedImage from this image for display purposes.
    * @return
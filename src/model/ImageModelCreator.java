@@ -3,14 +3,20 @@ package model;
 import java.awt.Color;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.imageio.ImageIO;
 
 /**
@@ -18,6 +24,19 @@ import javax.imageio.ImageIO;
  */
 public abstract class ImageModelCreator {
 
+  private static final DecodedImageCache CACHE = new DecodedImageCache(
+      Math.min(Runtime.getRuntime().maxMemory() / 8, 256L * 1024 * 1024));
+
+  /**
+   * Returns the cache of decoded images used by {@link #load(FileType, String)}, through which
+   * its size limit can be changed and its hit, miss and eviction counts read.
+   *
+   * @return the cache of decoded images
+   */
+  public static DecodedImageCache getCache() {
+    return CACHE;
+  }
+
   /**
    * Creates a new ImageModel based on the .png or .jpeg file with the given filename.
    *
@@ -30,46 +49,98 @@ public abstract class ImageModelCreator {
   }
 
   /**
-   * Creates a new ImageModel based on the .png or .jpeg file with the given filename.
+   * Creates a new LayeredImageModel from the project file with the given filename. A binary
+   * project is opened without decoding any layer; each layer is decoded the first time it's
+   * used. For a text project the layer images are decoded concurrently, and the layers keep
+   * the order listed in the project file.
    *
    * @param filename    String representing the filename
-   * @return an ImageModel representing what the user wanted to create
+   * @return a LayeredImageModel representing the saved project
+   * @throws FileNotFoundException if the project file or any of its layer files can't be read,
+   *                               naming every layer that failed
    */
-  // TODO: Loads the layered project, dependent on the design of the loaded layers
   public static LayeredImageModel loadLayeredProject(String filename)
       throws FileNotFoundException, IllegalArgumentException {
+    OperationMetrics.Sample sample = OperationMetrics.start();
+    LayeredImageModel model = readLayeredProject(filename);
+    sample.stop("load.project", 0);
+    return model;
+  }
+
+  // Reads the project file with the given filename, as above
+  private static LayeredImageModel readLayeredProject(String filename)
+      throws FileNotFoundException, IllegalArgumentException {
     if (filename == null) {
       throw new IllegalArgumentException("Null Parameters");
     }
-    Scanner sc;
     try {
-      sc = new Scanner(new FileInputStream(filename));
+      if (ProjectContainer.isContainer(Paths.get(filename))) {
+        return new LayeredImageModel(ProjectContainer.read(Paths.get(filename)));
+      }
+    }
+    catch (IOException e) {
+      throw new FileNotFoundException("Cannot load layered project: " + e.getMessage());
+    }
+    List<String> fileNames = new ArrayList<String>();
+    List<String> layerNames = new ArrayList<String>();
+    try (Scanner sc = new Scanner(new FileInputStream(filename))) {
+      if (sc.hasNextLine()) {
+        // Processes the blank first line
+        sc.nextLine();
+      }
+      while (sc.hasNextLine()) {
+        fileNames.add(sc.nextLine());
+        if (!sc.hasNextLine()) {
+          throw new IllegalArgumentException("Project file is missing a layer name");
+        }
+        layerNames.add(sc.nextLine());
+      }
     }
     catch (IOException e) {
       throw new FileNotFoundException("Cannot find file");
     }
+
     ArrayList<Layer> layers = new ArrayList<Layer>();
-    StringBuilder sb = new StringBuilder();
-    if (sc.hasNextLine()) {
-      // Processes the blank first line
-      String throwaway = sc.nextLine();
-    }
-    while (sc.hasNextLine()) {
-      String fileName = sc.nextLine();
-      String layerName = sc.nextLine();
-      try {
-        Scanner thisFileScan = new Scanner(new FileInputStream(fileName));
+    if (fileNames.isEmpty()) {
+      return new LayeredImageModel(layers);
+    }
+    int threads = Math.min(fileNames.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<SingleImageModel>> pending = new ArrayList<Future<SingleImageModel>>();
+      for (String fileName : fileNames) {
+        pending.add(executor.submit(() -> loadJPEGPNG(fileName)));
       }
-      catch (IOException e) {
-        throw new FileNotFoundException("Cannot find layer file");
+      StringBuilder errors = new StringBuilder();
+      for (int i = 0; i < pending.size(); i++) {
+        try {
+          Layer layer = new Layer(pending.get(i).get(), layerNames.get(i));
+          layer.markSaved(fileNames.get(i));
+          layers.add(layer);
+        }
+        catch (ExecutionException e) {
+          errors.append(System.lineSeparator()).append("Cannot load layer ")
+              .append(layerNames.get(i)).append(" from ").append(fileNames.get(i)).append(": ")
+              .append(e.getCause().getMessage());
+        }
+      }
+      if (errors.length() > 0) {
+        throw new FileNotFoundException("Cannot load layered project" + errors);
       }
-      layers.add(new Layer((loadJPEGPNG(fileName)), layerName));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while loading layered project");
+    }
+    finally {
+      executor.shutdownNow();
     }
     return new LayeredImageModel(layers);
   }
 
   /**
-   * Creates a new ImageModel based on the .png or .jpeg file with the given filename.
+   * Creates a new ImageModel based on the .png, .jpeg or .ppm file with the given filename.
+   * Decoded images are cached, so loading an unchanged file again only costs a lookup.
    *
    * @param filename    String representing the filename
    * @return an ImageModel representing what the user wanted to create
@@ -79,24 +150,68 @@ public abstract class ImageModelCreator {
     if (fileType == null || filename == null) {
       throw new IllegalArgumentException("Null method parameters");
     }
-    Scanner sc;
-    try {
-      sc = new Scanner(new FileInputStream(filename));
-    }
-    catch (IOException e) {
+    if (!new File(filename).isFile()) {
       throw new FileNotFoundException("File " + filename + " not found!");
     }
+    OperationMetrics.Sample sample = OperationMetrics.start();
+    SingleImageModel image;
     switch (fileType) {
-      case JPEG: return loadJPEGPNG(filename);
-      case PNG: return loadJPEGPNG(filename);
-      case PPM: return loadPPM(filename);
+      case JPEG: image = CACHE.load(filename, () -> loadJPEGPNG(filename)); break;
+      case PNG: image = CACHE.load(filename, () -> loadJPEGPNG(filename)); break;
+      case PPM: image = CACHE.load(filename, () -> loadPPM(filename)); break;
       default: throw new IllegalArgumentException("Invalid FileType");
     }
+    sample.stop("load." + fileType.name().toLowerCase(),
+        (long) image.getWidth() * image.getHeight());
+    return image;
+  }
+
+  /**
+   * Starts decoding the given file in the background, into the cache, so that a later
+   * {@link #load(FileType, String)} of it finds it ready or waits only for what's left.
+   * Nothing is reported if it fails; the later load will fail the same way.
+   *
+   * @param fileType    the type of the file
+   * @param filename    String representing the filename
+   */
+  public static void prefetch(FileType fileType, String filename) {
+    WorkPool.pool().execute(() -> {
+      try {
+        load(fileType, filename);
+      }
+      catch (FileNotFoundException | RuntimeException e) {
+        // Left for the load that needs the image to report
+      }
+    });
+  }
+
+  // Decodes the given file without going through the cache, for images only read once
+  static SingleImageModel loadUncached(FileType fileType, String filename)
+      throws FileNotFoundException, IllegalArgumentException {
+    if (!new File(filename).isFile()) {
+      throw new FileNotFoundException("File " + filename + " not found!");
+    }
+    return fileType == FileType.PPM ? loadPPM(filename) : loadJPEGPNG(filename);
+  }
+
+  // Decodes an image already read into memory, named by the file it came from
+  static SingleImageModel decode(FileType fileType, byte[] bytes, String filename)
+      throws IOException, IllegalArgumentException {
+    OperationMetrics.Sample sample = OperationMetrics.start();
+    CodecEvent.Decode event = CodecEvent.startDecode();
+    SingleImageModel image = fileType == FileType.PPM
+        ? readPPM(new ByteArrayInputStream(bytes))
+        : fromBufferedImage(ImageIO.read(new ByteArrayInputStream(bytes)), filename);
+    CodecEvent.finish(event, filename, fileType.name().toLowerCase(), image);
+    sample.stop("decode." + fileType.name().toLowerCase(),
+        (long) image.getWidth() * image.getHeight());
+    return image;
   }
 
   // Loads the .jpeg or .png file with the given filename
   private static SingleImageModel loadJPEGPNG(String filename)
       throws FileNotFoundException {
+    CodecEvent.Decode event = CodecEvent.startDecode();
     File file = new File(filename);
     BufferedImage image;
     try {
@@ -105,38 +220,59 @@ public abstract class ImageModelCreator {
     catch (IOException e) {
       throw new FileNotFoundException("Cannot find file: " + filename);
     }
+    SingleImageModel model = fromBufferedImage(image, filename);
+    CodecEvent.finish(event, filename,
+        filename.substring(filename.lastIndexOf('.') + 1).toLowerCase(), model);
+    return model;
+  }
+
+  // Converts a decoded .jpeg or .png image into a model
+  private static SingleImageModel fromBufferedImage(BufferedImage image, String filename)
+      throws IllegalArgumentException {
+    if (image == null) {
+      throw new IllegalArgumentException("Unsupported image file: " + filename);
+    }
     int width = image.getWidth();
     int height = image.getHeight();
-    Pixel[][] pixelArray = new Pixel[width][height];
+    // Reads every pixel in one pass straight into the model's packed layout
+    int[] data = image.getRGB(0, 0, width, height, null, 0, width);
 
-    List<Integer> maxFinder = new ArrayList<Integer>();
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        Color pix = new Color(image.getRGB(j, i));
-        int r = pix.getRed();
-        int g = pix.getGreen();
-        int b = pix.getBlue();
-        pixelArray[j][i] = new Pixel(new Color(r, g, b), new Point(j, i));
-        maxFinder.add(r);
-        maxFinder.add(g);
-        maxFinder.add(b);
+    // Transparency is only kept if some pixel actually uses it
+    boolean alpha = false;
+    if (image.getColorModel().hasAlpha()) {
+      for (int i = 0; i < data.length && !alpha; i++) {
+        alpha = data[i] >>> 24 != 0xFF;
       }
     }
-
-    int maxValue = Collections.max(maxFinder);
-    return new SingleImageModel(width, height, maxValue, pixelArray);
+    int maxValue = 0;
+    for (int i = 0; i < data.length; i++) {
+      int rgb = data[i];
+      maxValue = Math.max(maxValue, Math.max((rgb >> 16) & 0xFF,
+          Math.max((rgb >> 8) & 0xFF, rgb & 0xFF)));
+      data[i] = alpha ? Kernels.premultiply(rgb) : rgb & 0xFFFFFF;
+    }
+    return new SingleImageModel(width, height, maxValue, data, alpha);
   }
 
   // Loads the .ppm file with the given filename
   private static SingleImageModel loadPPM(String filename) throws FileNotFoundException,
       IllegalArgumentException {
+    CodecEvent.Decode event = CodecEvent.startDecode();
+    SingleImageModel image = readPPM(new FileInputStream(filename));
+    CodecEvent.finish(event, filename, "ppm", image);
+    return image;
+  }
+
+  // Reads a .ppm image from the given stream, then closes it
+  private static SingleImageModel readPPM(InputStream in) throws IllegalArgumentException {
     Scanner sc;
-    sc = new Scanner(new FileInputStream(filename));
     StringBuilder builder = new StringBuilder();
-    while (sc.hasNextLine()) {
-      String s = sc.nextLine();
-      if (s.charAt(0) != '#') {
-        builder.append(s + System.lineSeparator());
+    try (Scanner fileScanner = new Scanner(in)) {
+      while (fileScanner.hasNextLine()) {
+        String s = fileScanner.nextLine();
+        if (s.charAt(0) != '#') {
+          builder.append(s + System.lineSeparator());
+        }
       }
     }
     sc = new Scanner(builder.toString());
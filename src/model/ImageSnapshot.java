@@ -0,0 +1,249 @@
+package model;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Representing one version of an image's pixels, which never changes. An image publishes a
+ * new snapshot each time an operation on it finishes, so any thread holding a snapshot can
+ * display, export or inspect it without locking, while the image goes on to the next version.
+ */
+public final class ImageSnapshot {
+
+  // Same layout as BufferedImage.TYPE_INT_RGB, so the pixel buffer can back a display image
+  private static final int[] RGB_MASKS = {0xFF0000, 0x00FF00, 0x0000FF};
+  private static final DirectColorModel RGB_MODEL =
+      new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]);
+  // Same layout as BufferedImage.TYPE_INT_ARGB_PRE, for images with transparency
+  private static final int[] ARGB_MASKS = {0xFF0000, 0x00FF00, 0x0000FF, 0xFF000000};
+  private static final DirectColorModel ARGB_PRE_MODEL = new DirectColorModel(
+      ColorSpace.getInstance(ColorSpace.CS_sRGB), 32, ARGB_MASKS[0], ARGB_MASKS[1],
+      ARGB_MASKS[2], ARGB_MASKS[3], true, DataBuffer.TYPE_INT);
+
+  private final int width;
+  private final int height;
+  private final int maxValue;
+  private final boolean alpha;
+  private final int[] data;
+  private final long version;
+  // The regions changed by the most recent versions, indexed by version
+  private final Rectangle[] changes;
+
+  ImageSnapshot(int width, int height, int maxValue, boolean alpha, int[] data, long version,
+      Rectangle[] changes) {
+    this.width = width;
+    this.height = height;
+    this.maxValue = maxValue;
+    this.alpha = alpha;
+    this.data = data;
+    this.version = version;
+    this.changes = changes;
+  }
+
+  /**
+   * Returns the width of this version of the image.
+   *
+   * @return the width in pixels
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of this version of the image.
+   *
+   * @return the height in pixels
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns which version of the image this is.
+   *
+   * @return the version, as returned by {@link SingleImageModel#getVersion()}
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  // Returns the largest value a color channel may hold
+  int getMaxValue() {
+    return maxValue;
+  }
+
+  // Returns whether the pixel buffer holds premultiplied ARGB rather than opaque RGB
+  boolean hasAlpha() {
+    return alpha;
+  }
+
+  // Returns the packed pixel buffer; callers must not modify it
+  int[] getData() {
+    return data;
+  }
+
+  /**
+   * Returns the part of the image that changed between the given version and this one. If the
+   * image changed size, or the version is too old to be remembered, the whole image is
+   * returned.
+   *
+   * @param since   an earlier version of the image
+   * @return the changed region, empty if nothing changed
+   */
+  public Rectangle getChangedRegion(long since) {
+    if (since == version) {
+      return new Rectangle();
+    }
+    if (since > version || version - since > changes.length) {
+      return new Rectangle(0, 0, width, height);
+    }
+    Rectangle changed = new Rectangle(changes[(int) (version % changes.length)]);
+    for (long v = since + 1; v < version; v++) {
+      changed.add(changes[(int) (v % changes.length)]);
+    }
+    return changed.intersection(new Rectangle(0, 0, width, height));
+  }
+
+  /**
+   * Getter method for the color of a pixel at a specified point.
+   *
+   * @param x int representing the x-index of the pixel
+   * @param y int representing the y-index of the pixel
+   * @return the color of the pixel, with its transparency if the image has any
+   */
+  public Color getColorAt(int x, int y) {
+    if (x < 0 || x >= width || y < 0 || y >= height) {
+      throw new IndexOutOfBoundsException("No pixel at (" + x + ", " + y + ")");
+    }
+    if (alpha) {
+      return new Color(Kernels.unpremultiply(data[y * width + x]), true);
+    }
+    return new Color(data[y * width + x]);
+  }
+
+  /**
+   * Creates a file from this version of the image, encoded with the given options.
+   *
+   * @param filename String representing the name of the file that the image should be saved to
+   * @param options  the file type and encoder settings to use
+   */
+  public void export(String filename, ExportOptions options) throws IOException {
+    OperationMetrics.Sample sample = OperationMetrics.start();
+    CodecEvent.Encode event = CodecEvent.startEncode();
+    if (options.getFileType() == FileType.PNG) {
+      // Closed here too, in case encoding fails before the writer takes the stream over
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename),
+          64 * 1024)) {
+        PngWriter.encode(data, width, height, out, options.getPngLevel(), options.isParallel(),
+            alpha);
+      }
+    } else if (options.getFileType() == FileType.JPEG) {
+      exportJPEG(filename, options.getJpegQuality());
+    } else {
+      try (FileWriter fw = new FileWriter(filename)) {
+        writePPM(fw);
+      }
+    }
+    CodecEvent.finish(event, filename, options.getFileType(), width, height);
+    sample.stop("export." + options.getFileType().name().toLowerCase(), (long) width * height);
+  }
+
+  // Encodes this version of the image with the given options into the given stream, which is
+  // closed once the image is written
+  void encode(OutputStream out, ExportOptions options) throws IOException {
+    OperationMetrics.Sample sample = OperationMetrics.start();
+    CodecEvent.Encode event = CodecEvent.startEncode();
+    if (options.getFileType() == FileType.PNG) {
+      PngWriter.encode(data, width, height, out, options.getPngLevel(), options.isParallel(),
+          alpha);
+    } else if (options.getFileType() == FileType.JPEG) {
+      try (OutputStream closing = out;
+          ImageOutputStream stream = new MemoryCacheImageOutputStream(closing)) {
+        writeJPEG(stream, options.getJpegQuality());
+      }
+    } else {
+      try (Writer writer = new OutputStreamWriter(out)) {
+        writePPM(writer);
+      }
+    }
+    CodecEvent.finish(event, null, options.getFileType(), width, height);
+    sample.stop("encode." + options.getFileType().name().toLowerCase(), (long) width * height);
+  }
+
+  private void writePPM(Writer writer) throws IOException {
+    writer.write("P3" + "\n");
+    writer.write(width + " " + height);
+    writer.write("\n" + maxValue);
+    for (int rgb : data) {
+      writer.write("\n" + ((rgb >> 16) & 0xFF));
+      writer.write("\n" + ((rgb >> 8) & 0xFF));
+      writer.write("\n" + (rgb & 0xFF));
+    }
+    writer.flush();
+  }
+
+  private void exportJPEG(String filename, float quality) throws IOException {
+    try (ImageOutputStream out = ImageIO.createImageOutputStream(new File(filename))) {
+      if (out == null) {
+        throw new IOException("Cannot write file: " + filename);
+      }
+      writeJPEG(out, quality);
+    }
+  }
+
+  // The encoder reads straight from the pixel buffer; JPEG has no transparency, so the
+  // premultiplied colors are written as they are, which is the image over black
+  private void writeJPEG(ImageOutputStream out, float quality) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    try {
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(quality);
+      writer.setOutput(out);
+      writer.write(null, new IIOImage(wrap(RGB_MODEL, RGB_MASKS), null, null), param);
+    }
+    finally {
+      writer.dispose();
+    }
+  }
+
+  /**
+   * Creates a BufferedImage from this version of the image for display purposes. It shares
+   * its memory with this snapshot rather than holding a copy, so it must be treated as
+   * read-only.
+   *
+   * @return the image for display
+   */
+  public BufferedImage exportDISPLAY() {
+    return alpha ? wrap(ARGB_PRE_MODEL, ARGB_MASKS) : wrap(RGB_MODEL, RGB_MASKS);
+  }
+
+  // Wraps the pixel buffer, without copying it, in an image with the given layout
+  private BufferedImage wrap(DirectColorModel model, int[] masks) {
+    DataBufferInt buffer = new DataBufferInt(data, data.length);
+    WritableRaster raster = Raster.createPackedRaster(buffer, width, height, width, masks,
+        null);
+    return new BufferedImage(model, raster, model.isAlphaPremultiplied(), null);
+  }
+}
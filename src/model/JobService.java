@@ -0,0 +1,375 @@
+package model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Representing a service that runs many independent jobs at once, each loading one image,
+ * applying a recipe of operations to it and saving the result. Each job runs on its own virtual
+ * thread where the runtime has them, so thousands can wait on files cheaply; reading and
+ * writing the files happen there. Decoding, the recipe and encoding run on a separate, bounded
+ * pool of platform threads, so however many jobs are submitted, only that many use a processor
+ * at once. A fixed number of jobs hold an image at once; the rest wait before reading theirs.
+ *
+ * <p>On a runtime without virtual threads, jobs run on a pool of platform threads with one
+ * thread per image allowed in memory, so jobs wait in the pool's queue instead.
+ */
+public final class JobService implements Closeable {
+
+  /**
+   * Representing the stages of a job, in the order they run.
+   */
+  public enum Stage {
+    /** Waiting for room to hold another image, then for a free processing thread. */
+    QUEUED,
+    /** Reading the input file into memory. */
+    READ,
+    /** Decoding the image. */
+    DECODE,
+    /** Applying the recipe. */
+    PROCESS,
+    /** Encoding the result. */
+    ENCODE,
+    /** Writing the output file. */
+    WRITE
+  }
+
+  private final ExecutorService jobs;
+  private final ExecutorService processing;
+  private final Semaphore inFlight;
+  private final boolean virtualThreads;
+
+  /**
+   * Constructs a service processing on the given number of threads, with at most the given
+   * number of images held at once.
+   *
+   * @param processingThreads  the threads decoding, processing and encoding images
+   * @param maxInFlight        the most images held in memory at once
+   * @throws IllegalArgumentException if either limit isn't positive
+   */
+  public JobService(int processingThreads, int maxInFlight) throws IllegalArgumentException {
+    if (processingThreads < 1 || maxInFlight < 1) {
+      throw new IllegalArgumentException("Thread and image limits must be positive");
+    }
+    this.processing = Executors.newFixedThreadPool(processingThreads,
+        daemonThreads("job-processing"));
+    this.inFlight = new Semaphore(maxInFlight);
+    ExecutorService virtual = virtualThreadExecutor();
+    this.virtualThreads = virtual != null;
+    this.jobs = virtual != null ? virtual
+        : Executors.newFixedThreadPool(maxInFlight, daemonThreads("job"));
+  }
+
+  /**
+   * Constructs a service processing on one thread per processor, with four images per
+   * processing thread held at once.
+   */
+  public JobService() {
+    this(Runtime.getRuntime().availableProcessors(),
+        4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  // Returns an executor starting a virtual thread per task, or null if the runtime has none.
+  // Looked up by name so that this still runs on runtimes from before virtual threads.
+  private static ExecutorService virtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    }
+    catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Returns whether jobs run on virtual threads, rather than on a pool of platform threads.
+   *
+   * @return true if the runtime has virtual threads
+   */
+  public boolean usesVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * Submits a job applying the given operations, in order, to the image in the input file and
+   * writing the result to the output file. Each file's type is taken from its extension.
+   * A job cancelled before it starts never reads its file.
+   *
+   * @param recipe  the operations to apply
+   * @param input   the image to read
+   * @param output  the file to write
+   * @return the job's timings once it's done, or the reason it failed
+   * @throws IllegalArgumentException if a parameter is null or either file isn't an image type
+   * @throws IllegalStateException if the service has been closed
+   */
+  public CompletableFuture<Result> submit(List<Consumer<ImageModel>> recipe, Path input,
+      Path output) throws IllegalArgumentException, IllegalStateException {
+    if (recipe == null || input == null || output == null) {
+      throw new IllegalArgumentException("Null method parameters");
+    }
+    FileType inputType = typeOf(input);
+    FileType outputType = typeOf(output);
+    List<Consumer<ImageModel>> operations = new ArrayList<Consumer<ImageModel>>(recipe);
+    long submitted = System.nanoTime();
+    return start(() -> run(operations, input, null, inputType, output, outputType, submitted));
+  }
+
+  /**
+   * Submits a job applying the given operations, in order, to an image already in memory. The
+   * result is kept in memory too, encoded, rather than written to a file; no file stage is
+   * timed. A job cancelled before it starts is never decoded.
+   *
+   * @param recipe      the operations to apply
+   * @param image       the encoded image
+   * @param inputType   the type the image is encoded as
+   * @param outputType  the type to encode the result as
+   * @return the job's timings and encoded result once it's done, or the reason it failed
+   * @throws IllegalArgumentException if a parameter is null
+   * @throws IllegalStateException if the service has been closed
+   */
+  public CompletableFuture<Result> submit(List<Consumer<ImageModel>> recipe, byte[] image,
+      FileType inputType, FileType outputType)
+      throws IllegalArgumentException, IllegalStateException {
+    if (recipe == null || image == null || inputType == null || outputType == null) {
+      throw new IllegalArgumentException("Null method parameters");
+    }
+    List<Consumer<ImageModel>> operations = new ArrayList<Consumer<ImageModel>>(recipe);
+    long submitted = System.nanoTime();
+    return start(() -> run(operations, null, image, inputType, null, outputType, submitted));
+  }
+
+  // Runs the given job on its own thread, completing the returned future with its outcome
+  private CompletableFuture<Result> start(Callable<Result> job) throws IllegalStateException {
+    CompletableFuture<Result> result = new CompletableFuture<Result>();
+    try {
+      jobs.execute(() -> {
+        if (result.isDone()) {
+          return;
+        }
+        try {
+          result.complete(job.call());
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          result.completeExceptionally(e);
+        }
+        catch (Exception | OutOfMemoryError e) {
+          result.completeExceptionally(e);
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      throw new IllegalStateException("The job service has been closed");
+    }
+    return result;
+  }
+
+  // Runs one job on the calling thread, holding an image slot throughout. The image is read
+  // from the input file unless given, and the result written to the output file if there is
+  // one.
+  private Result run(List<Consumer<ImageModel>> recipe, Path input, byte[] image,
+      FileType inputType, Path output, FileType outputType, long submitted)
+      throws IOException, InterruptedException {
+    Map<Stage, Long> timings = new EnumMap<Stage, Long>(Stage.class);
+    String name = input == null ? "in-memory image" : input.toString();
+    inFlight.acquire();
+    try {
+      long queued = System.nanoTime() - submitted;
+      long start = System.nanoTime();
+      byte[] bytes = image != null ? image : Files.readAllBytes(input);
+      if (input != null) {
+        timings.put(Stage.READ, System.nanoTime() - start);
+      }
+
+      long ready = System.nanoTime();
+      Future<byte[]> encoded = processing.submit(() -> {
+        timings.put(Stage.QUEUED, queued + System.nanoTime() - ready);
+        long began = System.nanoTime();
+        SingleImageModel decoded = ImageModelCreator.decode(inputType, bytes, name);
+        timings.put(Stage.DECODE, System.nanoTime() - began);
+
+        began = System.nanoTime();
+        for (Consumer<ImageModel> operation : recipe) {
+          operation.accept(decoded);
+        }
+        timings.put(Stage.PROCESS, System.nanoTime() - began);
+
+        began = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length);
+        // Encoded on this thread alone, so the job stays within the processing pool
+        decoded.snapshot().encode(out, new ExportOptions(outputType,
+            ExportOptions.DEFAULT_PNG_LEVEL, ExportOptions.DEFAULT_JPEG_QUALITY, false));
+        timings.put(Stage.ENCODE, System.nanoTime() - began);
+        return out.toByteArray();
+      });
+      byte[] result;
+      try {
+        result = encoded.get();
+      }
+      catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IOException("Cannot process " + name + ": " + e.getCause(), e.getCause());
+      }
+      if (output == null) {
+        return new Result(null, null, result, timings);
+      }
+
+      start = System.nanoTime();
+      Files.write(output, result);
+      timings.put(Stage.WRITE, System.nanoTime() - start);
+    }
+    finally {
+      inFlight.release();
+    }
+    return new Result(input, output, null, timings);
+  }
+
+  // Returns the type of the given image file
+  private static FileType typeOf(Path file) throws IllegalArgumentException {
+    String name = file.getFileName() == null ? "" : file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    if (dot < 0) {
+      throw new IllegalArgumentException("Not an image file: " + file);
+    }
+    return FileType.getEnum(name.substring(dot));
+  }
+
+  /**
+   * Stops accepting jobs and waits for every submitted job to finish.
+   */
+  @Override
+  public void close() {
+    jobs.shutdown();
+    try {
+      jobs.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      processing.shutdown();
+    }
+  }
+
+  /**
+   * Representing a finished job: which files it read and wrote, and how long each stage took.
+   */
+  public static final class Result {
+    private final Path input;
+    private final Path output;
+    private final byte[] encoded;
+    private final Map<Stage, Long> timings;
+
+    private Result(Path input, Path output, byte[] encoded, Map<Stage, Long> timings) {
+      this.input = input;
+      this.output = output;
+      this.encoded = encoded;
+      this.timings = Collections.unmodifiableMap(new EnumMap<Stage, Long>(timings));
+    }
+
+    /**
+     * Returns the image the job read.
+     *
+     * @return the input file, or null if the image was given in memory
+     */
+    public Path getInput() {
+      return input;
+    }
+
+    /**
+     * Returns the file the job wrote.
+     *
+     * @return the output file, or null if the result was kept in memory
+     */
+    public Path getOutput() {
+      return output;
+    }
+
+    /**
+     * Returns the encoded result of a job given its image in memory. The array is not copied.
+     *
+     * @return the encoded image, or null if the result was written to a file
+     */
+    public byte[] getEncoded() {
+      return encoded;
+    }
+
+    /**
+     * Returns how long the given stage of the job took.
+     *
+     * @param stage  the stage
+     * @return the time in milliseconds
+     */
+    public double getMillis(Stage stage) {
+      return timings.getOrDefault(stage, 0L) / 1e6;
+    }
+
+    /**
+     * Returns how long the job took from being submitted to its output being written.
+     *
+     * @return the time in milliseconds
+     */
+    public double getTotalMillis() {
+      long total = 0;
+      for (long time : timings.values()) {
+        total += time;
+      }
+      return total / 1e6;
+    }
+
+    /**
+     * Returns the files and the time taken by each stage, on one line.
+     *
+     * @return the report
+     */
+    @Override
+    public String toString() {
+      StringBuilder report = new StringBuilder();
+      if (input != null) {
+        report.append(input).append(" -> ").append(output).append(':');
+      }
+      else {
+        report.append("image -> ").append(encoded.length).append(" bytes:");
+      }
+      for (Stage stage : Stage.values()) {
+        report.append(String.format(" %s %.1f ms", stage.name().toLowerCase(),
+            getMillis(stage)));
+      }
+      return report.toString();
+    }
+  }
+}
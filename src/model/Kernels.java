@@ -0,0 +1,248 @@
+package model;
+
+/**
+ * Holds the per-pixel math behind filters, color transformations and layer blending, working
+ * on packed RGB ints so that whole images, bands of rows and tiles all share one
+ * implementation. Images with transparency are packed as premultiplied ARGB, where each color
+ * channel has already been scaled by alpha, so blending needs no division.
+ */
+final class Kernels {
+
+  private Kernels() {
+  }
+
+  /**
+   * Applies a filter to one row of pixels. The rows the kernel covers are read from the given
+   * source array at the given offsets, where an offset of -1 marks a row outside of the image.
+   *
+   * @param filter       the filter to apply
+   * @param maxValue     the largest value a color channel may hold
+   * @param alpha        whether the pixels are premultiplied ARGB rather than opaque RGB
+   * @param src          the array holding the source rows
+   * @param rowOffsets   the offset in src of each row the kernel covers, top to bottom
+   * @param width        the width of a row
+   * @param dst          the array to write the filtered row to
+   * @param dstOffset    the offset in dst of the filtered row
+   */
+  static void filterRow(double[][] filter, int maxValue, boolean alpha, int[] src,
+      int[] rowOffsets, int width, int[] dst, int dstOffset) {
+    filterRow(filter, maxValue, alpha, src, rowOffsets, width, 0, width, dst, dstOffset);
+  }
+
+  /**
+   * Applies a filter to part of one row of pixels, reading only the pixels the kernel covers
+   * around it. Pixels of the row outside of the given columns are not written.
+   *
+   * @param filter       the filter to apply
+   * @param maxValue     the largest value a color channel may hold
+   * @param alpha        whether the pixels are premultiplied ARGB rather than opaque RGB
+   * @param src          the array holding the source rows
+   * @param rowOffsets   the offset in src of each row the kernel covers, top to bottom
+   * @param width        the width of a row
+   * @param from         the first column to filter
+   * @param to           the column after the last one to filter
+   * @param dst          the array to write the filtered row to
+   * @param dstOffset    the offset in dst of the filtered row
+   */
+  static void filterRow(double[][] filter, int maxValue, boolean alpha, int[] src,
+      int[] rowOffsets, int width, int from, int to, int[] dst, int dstOffset) {
+    int n = filter.length;
+    int loopn = (n - 1) / 2;
+    for (int j = from; j < to; j++) {
+      // Accumulators for each channel of the new position
+      double accR = 0;
+      double accG = 0;
+      double accB = 0;
+      double accA = 0;
+      for (int k = 0; k < n; k++) {
+        int offset = rowOffsets[k];
+        if (offset < 0) {
+          continue;
+        }
+        for (int l = 0; l < n; l++) {
+          int x = l - loopn + j;
+          if (x >= 0 && x <= width - 1) {
+            int rgb = src[offset + x];
+            double weight = filter[l][k];
+            accR += ((rgb >> 16) & 0xFF) * weight;
+            accG += ((rgb >> 8) & 0xFF) * weight;
+            accB += (rgb & 0xFF) * weight;
+            if (alpha) {
+              accA += (rgb >>> 24) * weight;
+            }
+          }
+        }
+      }
+      if (alpha) {
+        // A premultiplied color channel can never exceed its alpha
+        int a = clamp(accA, 255);
+        int max = Math.min(maxValue, a);
+        dst[dstOffset + j] = (a << 24) | rgb(clamp(accR, max), clamp(accG, max),
+            clamp(accB, max));
+      }
+      else {
+        dst[dstOffset + j] = rgb(clamp(accR, maxValue), clamp(accG, maxValue),
+            clamp(accB, maxValue));
+      }
+    }
+  }
+
+  /**
+   * Applies a color transformation to a single pixel.
+   *
+   * @param transf     the transformation matrix
+   * @param maxValue   the largest value a color channel may hold
+   * @param rgb        the packed pixel to transform
+   * @return the transformed packed pixel
+   */
+  static int transform(double[][] transf, int maxValue, int rgb) {
+    int oldR = (rgb >> 16) & 0xFF;
+    int oldG = (rgb >> 8) & 0xFF;
+    int oldB = rgb & 0xFF;
+    // Calculate the new values using matrix multiplication
+    double dR = oldR * transf[0][0] + oldG * transf[1][0] + oldB * transf[2][0];
+    double dG = oldR * transf[0][1] + oldG * transf[1][1] + oldB * transf[2][1];
+    double dB = oldR * transf[0][2] + oldG * transf[1][2] + oldB * transf[2][2];
+    return rgb(clamp(dR, maxValue), clamp(dG, maxValue), clamp(dB, maxValue));
+  }
+
+  /**
+   * Applies a color transformation to a single premultiplied ARGB pixel. The transformations
+   * are linear, so they can be applied to the premultiplied channels directly; alpha is kept.
+   *
+   * @param transf     the transformation matrix
+   * @param maxValue   the largest value a color channel may hold
+   * @param argb       the packed premultiplied pixel to transform
+   * @return the transformed packed pixel
+   */
+  static int transformPremultiplied(double[][] transf, int maxValue, int argb) {
+    int a = argb >>> 24;
+    return (a << 24) | (transform(transf, Math.min(maxValue, a), argb) & 0xFFFFFF);
+  }
+
+  /**
+   * Blends a row of source pixels onto a row of destination pixels. The destination is
+   * premultiplied ARGB; an opaque source is treated as fully covering. Only integer math is
+   * used, with products of two channels divided by 255 through {@link #mul255}.
+   *
+   * @param mode         how to blend the source onto the destination
+   * @param src          the array holding the source row
+   * @param srcOffset    the offset in src of the row
+   * @param srcAlpha     whether the source is premultiplied ARGB rather than opaque RGB
+   * @param dst          the array holding the destination row, blended in place
+   * @param dstOffset    the offset in dst of the row
+   * @param length       the number of pixels to blend
+   */
+  static void blendRow(BlendMode mode, int[] src, int srcOffset, boolean srcAlpha, int[] dst,
+      int dstOffset, int length) {
+    if (mode == BlendMode.OVER && !srcAlpha) {
+      for (int i = 0; i < length; i++) {
+        dst[dstOffset + i] = src[srcOffset + i] | 0xFF000000;
+      }
+      return;
+    }
+    for (int i = 0; i < length; i++) {
+      int s = srcAlpha ? src[srcOffset + i] : src[srcOffset + i] | 0xFF000000;
+      int d = dst[dstOffset + i];
+      int sa = s >>> 24;
+      int da = d >>> 24;
+      // Every mode gives the same coverage: the source's plus what it leaves of the backdrop
+      int a = sa + mul255(da, 255 - sa);
+      int result = a << 24;
+      for (int shift = 0; shift < 24; shift += 8) {
+        int sc = (s >> shift) & 0xFF;
+        int dc = (d >> shift) & 0xFF;
+        int c;
+        switch (mode) {
+          case MULTIPLY:
+            c = mul255(sc, dc) + mul255(sc, 255 - da) + mul255(dc, 255 - sa);
+            break;
+          case SCREEN:
+            c = sc + dc - mul255(sc, dc);
+            break;
+          default:
+            c = sc + mul255(dc, 255 - sa);
+            break;
+        }
+        result |= Math.min(c, a) << shift;
+      }
+      dst[dstOffset + i] = result;
+    }
+  }
+
+  /**
+   * Converts an unpremultiplied ARGB pixel, as read from a file, into premultiplied ARGB.
+   *
+   * @param argb    the unpremultiplied pixel
+   * @return the premultiplied pixel
+   */
+  static int premultiply(int argb) {
+    int a = argb >>> 24;
+    if (a == 255) {
+      return argb;
+    }
+    return (a << 24) | rgb(mul255((argb >> 16) & 0xFF, a), mul255((argb >> 8) & 0xFF, a),
+        mul255(argb & 0xFF, a));
+  }
+
+  /**
+   * Converts a premultiplied ARGB pixel back into unpremultiplied ARGB, as files store it.
+   *
+   * @param argb    the premultiplied pixel
+   * @return the unpremultiplied pixel
+   */
+  static int unpremultiply(int argb) {
+    int a = argb >>> 24;
+    if (a == 255 || a == 0) {
+      return a == 0 ? 0 : argb;
+    }
+    int half = a / 2;
+    return (a << 24) | rgb(Math.min(255, (((argb >> 16) & 0xFF) * 255 + half) / a),
+        Math.min(255, (((argb >> 8) & 0xFF) * 255 + half) / a),
+        Math.min(255, ((argb & 0xFF) * 255 + half) / a));
+  }
+
+  /**
+   * Multiplies two channel values and divides by 255, rounded, without dividing.
+   *
+   * @param a    a value from 0 to 255
+   * @param b    a value from 0 to 255
+   * @return a * b / 255, rounded to the nearest integer
+   */
+  static int mul255(int a, int b) {
+    int t = a * b + 128;
+    return (t + (t >> 8)) >> 8;
+  }
+
+  /**
+   * Converts the given double into an appropriate int to represent a color value.
+   *
+   * @param d          the computed channel value
+   * @param maxValue   the largest value a color channel may hold
+   * @return the value rounded and clamped to [0, maxValue]
+   */
+  static int clamp(double d, int maxValue) {
+    if (d < 0) {
+      return 0;
+    }
+    else if (d > maxValue) {
+      return maxValue;
+    }
+    // If 0 < d < maxVal
+    else {
+      return (int) Math.round(d);
+    }
+  }
+
+  /**
+   * Packs the given channels into an RGB int.
+   *
+   * @param r    the red value
+   * @param g    the green value
+   * @param b    the blue value
+   * @return the packed pixel
+   */
+  static int rgb(int r, int g, int b) {
+    return (r << 16) | (g << 8) | b;
+  }
+}
@@ -1,17 +1,31 @@
 package model;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * Representing a Layer utilized by LayeredImageModel.
  */
 public class Layer implements ImageModel {
 
-  private SingleImageModel image;
+  // Read without locking by the composite, so kept volatile
+  private volatile SingleImageModel image;
+  // The not yet decoded image of a layer opened from a project container
+  private volatile ProjectContainer.Chunk chunk;
   private final String name;
-  private boolean visible;
+  private volatile boolean visible;
+  // The image, version and file of this layer's last save, used to skip unchanged layers
+  private SingleImageModel savedImage;
+  private long savedVersion;
+  private String savedFile;
+  private volatile BlendMode blendMode = BlendMode.OVER;
+  // Whether operations are queued rather than run, and those queued since the last evaluation
+  private boolean deferred;
+  private PendingOperations pending;
 
   protected Layer(SingleImageModel image, String name) {
     this.image = image;
@@ -19,6 +33,13 @@ public class Layer implements ImageModel {
     this.visible = true;
   }
 
+  // Constructor for a layer whose image is decoded from the given chunk on first use
+  protected Layer(ProjectContainer.Chunk chunk, String name, boolean visible) {
+    this(null, name);
+    this.chunk = chunk;
+    this.visible = visible;
+  }
+
   protected String getName() {
     return name;
   }
@@ -37,54 +58,219 @@ public class Layer implements ImageModel {
     visible = !visible;
   }
 
+  // Returns how this layer is blended onto the layers below it.
+  protected BlendMode getBlendMode() {
+    return blendMode;
+  }
+
+  // Sets how this layer is blended onto the layers below it.
+  protected void setBlendMode(BlendMode blendMode) {
+    this.blendMode = blendMode;
+  }
+
+  // Sets whether operations on this layer are queued until evaluated rather than run right
+  // away. Operations already queued stay queued.
+  protected void setDeferred(boolean deferred) {
+    this.deferred = deferred;
+  }
+
+  // Returns whether this layer has queued operations.
+  protected boolean hasPending() {
+    return pending != null;
+  }
+
+  // Returns whether this layer's queued operations change the size of its image.
+  protected boolean pendingResizes() {
+    return pending != null && (pending.getWidth() != width() || pending.getHeight() != height());
+  }
+
+  // Runs this layer's queued operations on its image.
+  protected void evaluate() {
+    PendingOperations operations;
+    synchronized (this) {
+      operations = pending;
+      pending = null;
+    }
+    if (operations != null) {
+      operations.runOn(image());
+    }
+  }
+
+  // Returns the queue for a new operation on this layer.
+  private PendingOperations queue() {
+    if (pending == null) {
+      pending = new PendingOperations(width(), height());
+    }
+    return pending;
+  }
+
+  // Returns the width of this layer's image without decoding it.
+  int width() {
+    return chunk != null ? chunk.getWidth() : image.getWidth();
+  }
+
+  // Returns the height of this layer's image without decoding it.
+  int height() {
+    return chunk != null ? chunk.getHeight() : image.getHeight();
+  }
+
   // Returns whether this is an empty layer.
   protected boolean isEmpty() {
-    return image == null;
+    return image == null && chunk == null;
+  }
+
+  // Returns this layer's image, decoding it from its project chunk on first access.
+  private SingleImageModel image() {
+    if (chunk == null) {
+      return image;
+    }
+    synchronized (this) {
+      if (chunk != null) {
+        image = chunk.decode();
+        chunk = null;
+      }
+      return image;
+    }
+  }
+
+  // Returns this layer's image as a project container chunk, reusing the stored chunk if the
+  // image was never decoded.
+  protected synchronized ProjectContainer.Chunk toChunk() {
+    if (chunk != null) {
+      return chunk;
+    }
+    return ProjectContainer.encode(image);
+  }
+
+  // Copies this layer's stored chunk out of the given container, if it's mapped from it, so
+  // the container can be replaced.
+  protected synchronized void detachChunk(Path container) {
+    if (chunk != null) {
+      chunk = chunk.detachFrom(container);
+    }
+  }
+
+  // Returns this layer's image, decoding it first if needed.
+  protected SingleImageModel getImage() {
+    return image();
+  }
+
+  // Returns whether this layer's image has changed since it was last saved or loaded.
+  protected boolean isDirty() {
+    if (pending != null) {
+      return true;
+    }
+    if (chunk != null) {
+      return false;
+    }
+    return image == null || image != savedImage || image.getVersion() != savedVersion;
+  }
+
+  // Returns whether the given file already holds this layer's current image.
+  protected boolean isSavedTo(String filename) {
+    return !isDirty() && filename.equals(savedFile) && new File(filename).exists();
+  }
+
+  // Records that the given file now holds this layer's current image.
+  protected void markSaved(String filename) {
+    savedImage = image();
+    savedVersion = savedImage.getVersion();
+    savedFile = filename;
   }
 
   // Adds or replaces this image's layer.
-  protected void addImage(SingleImageModel newImage) {
+  protected synchronized void addImage(SingleImageModel newImage) {
     image = newImage;
+    chunk = null;
+    pending = null;
   }
 
-  // Applies a filter to this layer's image.
+  // Applies a filter to this layer's image, or queues it if this layer defers its work.
   @Override
   public void applyFilter(FilterType filter) {
-    image.applyFilter(filter);
+    if (deferred) {
+      queue().filter(filter, null);
+    }
+    else {
+      image().applyFilter(filter);
+    }
+  }
+
+  // Applies a filter to part of this layer's image.
+  @Override
+  public void applyFilter(FilterType filter, Rectangle region) {
+    if (deferred) {
+      queue().filter(filter, region);
+    }
+    else {
+      image().applyFilter(filter, region);
+    }
   }
 
   // Applies a transformation to this layer's image.
   @Override
   public void applyTransformation(TransformationType transf) {
-    image.applyTransformation(transf);
+    if (deferred) {
+      queue().transform(transf, null);
+    }
+    else {
+      image().applyTransformation(transf);
+    }
+  }
+
+  // Applies a transformation to part of this layer's image.
+  @Override
+  public void applyTransformation(TransformationType transf, Rectangle region) {
+    if (deferred) {
+      queue().transform(transf, region);
+    }
+    else {
+      image().applyTransformation(transf, region);
+    }
   }
 
   // Applies a downscale to this layer's image.
   @Override
   public void applyDownscale(int widthNew, int heightNew) {
-    image.applyDownscale(widthNew, heightNew);
+    if (deferred) {
+      queue().downscale(widthNew, heightNew);
+    }
+    else {
+      image().applyDownscale(widthNew, heightNew);
+    }
   }
 
   // Applies a mosaic to this layer's image.
   @Override
   public void applyMosaic(int seed) {
-    image.applyMosaic(seed);
+    if (deferred) {
+      queue().mosaic(seed);
+    }
+    else {
+      image().applyMosaic(seed);
+    }
   }
 
   // Exports this layer's image.
   @Override
   public void export(String filename, FileType fileType) throws IOException {
-    image.export(filename, fileType);
+    image().export(filename, fileType);
+  }
+
+  // Exports this layer's image with the given encoder settings.
+  @Override
+  public void export(String filename, ExportOptions options) throws IOException {
+    image().export(filename, options);
   }
 
   public BufferedImage exportDISPLAY() {
-    return image.exportDISPLAY();
+    return image().exportDISPLAY();
   }
 
   // Gets the Color at the provided position in this layer's image.
   @Override
   public Color getColorAt(int x, int y) {
-    return image.getColorAt(x, y);
+    return image().getColorAt(x, y);
   }
 
   protected String stringOutput(String filename) {
@@ -1,19 +1,42 @@
 package model;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * Representing a multi-layered implementation of ImageModel.
  *
+ * <p>Changes to the model run one at a time. Reading the composite, through
+ * {@link #snapshot()} or {@link #exportDISPLAY()}, never waits for a change in progress; it
+ * shows each layer as of its last finished operation.
  */
 public class LayeredImageModel implements ImageModel {
+  // Copied on every change, so the composite can walk it while layers are added
   private final List<Layer> layers;
-  private int currentPosn;
+  private final Compositor compositor;
+  private final History history;
+  private volatile int currentPosn;
+  private volatile boolean deferred;
 
   // Constructor for a new LayeredImageModel from scratch, before any loading/creating
   public LayeredImageModel() {
@@ -22,7 +45,9 @@ public class LayeredImageModel implements ImageModel {
 
   // Constructor for a LayeredImageModel with pre-existing layers
   protected LayeredImageModel(List<Layer> layers) {
-    this.layers = layers;
+    this.layers = new CopyOnWriteArrayList<Layer>(layers);
+    this.compositor = new Compositor();
+    this.history = new History();
     this.currentPosn = 0;
   }
 
@@ -30,6 +55,11 @@ public class LayeredImageModel implements ImageModel {
     return layers.get(currentPosn).getName();
   }
 
+  // Returns the current layer, or null if there are none
+  synchronized Layer currentLayer() {
+    return layers.isEmpty() ? null : layers.get(currentPosn);
+  }
+
   public int getSize() {
     return this.layers.size();
   }
@@ -53,7 +83,7 @@ public class LayeredImageModel implements ImageModel {
    *
    * @param name    Representing which layer is to be set as current.
    */
-  public void current(String name) throws IllegalArgumentException {
+  public synchronized void current(String name) throws IllegalArgumentException {
     for (int i = 0; i < layers.size(); i++) {
       if (layers.get(i).getName().equals(name)) {
         currentPosn = i;
@@ -68,13 +98,40 @@ public class LayeredImageModel implements ImageModel {
    *
    * @param name    Representing the name of this new layer.
    */
-  public void newLayer(String name) throws IllegalArgumentException {
+  public synchronized void newLayer(String name) throws IllegalArgumentException {
     for (int i = 0; i < layers.size(); i++) {
       if (layers.get(i).getName() == name) {
         throw new IllegalArgumentException("A layer already exists with the given name.");
       }
     }
-    this.layers.add(new Layer(name));
+    Layer layer = new Layer(name);
+    layer.setDeferred(deferred);
+    this.layers.add(layer);
+  }
+
+  /**
+   * Sets whether operations on this model's layers are deferred. A deferred operation is only
+   * queued, and queued operations run when something reads the layer's pixels: a display, an
+   * export, or an undo. Before they run they are reordered and merged where that saves work
+   * without changing the result by more than rounding, and operations on layers that are never
+   * read never run. Operations that run together are undone together.
+   *
+   * <p>Turning deferral off runs every queued operation.
+   *
+   * @param deferred  whether to defer operations
+   */
+  public synchronized void setDeferred(boolean deferred) {
+    this.deferred = deferred;
+    for (Layer layer : layers) {
+      layer.setDeferred(deferred);
+    }
+    if (!deferred) {
+      evaluate(layers);
+    }
+  }
+
+  public boolean isDeferred() {
+    return deferred;
   }
 
   /**
@@ -82,18 +139,23 @@ public class LayeredImageModel implements ImageModel {
    *
    *@param image  Representing the image to import into this layer.
    */
-  public void loadToLayer(SingleImageModel image) throws IllegalStateException {
+  public synchronized void loadToLayer(SingleImageModel image) throws IllegalStateException {
     if (layers.isEmpty()) {
       throw new IllegalStateException("There is no current layer.");
     }
-    layers.get(currentPosn).addImage(image);
+    Layer layer = layers.get(currentPosn);
+    // Queued operations run first so that undoing the replacement brings back their result
+    evaluate(Collections.singletonList(layer));
+    SingleImageModel before = layer.isEmpty() ? null : layer.getImage();
+    layer.addImage(image);
+    history.record(Collections.singletonList(new History.Replace(layer, before)));
   }
 
   /**
    * Makes the current layer invisible, and switches to a visible one if possible.
    *
    */
-  public void invisible() throws IllegalStateException {
+  public synchronized void invisible() throws IllegalStateException {
     if (layers.get(currentPosn).isEmpty()) {
       throw new IllegalStateException("This layer is currently empty.");
     }
@@ -106,6 +168,7 @@ public class LayeredImageModel implements ImageModel {
     // Switch to the first visible layer possible
     else {
       curLayer.flipVisibility();
+      history.record(Collections.singletonList(new History.Visibility(curLayer)));
       for (int i = currentPosn; i > -1; i--) {
         if (layers.get(i).isVisible()) {
           currentPosn = i;
@@ -121,11 +184,26 @@ public class LayeredImageModel implements ImageModel {
     }
   }
 
+  /**
+   * Sets how the current layer is blended onto the layers below it.
+   *
+   * @param mode  BlendMode representing the blend to use
+   */
+  public synchronized void setBlendMode(BlendMode mode) throws IllegalStateException {
+    if (layers.get(currentPosn).isEmpty()) {
+      throw new IllegalStateException("This layer is currently empty.");
+    }
+    Layer layer = layers.get(currentPosn);
+    BlendMode before = layer.getBlendMode();
+    layer.setBlendMode(mode);
+    history.record(Collections.singletonList(new History.Blend(layer, before)));
+  }
+
   /**
    * Makes the current layer visible.
    *
    */
-  public void visible() throws IllegalStateException {
+  public synchronized void visible() throws IllegalStateException {
     if (layers.get(currentPosn).isEmpty()) {
       throw new IllegalStateException("This layer is currently empty.");
     }
@@ -135,6 +213,7 @@ public class LayeredImageModel implements ImageModel {
     }
     else {
       curLayer.flipVisibility();
+      history.record(Collections.singletonList(new History.Visibility(curLayer)));
     }
   }
 
@@ -144,11 +223,12 @@ public class LayeredImageModel implements ImageModel {
    * @param filter  FilterType representing the specific type of filter to be applied
    */
   @Override
-  public void applyFilter(FilterType filter) throws IllegalStateException {
+  public synchronized void applyFilter(FilterType filter) throws IllegalStateException {
     if (layers.get(currentPosn).isEmpty()) {
       throw new IllegalStateException("This layer is currently empty.");
     }
-    layers.get(currentPosn).applyFilter(filter);
+    Layer layer = layers.get(currentPosn);
+    recordPixels(Collections.singletonList(layer), () -> layer.applyFilter(filter));
   }
 
   /**
@@ -158,27 +238,292 @@ public class LayeredImageModel implements ImageModel {
    *                to be applied
    */
   @Override
-  public void applyTransformation(TransformationType transf) throws IllegalStateException {
+  public synchronized void applyTransformation(TransformationType transf)
+      throws IllegalStateException {
     if (layers.get(currentPosn) == null) {
       throw new IllegalStateException("This layer is currently empty.");
     }
-    layers.get(currentPosn).applyTransformation(transf);
+    Layer layer = layers.get(currentPosn);
+    recordPixels(Collections.singletonList(layer), () -> layer.applyTransformation(transf));
+  }
+
+  /**
+   * Applies a filter to part of the current layer of this model.
+   *
+   * @param filter  FilterType representing the specific type of filter to be applied
+   * @param region  the part of the layer to change, clipped to the layer
+   */
+  @Override
+  public synchronized void applyFilter(FilterType filter, Rectangle region)
+      throws IllegalStateException, IllegalArgumentException {
+    if (layers.get(currentPosn).isEmpty()) {
+      throw new IllegalStateException("This layer is currently empty.");
+    }
+    Layer layer = layers.get(currentPosn);
+    recordPixels(Collections.singletonList(layer), () -> layer.applyFilter(filter, region));
+  }
+
+  /**
+   * Applies a color transformation to part of the current layer of this model.
+   *
+   * @param transf  TransformationType representing the specific type of transformation
+   *                to be applied
+   * @param region  the part of the layer to change, clipped to the layer
+   */
+  @Override
+  public synchronized void applyTransformation(TransformationType transf, Rectangle region)
+      throws IllegalStateException, IllegalArgumentException {
+    if (layers.get(currentPosn).isEmpty()) {
+      throw new IllegalStateException("This layer is currently empty.");
+    }
+    Layer layer = layers.get(currentPosn);
+    recordPixels(Collections.singletonList(layer),
+        () -> layer.applyTransformation(transf, region));
   }
 
   @Override
-  public void applyDownscale(int widthNew, int heightNew) {
+  public synchronized void applyDownscale(int widthNew, int heightNew) {
     if (layers.get(currentPosn) == null) {
       throw new IllegalStateException("This layer is currently empty.");
     }
-    layers.get(currentPosn).applyDownscale(widthNew, heightNew);
+    Layer layer = layers.get(currentPosn);
+    recordPixels(Collections.singletonList(layer),
+        () -> layer.applyDownscale(widthNew, heightNew));
   }
 
   @Override
-  public void applyMosaic(int seed) {
+  public synchronized void applyMosaic(int seed) {
     if (layers.get(currentPosn) == null) {
       throw new IllegalStateException("This layer is currently empty.");
     }
-    layers.get(currentPosn).applyMosaic(seed);
+    Layer layer = layers.get(currentPosn);
+    recordPixels(Collections.singletonList(layer), () -> layer.applyMosaic(seed));
+  }
+
+  /**
+   * Applies an operation to several layers at once, each on its own task in the shared
+   * {@link WorkPool}. Tasks only start while the memory they are expected to need fits under
+   * the pool's memory cap. Every chosen layer is attempted even if others fail.
+   *
+   * <p>Like any change, this holds the model until it's done, including while it waits for
+   * memory under the cap, so other changes and the snapshots that run deferred operations wait
+   * behind it; {@link #snapshot()} doesn't. If the calling thread is interrupted, layers not
+   * started yet are left as they are, and those started are finished before this returns, so
+   * the history records exactly the layers that changed.
+   *
+   * @param names      the names of the layers to change, or null for every non-empty layer
+   * @param operation  the operation to apply to each chosen layer
+   * @throws IllegalArgumentException if no layer has one of the given names
+   * @throws IllegalStateException if a chosen layer is empty, or the operation failed on any
+   *                               layer
+   */
+  public synchronized void applyToLayers(List<String> names, Consumer<ImageModel> operation)
+      throws IllegalArgumentException, IllegalStateException {
+    Set<Layer> chosen = new LinkedHashSet<Layer>();
+    if (names == null) {
+      for (Layer layer : layers) {
+        if (!layer.isEmpty()) {
+          chosen.add(layer);
+        }
+      }
+    }
+    else {
+      for (String name : names) {
+        Layer match = null;
+        for (Layer layer : layers) {
+          if (layer.getName().equals(name)) {
+            match = layer;
+            break;
+          }
+        }
+        if (match == null) {
+          throw new IllegalArgumentException("No layer with such name exists: " + name);
+        }
+        chosen.add(match);
+      }
+    }
+    for (Layer layer : chosen) {
+      if (layer.isEmpty()) {
+        throw new IllegalStateException("Layer " + layer.getName() + " is currently empty.");
+      }
+    }
+    if (deferred) {
+      queueOnLayers(chosen, operation);
+      return;
+    }
+
+    List<Layer> submitted = new ArrayList<Layer>();
+    List<Future<?>> pending = new ArrayList<Future<?>>();
+    StringBuilder errors = new StringBuilder();
+    recordPixels(chosen, () -> {
+      boolean interrupted = false;
+      try {
+        for (Layer layer : chosen) {
+          SingleImageModel image = layer.getImage();
+          // Room for the new pixels and the operation's working arrays
+          long bytes = 2L * image.getWidth() * image.getHeight() * Integer.BYTES;
+          WorkPool.reserve(bytes);
+          pending.add(WorkPool.pool().submit(() -> {
+            WorkUnitEvent event = WorkUnitEvent.start();
+            try {
+              operation.accept(layer);
+            }
+            finally {
+              WorkPool.release(bytes);
+              event.finish("layers", layer.getName(), 0, 0, image.getWidth(),
+                  image.getHeight());
+            }
+          }));
+          submitted.add(layer);
+        }
+      }
+      catch (InterruptedException e) {
+        interrupted = true;
+      }
+      // Started tasks are waited for even once interrupted, as they go on changing their layers
+      for (int i = 0; i < pending.size(); i++) {
+        boolean finished = false;
+        while (!finished) {
+          try {
+            pending.get(i).get();
+            finished = true;
+          }
+          catch (InterruptedException e) {
+            interrupted = true;
+          }
+          catch (ExecutionException e) {
+            errors.append(System.lineSeparator()).append("Cannot change layer ")
+                .append(submitted.get(i).getName()).append(": ").append(e.getCause().getMessage());
+            finished = true;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+        for (Layer layer : chosen) {
+          if (!submitted.contains(layer)) {
+            errors.append(System.lineSeparator()).append("Interrupted before changing layer ")
+                .append(layer.getName());
+          }
+        }
+      }
+    });
+    if (errors.length() > 0) {
+      throw new IllegalStateException("Cannot apply operation to every layer" + errors);
+    }
+  }
+
+  // Queues an operation on each of the given layers, trying every layer even if some reject it
+  private static void queueOnLayers(Collection<Layer> chosen, Consumer<ImageModel> operation)
+      throws IllegalStateException {
+    StringBuilder errors = new StringBuilder();
+    for (Layer layer : chosen) {
+      try {
+        operation.accept(layer);
+      }
+      catch (IllegalArgumentException | IllegalStateException e) {
+        errors.append(System.lineSeparator()).append("Cannot change layer ")
+            .append(layer.getName()).append(": ").append(e.getMessage());
+      }
+    }
+    if (errors.length() > 0) {
+      throw new IllegalStateException("Cannot apply operation to every layer" + errors);
+    }
+  }
+
+  // Runs the queued operations of the given layers as one step of the history
+  private void evaluate(Collection<Layer> chosen) {
+    List<Layer> queued = new ArrayList<Layer>();
+    for (Layer layer : chosen) {
+      if (layer.hasPending()) {
+        queued.add(layer);
+      }
+    }
+    if (!queued.isEmpty()) {
+      recordPixels(queued, () -> {
+        for (Layer layer : queued) {
+          layer.evaluate();
+        }
+      });
+    }
+  }
+
+  // Runs the queued operations of the layers the composite reads: the visible ones, and those
+  // whose size, and so the canvas size, is about to change
+  private void evaluateComposite() {
+    List<Layer> read = new ArrayList<Layer>();
+    for (Layer layer : layers) {
+      if (layer.isVisible() || layer.pendingResizes()) {
+        read.add(layer);
+      }
+    }
+    evaluate(read);
+  }
+
+  // Runs an operation that changes the pixels of the given layers, then records whatever
+  // pixels it replaced as one step of the history, even if it failed partway
+  private void recordPixels(Collection<Layer> changed, Runnable operation) {
+    List<SingleImageModel> images = new ArrayList<SingleImageModel>();
+    List<int[]> before = new ArrayList<int[]>();
+    List<Integer> sizes = new ArrayList<Integer>();
+    for (Layer layer : changed) {
+      if (!layer.isEmpty()) {
+        SingleImageModel image = layer.getImage();
+        images.add(image);
+        before.add(image.getData());
+        sizes.add(image.getWidth());
+        sizes.add(image.getHeight());
+      }
+    }
+    try {
+      operation.run();
+    }
+    finally {
+      List<History.Change> step = new ArrayList<History.Change>();
+      for (int i = 0; i < images.size(); i++) {
+        if (images.get(i).getData() != before.get(i)) {
+          step.add(new History.Pixels(images.get(i), before.get(i), sizes.get(2 * i),
+              sizes.get(2 * i + 1)));
+        }
+      }
+      history.record(step);
+    }
+  }
+
+  /**
+   * Reverts the most recent change to this model's layers: an operation on their pixels, a new
+   * image, a visibility change or a blend mode change.
+   *
+   * @throws IllegalStateException if there is nothing to undo
+   */
+  public synchronized void undo() throws IllegalStateException {
+    evaluate(layers);
+    OperationMetrics.Sample sample = OperationMetrics.start();
+    history.undo();
+    sample.stop("undo", 0);
+  }
+
+  /**
+   * Applies the most recently undone change again.
+   *
+   * @throws IllegalStateException if there is nothing to redo
+   */
+  public synchronized void redo() throws IllegalStateException {
+    evaluate(layers);
+    OperationMetrics.Sample sample = OperationMetrics.start();
+    history.redo();
+    sample.stop("redo", 0);
+  }
+
+  /**
+   * Sets the most memory, in bytes, the undo history may hold. The oldest changes are
+   * forgotten once it holds more, though the most recent one can always be undone.
+   *
+   * @param bytes  the budget for the undo history
+   * @throws IllegalArgumentException if the budget is negative
+   */
+  public synchronized void setHistoryLimit(long bytes) throws IllegalArgumentException {
+    history.setMaxBytes(bytes);
   }
 
   /**
@@ -189,33 +534,263 @@ public class LayeredImageModel implements ImageModel {
    */
   @Override
   public void export(String filename, FileType fileType) throws IllegalStateException, IOException {
+    export(filename, new ExportOptions(fileType));
+  }
+
+  /**
+   * Creates a file from the top layer of this model, encoded with the given options.
+   *
+   * @param filename  String representing the name of the file that the image should be saved to
+   * @param options   the file type and encoder settings to use
+   */
+  @Override
+  public void export(String filename, ExportOptions options)
+      throws IllegalStateException, IOException {
+    // Encoding doesn't hold up changes to the model
+    layerSnapshot().export(filename, options);
+  }
+
+  /**
+   * Returns the current layer as it is now, running its deferred operations first. Later
+   * changes leave the returned snapshot as it is, so it can be saved on another thread.
+   *
+   * @return the current layer's image
+   */
+  public synchronized ImageSnapshot layerSnapshot() throws IllegalStateException {
     if (layers.get(currentPosn) == null) {
       throw new IllegalStateException("This layer is currently empty.");
     }
-    layers.get(currentPosn).export(filename, fileType);
+    evaluate(Collections.singletonList(layers.get(currentPosn)));
+    return layers.get(currentPosn).getImage().snapshot();
   }
 
   /**
-   * Creates a BufferedImage for display purposes.
+   * Creates a BufferedImage for display purposes, showing the visible layers blended together.
+   * Only what changed since the last call is recomputed. If operations are deferred, those the
+   * display needs run first. The image shares its memory with the model's display, and is
+   * only good until the display is next exported but one; use {@link #snapshot()} to keep one.
    */
   public BufferedImage exportDISPLAY() throws IllegalStateException {
-    if (layers.get(currentPosn) == null || layers.isEmpty()) {
+    if (deferred) {
+      synchronized (this) {
+        evaluateComposite();
+      }
+    }
+    if (layers.isEmpty()) {
       throw new IllegalStateException("This layer is currently empty.");
     }
-    return layers.get(currentPosn).exportDISPLAY();
+    return compositor.composite(layers, false).exportDISPLAY();
   }
 
   /**
-   * Creates a file from all the layers of this model.
+   * Returns the visible layers blended together, as of the last finished operation on each.
+   * Never waits for an operation in progress, and never runs deferred operations.
    *
+   * @return the blend of the visible layers, which later changes leave as it is
+   * @throws IllegalStateException if every layer is empty
    */
-  public void exportFullProject(String referenceName) throws IOException {
-    FileWriter fw = new FileWriter(referenceName + "LayeredProject.txt");
-    for (int i = 0; i < layers.size(); i++) {
-      fw.write(layers.get(i).stringOutput(layers.get(i).getName()));
-      layers.get(i).export(layers.get(i).getName() + ".png", FileType.PNG);
+  public ImageSnapshot snapshot() throws IllegalStateException {
+    if (layers.isEmpty()) {
+      throw new IllegalStateException("This layer is currently empty.");
+    }
+    return compositor.composite(layers, true).snapshot();
+  }
+
+  /**
+   * Returns a small copy of this model for previewing operations quickly: every layer is shrunk
+   * by the same factor, so that the tallest is no taller than the given height. The copy keeps
+   * each layer's name, visibility and blend mode, and the same layer is current, but has its
+   * own history and runs operations right away. Operations applied to this model afterwards
+   * don't affect the copy, nor the other way round. If operations are deferred, they run
+   * first.
+   *
+   * @param maxHeight  the most rows any layer of the copy may have
+   * @return the copy
+   * @throws IllegalArgumentException if the height isn't positive
+   */
+  public synchronized LayeredImageModel proxy(int maxHeight) throws IllegalArgumentException {
+    if (maxHeight < 1) {
+      throw new IllegalArgumentException("Preview height must be positive");
+    }
+    evaluate(layers);
+    int tallest = 0;
+    for (Layer layer : layers) {
+      if (!layer.isEmpty()) {
+        tallest = Math.max(tallest, layer.getImage().getHeight());
+      }
+    }
+    double scale = Math.min(1, (double) maxHeight / Math.max(1, tallest));
+    List<Layer> copies = new ArrayList<Layer>();
+    for (Layer layer : layers) {
+      Layer copy;
+      if (layer.isEmpty()) {
+        copy = new Layer(layer.getName());
+      }
+      else {
+        // Operations replace an image's pixels rather than change them, so the snapshot's
+        // pixels can be shared until the first one
+        ImageSnapshot image = layer.getImage().snapshot();
+        SingleImageModel small = new SingleImageModel(image.getWidth(), image.getHeight(),
+            image.getMaxValue(), image.getData(), image.hasAlpha());
+        if (scale < 1) {
+          small.applyDownscale(Math.max(1, (int) Math.round(image.getWidth() * scale)),
+              Math.max(1, (int) Math.round(image.getHeight() * scale)));
+        }
+        copy = new Layer(small, layer.getName());
+      }
+      if (!layer.isVisible()) {
+        copy.flipVisibility();
+      }
+      copy.setBlendMode(layer.getBlendMode());
+      copies.add(copy);
+    }
+    LayeredImageModel proxy = new LayeredImageModel(copies);
+    proxy.currentPosn = currentPosn;
+    return proxy;
+  }
+
+  /**
+   * Returns the part of the display that changed the last time it was exported, so that only
+   * that part needs to be repainted.
+   *
+   * @return the changed region, in display coordinates, empty if nothing changed
+   */
+  public Rectangle getLastDisplayChange() {
+    return compositor.getLastChange();
+  }
+
+  /**
+   * Creates a file from the visible layers of this model blended together, bottom to top.
+   *
+   * @param filename  String representing the name of the file that the image should be saved to
+   * @param options   the file type and encoder settings to use
+   * @throws IllegalStateException if every layer is empty
+   */
+  public void exportComposite(String filename, ExportOptions options)
+      throws IllegalStateException, IOException {
+    compositeSnapshot().export(filename, options);
+  }
+
+  /**
+   * Returns the visible layers blended together as they are now, running the deferred
+   * operations the blend needs first. Later changes leave the returned snapshot as it is, so
+   * it can be saved on another thread.
+   *
+   * @return the blend of the visible layers
+   * @throws IllegalStateException if every layer is empty
+   */
+  public synchronized ImageSnapshot compositeSnapshot() throws IllegalStateException {
+    evaluateComposite();
+    return snapshot();
+  }
+
+  /**
+   * Creates a text project file, plus one PNG per layer, from all the layers of this model.
+   *
+   * @param referenceName  the name of the project file, without its extension
+   * @throws IllegalStateException if any layer is empty
+   * @throws IOException if any layer or the project file can't be written
+   */
+  public void exportFullProject(String referenceName) throws IllegalStateException, IOException {
+    exportFullProject(referenceName, ProjectFormat.TEXT);
+  }
+
+  /**
+   * Creates a project from all the layers of this model in the given format. A text project
+   * only re-encodes layers that changed since they were last saved or loaded, in parallel, and
+   * a binary project holds every layer in one file. Either way the project file is replaced in
+   * one step once it has been fully written.
+   *
+   * @param referenceName  the name of the project file, without its extension
+   * @param format         the format to save the project in
+   * @throws IllegalStateException if any layer is empty
+   * @throws IOException if any layer or the project file can't be written
+   */
+  public synchronized void exportFullProject(String referenceName, ProjectFormat format)
+      throws IllegalStateException, IOException {
+    for (Layer layer : layers) {
+      if (layer.isEmpty()) {
+        throw new IllegalStateException("Layer " + layer.getName() + " is currently empty.");
+      }
+    }
+    evaluate(layers);
+    OperationMetrics.Sample sample = OperationMetrics.start();
+    Path projectPath = Paths.get(format.projectFile(referenceName));
+    Path tempPath = Paths.get(projectPath + ".tmp");
+    if (format == ProjectFormat.BINARY) {
+      ProjectContainer.write(layers, tempPath);
+      for (Layer layer : layers) {
+        layer.detachChunk(projectPath);
+      }
+      moveIntoPlace(tempPath, projectPath);
+      sample.stop("export.project.binary", 0);
+      return;
+    }
+    StringBuilder manifest = new StringBuilder();
+    List<Layer> changed = new ArrayList<Layer>();
+    for (Layer layer : layers) {
+      manifest.append(layer.stringOutput(layer.getName()));
+      if (!layer.isSavedTo(layer.getName() + ".png")) {
+        changed.add(layer);
+      }
+    }
+    saveLayers(changed);
+    Files.write(tempPath, manifest.toString().getBytes(StandardCharsets.UTF_8));
+    moveIntoPlace(tempPath, projectPath);
+    sample.stop("export.project.text", 0);
+  }
+
+  // Encodes the given layers to their PNG files concurrently
+  private static void saveLayers(List<Layer> changed) throws IOException {
+    if (changed.isEmpty()) {
+      return;
+    }
+    int threads = Math.min(changed.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> pending = new ArrayList<Future<?>>();
+      for (Layer layer : changed) {
+        pending.add(executor.submit(() -> {
+          String filename = layer.getName() + ".png";
+          Path tempPath = Paths.get(filename + ".tmp");
+          layer.export(tempPath.toString(), FileType.PNG);
+          moveIntoPlace(tempPath, Paths.get(filename));
+          layer.markSaved(filename);
+          return null;
+        }));
+      }
+      StringBuilder errors = new StringBuilder();
+      for (int i = 0; i < pending.size(); i++) {
+        try {
+          pending.get(i).get();
+        }
+        catch (ExecutionException e) {
+          errors.append(System.lineSeparator()).append("Cannot save layer ")
+              .append(changed.get(i).getName()).append(": ").append(e.getCause().getMessage());
+        }
+      }
+      if (errors.length() > 0) {
+        throw new IOException("Cannot save layered project" + errors);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while saving layered project");
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // Replaces the target file with the finished temporary file, atomically where supported
+  private static void moveIntoPlace(Path temp, Path target) throws IOException {
+    try {
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
     }
-    fw.flush();
   }
 
   /**
@@ -227,6 +802,11 @@ public class LayeredImageModel implements ImageModel {
    */
   @Override
   public Color getColorAt(int x, int y) {
+    if (deferred) {
+      synchronized (this) {
+        evaluate(Collections.singletonList(layers.get(currentPosn)));
+      }
+    }
     return layers.get(currentPosn).getColorAt(x, y);
   }
 }
@@ -0,0 +1,31 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Representing a Java Flight Recorder event for one image operation, load or save, named as in
+ * {@link OperationMetrics}. It is recorded whether or not those metrics are enabled.
+ */
+@Name("imageprocessing.Operation")
+@Label("Image Operation")
+@Category("Image Processing")
+@Description("An operation on an image, or a load or save of one")
+final class OperationEvent extends Event {
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Pixels")
+  @Description("The pixels the operation covered")
+  long pixels;
+
+  @Label("Allocated")
+  @Description("The bytes the thread running the operation allocated while it did")
+  @DataAmount
+  long allocated;
+}
@@ -0,0 +1,321 @@
+package model;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Records, for every kind of image operation, load and save, how many have run, a histogram
+ * of how long they took, how many pixels they covered and how many bytes the thread running
+ * them allocated. An operation is named by what it does and its type, such as
+ * {@code filter.blur} or {@code load.png}; an operation made of others, such as saving a
+ * project, is counted along with each of its parts.
+ *
+ * <p>Recording costs a few counter updates per operation, far less than any operation on an
+ * image, so it is on by default. Once {@link #register()}ed, the metrics can be read over JMX
+ * as {@value #NAME}.
+ */
+public final class OperationMetrics implements OperationMetricsMXBean {
+
+  /**
+   * The name the metrics are registered under.
+   */
+  public static final String NAME = "imageprocessing:type=OperationMetrics";
+
+  // Each doubling of a latency is split into this many histogram buckets, so percentiles are
+  // within a quarter of the true value
+  private static final int STEPS = 4;
+  // Enough buckets for latencies up to 2^40 microseconds, which is about twelve days
+  private static final int BUCKETS = 41 * STEPS;
+
+  private static final OperationMetrics INSTANCE = new OperationMetrics();
+  private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+  private final Map<String, Counters> counters;
+  private volatile boolean enabled;
+
+  private OperationMetrics() {
+    this.counters = new ConcurrentHashMap<String, Counters>();
+    this.enabled = true;
+  }
+
+  /**
+   * Returns the metrics shared by every operation.
+   *
+   * @return the metrics
+   */
+  public static OperationMetrics get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server, so that JMX clients can read them.
+   * Does nothing if they already are.
+   *
+   * @throws IllegalStateException if the server won't register them
+   */
+  public static synchronized void register() throws IllegalStateException {
+    try {
+      ObjectName name = new ObjectName(NAME);
+      if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+      }
+    }
+    catch (JMException e) {
+      throw new IllegalStateException("Cannot register operation metrics: " + e.getMessage());
+    }
+  }
+
+  // Returns the counter of bytes each thread allocates, or null if the runtime doesn't keep one
+  private static com.sun.management.ThreadMXBean allocationCounter() {
+    if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean threads =
+          (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+        return threads;
+      }
+    }
+    return null;
+  }
+
+  // Starts timing an operation on the calling thread
+  static Sample start() {
+    return new Sample();
+  }
+
+  /**
+   * Representing an operation being timed, from when it was started.
+   */
+  static final class Sample {
+    private final long startNanos;
+    private final long startBytes;
+    private final OperationEvent event;
+
+    private Sample() {
+      this.startNanos = System.nanoTime();
+      this.startBytes = THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+      this.event = new OperationEvent();
+      event.begin();
+    }
+
+    // Records the operation as finished, under the given name, having covered the given
+    // number of pixels, in the metrics if enabled and in a flight recording if one wants it
+    void stop(String operation, long pixels) {
+      event.end();
+      boolean record = event.shouldCommit();
+      if (!INSTANCE.enabled && !record) {
+        return;
+      }
+      long nanos = System.nanoTime() - startNanos;
+      long bytes = THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes() - startBytes;
+      if (INSTANCE.enabled) {
+        INSTANCE.counters.computeIfAbsent(operation, name -> new Counters())
+            .add(nanos, pixels, bytes);
+      }
+      if (record) {
+        event.operation = operation;
+        event.pixels = pixels;
+        event.allocated = bytes;
+        event.commit();
+      }
+    }
+  }
+
+  @Override
+  public List<Stats> getOperations() {
+    List<Stats> operations = new ArrayList<Stats>();
+    for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+      operations.add(entry.getValue().stats(entry.getKey()));
+    }
+    operations.sort(Comparator.comparingDouble(Stats::getTotalMillis).reversed());
+    return operations;
+  }
+
+  @Override
+  public String getReport() {
+    StringBuilder report = new StringBuilder(String.format(
+        "%-26s %8s %11s %9s %9s %9s %9s %10s %11s%n", "operation", "count", "total ms",
+        "mean ms", "p50 ms", "p99 ms", "max ms", "Mpixels", "alloc MB"));
+    for (Stats stats : getOperations()) {
+      report.append(String.format("%-26s %8d %11.1f %9.2f %9.2f %9.2f %9.2f %10.1f %11.1f%n",
+          stats.getName(), stats.getCount(), stats.getTotalMillis(), stats.getMeanMillis(),
+          stats.getP50Millis(), stats.getP99Millis(), stats.getMaxMillis(),
+          stats.getPixels() / 1e6, stats.getAllocatedBytes() / 1e6));
+    }
+    return report.toString();
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  @Override
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @Override
+  public void reset() {
+    counters.clear();
+  }
+
+  /**
+   * Representing the running totals of one kind of operation, which threads add to at once.
+   */
+  private static final class Counters {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder pixels = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    private void add(long nanos, long pixels, long bytes) {
+      this.count.increment();
+      this.nanos.add(nanos);
+      this.maxNanos.accumulate(nanos);
+      this.pixels.add(pixels);
+      this.bytes.add(bytes);
+      this.histogram.incrementAndGet(bucket(nanos / 1000));
+    }
+
+    private Stats stats(String name) {
+      long[] buckets = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = histogram.get(i);
+        total += buckets[i];
+      }
+      // A bucket's upper end may be past the longest time actually taken
+      double max = maxNanos.get() / 1e6;
+      return new Stats(name, count.sum(), nanos.sum() / 1e6, max,
+          Math.min(max, percentile(buckets, total, 0.5)),
+          Math.min(max, percentile(buckets, total, 0.99)), pixels.sum(), bytes.sum());
+    }
+  }
+
+  // Returns the histogram bucket of the given latency in microseconds: which doubling it's in,
+  // and which step of that doubling
+  private static int bucket(long micros) {
+    if (micros < 1) {
+      return 0;
+    }
+    int doubling = 63 - Long.numberOfLeadingZeros(micros);
+    int step = doubling >= 2 ? (int) (micros >> (doubling - 2)) & (STEPS - 1)
+        : (int) (micros << (2 - doubling)) & (STEPS - 1);
+    return Math.min(BUCKETS - 1, doubling * STEPS + step);
+  }
+
+  // Returns the latency, in milliseconds, that the given fraction of the operations counted in
+  // the histogram took no longer than, as the upper end of its bucket
+  private static double percentile(long[] buckets, long total, double fraction) {
+    if (total == 0) {
+      return 0;
+    }
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets[i];
+      if (seen >= Math.ceil(total * fraction)) {
+        int doubling = i / STEPS;
+        int step = i % STEPS;
+        return Math.scalb((double) (STEPS + step + 1) / STEPS, doubling) / 1000;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Representing the metrics of one kind of operation at one moment.
+   */
+  public static final class Stats {
+    private final String name;
+    private final long count;
+    private final double totalMillis;
+    private final double maxMillis;
+    private final double p50Millis;
+    private final double p99Millis;
+    private final long pixels;
+    private final long allocatedBytes;
+
+    private Stats(String name, long count, double totalMillis, double maxMillis,
+        double p50Millis, double p99Millis, long pixels, long allocatedBytes) {
+      this.name = name;
+      this.count = count;
+      this.totalMillis = totalMillis;
+      this.maxMillis = maxMillis;
+      this.p50Millis = p50Millis;
+      this.p99Millis = p99Millis;
+      this.pixels = pixels;
+      this.allocatedBytes = allocatedBytes;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public double getTotalMillis() {
+      return totalMillis;
+    }
+
+    public double getMeanMillis() {
+      return count == 0 ? 0 : totalMillis / count;
+    }
+
+    /**
+     * Returns the median time taken, to within a quarter, from the histogram.
+     *
+     * @return the median, in milliseconds
+     */
+    public double getP50Millis() {
+      return p50Millis;
+    }
+
+    /**
+     * Returns the time that all but the slowest one in a hundred took no longer than, to within
+     * a quarter, from the histogram.
+     *
+     * @return the 99th percentile, in milliseconds
+     */
+    public double getP99Millis() {
+      return p99Millis;
+    }
+
+    public double getMaxMillis() {
+      return maxMillis;
+    }
+
+    /**
+     * Returns the pixels the operations covered. Loading and saving a project count none
+     * themselves, only through the loads and saves of its layers.
+     *
+     * @return the pixels covered
+     */
+    public long getPixels() {
+      return pixels;
+    }
+
+    /**
+     * Returns the bytes allocated by the threads that ran the operations, while they did. Work
+     * an operation hands to other threads, such as compressing a PNG in parallel, isn't
+     * counted.
+     *
+     * @return the bytes allocated
+     */
+    public long getAllocatedBytes() {
+      return allocatedBytes;
+    }
+  }
+}
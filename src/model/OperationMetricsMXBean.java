@@ -0,0 +1,38 @@
+package model;
+
+import java.util.List;
+
+/**
+ * Representing the management interface through which JMX clients, such as JConsole, read the
+ * per-operation metrics of {@link OperationMetrics}.
+ */
+public interface OperationMetricsMXBean {
+
+  /**
+   * Returns the metrics of every operation run so far, by name.
+   *
+   * @return the metrics, one entry per operation
+   */
+  List<OperationMetrics.Stats> getOperations();
+
+  /**
+   * Returns the metrics as plain text, one line per operation, busiest first.
+   *
+   * @return the report
+   */
+  String getReport();
+
+  boolean isEnabled();
+
+  /**
+   * Turns recording on or off. Operations run while it is off aren't counted.
+   *
+   * @param enabled   whether to record operations
+   */
+  void setEnabled(boolean enabled);
+
+  /**
+   * Forgets every operation recorded so far.
+   */
+  void reset();
+}
@@ -0,0 +1,241 @@
+package model;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Representing the operations queued on a layer whose model defers its work. Together the
+ * layers' queues form the model's operation graph: each is a chain from the layer's last
+ * evaluated image, and the composite and exports join the chains they read. Only the chains
+ * something reads are evaluated, so operations on a layer that is never exported never run.
+ *
+ * <p>Before a chain runs it is rewritten, where the result stays the same up to rounding, a few
+ * levels per channel at most:
+ * <ul>
+ *   <li>a downscale moves ahead of the whole-image transformations before it, so they run on
+ *   fewer pixels, as long as they can't push a channel out of range, since clamping doesn't
+ *   commute with interpolation.</li>
+ *   <li>consecutive transformations of the same region become one pass with the product of
+ *   their matrices, as long as the first can't push a channel out of range.</li>
+ * </ul>
+ * Filters, mosaics and region operations otherwise keep their order.
+ */
+final class PendingOperations {
+
+  private final List<Operation> operations;
+  // The size of the image once every queued operation has run
+  private int width;
+  private int height;
+
+  PendingOperations(int width, int height) {
+    this.operations = new ArrayList<Operation>();
+    this.width = width;
+    this.height = height;
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  int getHeight() {
+    return height;
+  }
+
+  int size() {
+    return operations.size();
+  }
+
+  // Queues a filter on the given region, or on the whole image if the region is null
+  void filter(FilterType filter, Rectangle region) throws IllegalArgumentException {
+    checkRegion(region);
+    operations.add(new Filter(filter, region));
+  }
+
+  // Queues a transformation on the given region, or on the whole image if the region is null
+  void transform(TransformationType transf, Rectangle region) throws IllegalArgumentException {
+    checkRegion(region);
+    operations.add(new Transform(transf, region));
+  }
+
+  void downscale(int widthNew, int heightNew) {
+    operations.add(new Downscale(widthNew, heightNew));
+    width = widthNew;
+    height = heightNew;
+  }
+
+  void mosaic(int seed) {
+    operations.add(new Mosaic(seed));
+  }
+
+  // Rejects a region that would miss the image as it will be when the operation runs, as
+  // applying the operation right away would
+  private void checkRegion(Rectangle region) throws IllegalArgumentException {
+    if (region != null && region.intersection(new Rectangle(0, 0, width, height)).isEmpty()) {
+      throw new IllegalArgumentException("Region lies outside of the image");
+    }
+  }
+
+  /**
+   * Rewrites the queued operations into the cheapest equivalent order, then runs them on the
+   * given image and empties the queue.
+   *
+   * @param image  the image to run the operations on
+   */
+  void runOn(SingleImageModel image) {
+    List<Operation> plan = optimize(operations);
+    operations.clear();
+    for (Operation operation : plan) {
+      operation.runOn(image);
+    }
+  }
+
+  // Returns the operations rewritten as described above, repeating until nothing changes
+  static List<Operation> optimize(List<Operation> queued) {
+    List<Operation> plan = new ArrayList<Operation>(queued);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 0; i + 1 < plan.size(); i++) {
+        Operation first = plan.get(i);
+        Operation second = plan.get(i + 1);
+        if (!(first instanceof Transform)) {
+          continue;
+        }
+        Transform transform = (Transform) first;
+        if (second instanceof Downscale && transform.region == null
+            && !transform.canClip()) {
+          plan.set(i, second);
+          plan.set(i + 1, first);
+          changed = true;
+        }
+        else if (second instanceof Transform && !transform.canClip()
+            && Objects.equals(transform.region, ((Transform) second).region)) {
+          plan.set(i, transform.then((Transform) second));
+          plan.remove(i + 1);
+          changed = true;
+        }
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Representing one queued operation.
+   */
+  abstract static class Operation {
+    abstract void runOn(SingleImageModel image);
+  }
+
+  static final class Filter extends Operation {
+    private final FilterType filter;
+    private final Rectangle region;
+
+    Filter(FilterType filter, Rectangle region) {
+      this.filter = filter;
+      this.region = region;
+    }
+
+    @Override
+    void runOn(SingleImageModel image) {
+      if (region == null) {
+        image.applyFilter(filter);
+      }
+      else {
+        image.applyFilter(filter, region);
+      }
+    }
+  }
+
+  /**
+   * Representing a color transformation by any matrix, so that merged transformations can be
+   * held as one.
+   */
+  static final class Transform extends Operation {
+    // The transformation queued, or null once merged with others into one matrix
+    private final TransformationType type;
+    private final double[][] matrix;
+    private final Rectangle region;
+
+    Transform(TransformationType type, Rectangle region) {
+      this(type, type.getArray(), region);
+    }
+
+    private Transform(TransformationType type, double[][] matrix, Rectangle region) {
+      this.type = type;
+      this.matrix = matrix;
+      this.region = region;
+    }
+
+    // Returns whether some in-range color could come out of range and be clamped: true
+    // unless every coefficient is non-negative and those of each channel sum to at most one
+    boolean canClip() {
+      for (int out = 0; out < 3; out++) {
+        double sum = 0;
+        for (int in = 0; in < 3; in++) {
+          if (matrix[in][out] < 0) {
+            return true;
+          }
+          sum += matrix[in][out];
+        }
+        if (sum > 1 + 1e-9) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // Returns the transformation applying this one and then the given one
+    Transform then(Transform next) {
+      double[][] product = new double[3][3];
+      for (int in = 0; in < 3; in++) {
+        for (int out = 0; out < 3; out++) {
+          for (int k = 0; k < 3; k++) {
+            product[in][out] += matrix[in][k] * next.matrix[k][out];
+          }
+        }
+      }
+      return new Transform(null, product, region);
+    }
+
+    // Runs the transformation, recorded under its own name unless it merges several
+    @Override
+    void runOn(SingleImageModel image) {
+      if (type != null) {
+        image.applyTransformation(type, region);
+      }
+      else {
+        image.applyColorMatrix("transformation.combined", matrix, region);
+      }
+    }
+  }
+
+  static final class Downscale extends Operation {
+    private final int width;
+    private final int height;
+
+    Downscale(int width, int height) {
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    void runOn(SingleImageModel image) {
+      image.applyDownscale(width, height);
+    }
+  }
+
+  static final class Mosaic extends Operation {
+    private final int seed;
+
+    Mosaic(int seed) {
+      this.seed = seed;
+    }
+
+    @Override
+    void runOn(SingleImageModel image) {
+      image.applyMosaic(seed);
+    }
+  }
+}
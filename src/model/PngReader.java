@@ -0,0 +1,307 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decodes a PNG file one row at a time, so that only the current and previous rows are held in
+ * memory. Only non-interlaced truecolor and palette images are handled; everything else is
+ * left to ImageIO.
+ */
+final class PngReader implements Closeable {
+
+  private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+  private static final int IHDR = 0x49484452;
+  private static final int PLTE = 0x504C5445;
+  private static final int IDAT = 0x49444154;
+
+  private final DataInputStream in;
+  private final int width;
+  private final int height;
+  private final int bitDepth;
+  private final int colorType;
+  private final int[] palette;
+  // Bytes per complete pixel, rounded up to one, as used by the row filters
+  private final int filterStride;
+  private final Inflater inflater;
+  private InputStream pixels;
+  private byte[] previous;
+  private byte[] current;
+
+  private PngReader(DataInputStream in, int width, int height, int bitDepth, int colorType,
+      int[] palette) {
+    this.in = in;
+    this.width = width;
+    this.height = height;
+    this.bitDepth = bitDepth;
+    this.colorType = colorType;
+    this.palette = palette;
+    int bitsPerPixel = bitDepth * channels(colorType);
+    this.filterStride = Math.max(1, bitsPerPixel / 8);
+    this.inflater = new Inflater();
+    int rowBytes = (width * bitsPerPixel + 7) / 8;
+    this.previous = new byte[rowBytes];
+    this.current = new byte[rowBytes];
+  }
+
+  /**
+   * Opens the given PNG file for row-by-row decoding.
+   *
+   * @param filename    the file to open
+   * @return a reader positioned at the first row, or null if this kind of PNG isn't supported
+   * @throws IOException if the file can't be read or isn't a PNG
+   */
+  static PngReader open(String filename) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(filename), 64 * 1024));
+    try {
+      if (in.readLong() != SIGNATURE) {
+        throw new IOException("Not a PNG file: " + filename);
+      }
+      int width = 0;
+      int height = 0;
+      int bitDepth = 0;
+      int colorType = 0;
+      int interlace = 0;
+      int[] palette = null;
+      while (true) {
+        int length = in.readInt();
+        int type = in.readInt();
+        if (type == IHDR) {
+          width = in.readInt();
+          height = in.readInt();
+          bitDepth = in.readUnsignedByte();
+          colorType = in.readUnsignedByte();
+          in.readUnsignedByte();
+          in.readUnsignedByte();
+          interlace = in.readUnsignedByte();
+          skipFully(in, length - 13 + 4);
+        }
+        else if (type == PLTE) {
+          palette = new int[256];
+          for (int i = 0; i < length / 3; i++) {
+            palette[i] = Kernels.rgb(in.readUnsignedByte(), in.readUnsignedByte(),
+                in.readUnsignedByte());
+          }
+          skipFully(in, length % 3 + 4);
+        }
+        else if (type == IDAT) {
+          boolean truecolor = (colorType == 2 || colorType == 6)
+              && (bitDepth == 8 || bitDepth == 16);
+          boolean indexed = colorType == 3 && palette != null;
+          if (interlace != 0 || !(truecolor || indexed)) {
+            in.close();
+            return null;
+          }
+          PngReader reader = new PngReader(in, width, height, bitDepth, colorType, palette);
+          reader.pixels = new InflaterInputStream(reader.new IdatStream(length),
+              reader.inflater, 64 * 1024);
+          return reader;
+        }
+        else {
+          skipFully(in, length + 4);
+        }
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  private static void skipFully(DataInputStream in, long n) throws IOException {
+    while (n > 0) {
+      int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+      if (skipped <= 0) {
+        throw new EOFException("Truncated PNG file");
+      }
+      n -= skipped;
+    }
+  }
+
+  private static int channels(int colorType) {
+    switch (colorType) {
+      case 2: return 3;
+      case 4: return 2;
+      case 6: return 4;
+      default: return 1;
+    }
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  int getHeight() {
+    return height;
+  }
+
+  /**
+   * Decodes the next row of the image into the given array as packed RGB ints. Any alpha is
+   * dropped, flattening the row, whereas the in-memory loader keeps it as premultiplied ARGB.
+   *
+   * @param dst       the array to write the row to
+   * @param offset    the offset in dst at which to start
+   * @throws IOException if the image data is truncated or corrupt
+   */
+  void readRow(int[] dst, int offset) throws IOException {
+    int filter = pixels.read();
+    if (filter < 0) {
+      throw new EOFException("Truncated PNG image data");
+    }
+    byte[] swap = previous;
+    previous = current;
+    current = swap;
+    int n = 0;
+    while (n < current.length) {
+      int read = pixels.read(current, n, current.length - n);
+      if (read < 0) {
+        throw new EOFException("Truncated PNG image data");
+      }
+      n += read;
+    }
+    unfilter(filter);
+    if (colorType == 3) {
+      int perByte = 8 / bitDepth;
+      int mask = (1 << bitDepth) - 1;
+      for (int x = 0; x < width; x++) {
+        int b = current[x / perByte] & 0xFF;
+        int shift = 8 - bitDepth * (x % perByte + 1);
+        dst[offset + x] = palette[(b >> shift) & mask];
+      }
+    }
+    else {
+      int bytesPerSample = bitDepth / 8;
+      int stride = channels(colorType) * bytesPerSample;
+      for (int x = 0; x < width; x++) {
+        int p = x * stride;
+        dst[offset + x] = Kernels.rgb(sample(p), sample(p + bytesPerSample),
+            sample(p + 2 * bytesPerSample));
+      }
+    }
+  }
+
+  // Reads one color sample, scaling 16-bit samples down to 8 bits
+  private int sample(int p) {
+    if (bitDepth == 8) {
+      return current[p] & 0xFF;
+    }
+    int v = ((current[p] & 0xFF) << 8) | (current[p + 1] & 0xFF);
+    return (v * 255 + 32767) / 65535;
+  }
+
+  // Reverses the PNG row filter in place, using the previous row where needed
+  private void unfilter(int filter) throws IOException {
+    byte[] cur = current;
+    byte[] prev = previous;
+    int bpp = filterStride;
+    switch (filter) {
+      case 0:
+        break;
+      case 1:
+        for (int i = bpp; i < cur.length; i++) {
+          cur[i] += cur[i - bpp];
+        }
+        break;
+      case 2:
+        for (int i = 0; i < cur.length; i++) {
+          cur[i] += prev[i];
+        }
+        break;
+      case 3:
+        for (int i = 0; i < cur.length; i++) {
+          int left = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+          cur[i] += (left + (prev[i] & 0xFF)) >> 1;
+        }
+        break;
+      case 4:
+        for (int i = 0; i < cur.length; i++) {
+          int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+          int b = prev[i] & 0xFF;
+          int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+          cur[i] += paeth(a, b, c);
+        }
+        break;
+      default:
+        throw new IOException("Invalid PNG row filter: " + filter);
+    }
+  }
+
+  /**
+   * Predicts a byte from its left, upper and upper-left neighbors the way the PNG Paeth filter
+   * does.
+   *
+   * @param a    the byte to the left
+   * @param b    the byte above
+   * @param c    the byte above and to the left
+   * @return the predicted byte
+   */
+  static int paeth(int a, int b, int c) {
+    int p = a + b - c;
+    int pa = Math.abs(p - a);
+    int pb = Math.abs(p - b);
+    int pc = Math.abs(p - c);
+    if (pa <= pb && pa <= pc) {
+      return a;
+    }
+    else if (pb <= pc) {
+      return b;
+    }
+    return c;
+  }
+
+  @Override
+  public void close() throws IOException {
+    inflater.end();
+    in.close();
+  }
+
+  /**
+   * Representing the image data of a PNG, which may be split across several IDAT chunks, as a
+   * single stream.
+   */
+  private final class IdatStream extends InputStream {
+    private int remaining;
+    private boolean done;
+
+    private IdatStream(int length) {
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      while (remaining == 0) {
+        if (done) {
+          return -1;
+        }
+        // Skips the CRC of the finished chunk and moves on if the next chunk is more data
+        skipFully(in, 4);
+        int length = in.readInt();
+        if (in.readInt() != IDAT) {
+          done = true;
+          return -1;
+        }
+        remaining = length;
+      }
+      int read = in.read(b, off, Math.min(len, remaining));
+      if (read < 0) {
+        throw new EOFException("Truncated PNG image data");
+      }
+      remaining -= read;
+      return read;
+    }
+  }
+}
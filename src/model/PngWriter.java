@@ -0,0 +1,373 @@
+package model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes an 8-bit RGB or RGBA PNG one row at a time, so that only the current and previous
+ * rows are held in memory. Every row is written with the Paeth filter. Whole images can
+ * instead be compressed on several threads at once through {@link #encode}.
+ */
+final class PngWriter implements Closeable {
+
+  private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+  private static final int IDAT_SIZE = 64 * 1024;
+  // Filtered bytes compressed by each task when encoding in parallel
+  private static final int BLOCK_SIZE = 128 * 1024;
+  // The most history deflate can refer back to, carried between blocks as a dictionary
+  private static final int WINDOW_SIZE = 32 * 1024;
+
+  private final DataOutputStream out;
+  private final int width;
+  private final int height;
+  private final boolean alpha;
+  private final Deflater deflater;
+  private final DeflaterOutputStream compressed;
+  private byte[] previous;
+  private byte[] current;
+  private final byte[] filtered;
+  private int rowsWritten;
+
+  /**
+   * Starts a PNG of the given size on the given stream by writing its signature and header.
+   *
+   * @param out       the stream to write to, closed along with this writer
+   * @param width     the width of the image
+   * @param height    the height of the image
+   * @param level     the deflate compression level, from 0 to 9
+   * @param alpha     whether rows are premultiplied ARGB, written with their transparency
+   * @throws IOException if the stream can't be written
+   */
+  PngWriter(OutputStream out, int width, int height, int level, boolean alpha)
+      throws IOException {
+    this.out = new DataOutputStream(out);
+    this.width = width;
+    this.height = height;
+    this.alpha = alpha;
+    int rowBytes = width * bytesPerPixel(alpha);
+    this.previous = new byte[rowBytes];
+    this.current = new byte[rowBytes];
+    this.filtered = new byte[rowBytes + 1];
+    writeHeader(this.out, width, height, alpha);
+    this.deflater = new Deflater(level);
+    this.compressed = new DeflaterOutputStream(new IdatStream(this.out), deflater, IDAT_SIZE);
+  }
+
+  PngWriter(OutputStream out, int width, int height) throws IOException {
+    this(out, width, height, Deflater.DEFAULT_COMPRESSION, false);
+  }
+
+  /**
+   * Filters and compresses the next row of the image.
+   *
+   * @param src       the array holding the row as packed RGB ints
+   * @param offset    the offset in src at which the row starts
+   * @throws IOException if the stream can't be written
+   */
+  void writeRow(int[] src, int offset) throws IOException {
+    if (rowsWritten == height) {
+      throw new IllegalStateException("All rows have already been written");
+    }
+    byte[] swap = previous;
+    previous = current;
+    current = swap;
+    toBytes(src, offset, width, current, alpha);
+    paethFilter(current, previous, filtered, bytesPerPixel(alpha));
+    compressed.write(filtered);
+    rowsWritten++;
+  }
+
+  /**
+   * Encodes a whole image as a PNG. When run in parallel the filtered rows are cut into blocks
+   * that are compressed at the same time, each primed with the end of the block before it, and
+   * joined into one zlib stream, so the result is as valid as a single-threaded encode. The
+   * blocks run on the shared {@link WorkPool}; an image of only one block is never split.
+   *
+   * @param data       the image as row-major packed RGB ints
+   * @param width      the width of the image
+   * @param height     the height of the image
+   * @param out        the stream to write to, closed once the image is written
+   * @param level      the deflate compression level, from 0 to 9
+   * @param parallel   whether to compress on several threads at once
+   * @param alpha      whether the image is premultiplied ARGB, written with its transparency
+   * @throws IOException if the stream can't be written
+   */
+  static void encode(int[] data, int width, int height, OutputStream out, int level,
+      boolean parallel, boolean alpha) throws IOException {
+    int rowBytes = width * bytesPerPixel(alpha) + 1;
+    int rowsPerBlock = Math.max(1, BLOCK_SIZE / rowBytes);
+    if (!parallel || height <= rowsPerBlock) {
+      try (PngWriter writer = new PngWriter(out, width, height, level, alpha)) {
+        for (int i = 0; i < height; i++) {
+          writer.writeRow(data, i * width);
+        }
+      }
+      return;
+    }
+
+    // Filters every block at once; each block only needs the raw row above its first row
+    List<CompletableFuture<byte[]>> filteredBlocks = new ArrayList<CompletableFuture<byte[]>>();
+    for (int first = 0; first < height; first += rowsPerBlock) {
+      int start = first;
+      int rows = Math.min(rowsPerBlock, height - first);
+      filteredBlocks.add(CompletableFuture.supplyAsync(() -> {
+        WorkUnitEvent event = WorkUnitEvent.start();
+        byte[] filtered = filterRows(data, width, start, rows, alpha);
+        event.finish("png.filter", null, 0, start, width, rows);
+        return filtered;
+      }, WorkPool.pool()));
+    }
+    // Compresses every block once it and the block before it have been filtered
+    List<CompletableFuture<byte[]>> compressedBlocks = new ArrayList<CompletableFuture<byte[]>>();
+    for (int i = 0; i < filteredBlocks.size(); i++) {
+      boolean last = i == filteredBlocks.size() - 1;
+      int start = i * rowsPerBlock;
+      int rows = Math.min(rowsPerBlock, height - start);
+      CompletableFuture<byte[]> block = filteredBlocks.get(i);
+      CompletableFuture<byte[]> before = i == 0 ? CompletableFuture.completedFuture(null)
+          : filteredBlocks.get(i - 1);
+      compressedBlocks.add(block.thenCombineAsync(before, (input, dictionary) -> {
+        WorkUnitEvent event = WorkUnitEvent.start();
+        byte[] compressed = deflateBlock(input, dictionary, level, last);
+        event.finish("png.deflate", null, 0, start, width, rows);
+        return compressed;
+      }, WorkPool.pool()));
+    }
+
+    try (DataOutputStream dout = new DataOutputStream(out)) {
+      writeHeader(dout, width, height, alpha);
+      IdatStream idat = new IdatStream(dout);
+      idat.write(0x78);
+      idat.write(level <= 1 ? 0x01 : level <= 5 ? 0x5E : level == 6 ? 0x9C : 0xDA);
+      Adler32 adler = new Adler32();
+      for (int i = 0; i < compressedBlocks.size(); i++) {
+        adler.update(filteredBlocks.get(i).join());
+        idat.write(compressedBlocks.get(i).join());
+      }
+      int checksum = (int) adler.getValue();
+      idat.write(new byte[] {(byte) (checksum >>> 24), (byte) (checksum >>> 16),
+          (byte) (checksum >>> 8), (byte) checksum});
+      idat.flush();
+      writeChunk(dout, "IEND", new byte[0], 0, 0);
+    }
+    catch (CompletionException e) {
+      throw new IOException("Cannot encode PNG: " + e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  // Filters the given rows of an image into one array, filter type bytes included
+  private static byte[] filterRows(int[] data, int width, int firstRow, int rows,
+      boolean alpha) {
+    int bpp = bytesPerPixel(alpha);
+    int rowBytes = width * bpp + 1;
+    byte[] result = new byte[rows * rowBytes];
+    byte[] previous = new byte[width * bpp];
+    byte[] current = new byte[width * bpp];
+    byte[] filtered = new byte[rowBytes];
+    if (firstRow > 0) {
+      toBytes(data, (firstRow - 1) * width, width, previous, alpha);
+    }
+    for (int i = 0; i < rows; i++) {
+      toBytes(data, (firstRow + i) * width, width, current, alpha);
+      paethFilter(current, previous, filtered, bpp);
+      System.arraycopy(filtered, 0, result, i * rowBytes, rowBytes);
+      byte[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return result;
+  }
+
+  private static int bytesPerPixel(boolean alpha) {
+    return alpha ? 4 : 3;
+  }
+
+  // Unpacks a row of RGB ints, or premultiplied ARGB ints, into RGB or RGBA bytes
+  private static void toBytes(int[] src, int offset, int width, byte[] dst, boolean alpha) {
+    if (alpha) {
+      for (int x = 0; x < width; x++) {
+        int argb = Kernels.unpremultiply(src[offset + x]);
+        dst[4 * x] = (byte) (argb >> 16);
+        dst[4 * x + 1] = (byte) (argb >> 8);
+        dst[4 * x + 2] = (byte) argb;
+        dst[4 * x + 3] = (byte) (argb >>> 24);
+      }
+      return;
+    }
+    for (int x = 0; x < width; x++) {
+      int rgb = src[offset + x];
+      dst[3 * x] = (byte) (rgb >> 16);
+      dst[3 * x + 1] = (byte) (rgb >> 8);
+      dst[3 * x + 2] = (byte) rgb;
+    }
+  }
+
+  // Compresses one block as raw deflate data that ends on a byte boundary, primed with the
+  // end of the previous block so matches can reach across the boundary
+  private static byte[] deflateBlock(byte[] input, byte[] previous, int level, boolean last) {
+    Deflater deflater = new Deflater(level, true);
+    try {
+      if (previous != null) {
+        int length = Math.min(WINDOW_SIZE, previous.length);
+        deflater.setDictionary(previous, previous.length - length, length);
+      }
+      deflater.setInput(input);
+      if (last) {
+        deflater.finish();
+      }
+      ByteArrayOutputStream result = new ByteArrayOutputStream(input.length / 2 + 64);
+      byte[] buffer = new byte[64 * 1024];
+      while (true) {
+        int n = last ? deflater.deflate(buffer)
+            : deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        result.write(buffer, 0, n);
+        if (last ? deflater.finished() : n < buffer.length && deflater.needsInput()) {
+          return result.toByteArray();
+        }
+      }
+    }
+    finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Writes a row filtered with the Paeth filter, preceded by its filter type byte.
+   *
+   * @param cur    the raw bytes of the row
+   * @param prev   the raw bytes of the row above, all zero for the first row
+   * @param dst    the array to write the filter type and filtered bytes to
+   * @param bpp    the number of bytes per pixel
+   */
+  static void paethFilter(byte[] cur, byte[] prev, byte[] dst, int bpp) {
+    dst[0] = 4;
+    for (int i = 0; i < cur.length; i++) {
+      int a = i >= bpp ? cur[i - bpp] & 0xFF : 0;
+      int b = prev[i] & 0xFF;
+      int c = i >= bpp ? prev[i - bpp] & 0xFF : 0;
+      dst[i + 1] = (byte) (cur[i] - PngReader.paeth(a, b, c));
+    }
+  }
+
+  /**
+   * Finishes the image data and writes the end of the PNG.
+   *
+   * @throws IOException if the stream can't be written or rows are missing
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (rowsWritten != height) {
+        throw new IOException("Only " + rowsWritten + " of " + height + " rows were written");
+      }
+      compressed.finish();
+      compressed.flush();
+      writeChunk(out, "IEND", new byte[0], 0, 0);
+      out.flush();
+    }
+    finally {
+      deflater.end();
+      out.close();
+    }
+  }
+
+  // Writes the PNG signature and the header of an 8-bit RGB or RGBA image
+  private static void writeHeader(DataOutputStream out, int width, int height, boolean alpha)
+      throws IOException {
+    out.writeLong(SIGNATURE);
+    byte[] header = new byte[13];
+    writeInt(header, 0, width);
+    writeInt(header, 4, height);
+    header[8] = 8;
+    header[9] = (byte) (alpha ? 6 : 2);
+    writeChunk(out, "IHDR", header, 0, header.length);
+  }
+
+  private static void writeInt(byte[] b, int off, int v) {
+    b[off] = (byte) (v >>> 24);
+    b[off + 1] = (byte) (v >>> 16);
+    b[off + 2] = (byte) (v >>> 8);
+    b[off + 3] = (byte) v;
+  }
+
+  /**
+   * Writes one PNG chunk with its length and checksum.
+   *
+   * @param out     the stream to write to
+   * @param type    the four-letter chunk type
+   * @param data    the array holding the chunk data
+   * @param off     the offset of the data in the array
+   * @param len     the length of the data
+   * @throws IOException if the stream can't be written
+   */
+  static void writeChunk(DataOutputStream out, String type, byte[] data, int off, int len)
+      throws IOException {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, off, len);
+    out.writeInt(len);
+    out.write(typeBytes);
+    out.write(data, off, len);
+    out.writeInt((int) crc.getValue());
+  }
+
+  /**
+   * Representing the compressed image data, cut into IDAT chunks as it's written.
+   */
+  private static final class IdatStream extends OutputStream {
+    private final DataOutputStream out;
+    private final byte[] buffer = new byte[IDAT_SIZE];
+    private int count;
+
+    private IdatStream(DataOutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (count == buffer.length) {
+        flushChunk();
+      }
+      buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buffer.length) {
+          flushChunk();
+        }
+        int n = Math.min(len, buffer.length - count);
+        System.arraycopy(b, off, buffer, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      flushChunk();
+    }
+
+    private void flushChunk() throws IOException {
+      if (count > 0) {
+        writeChunk(out, "IDAT", buffer, 0, count);
+        count = 0;
+      }
+    }
+  }
+}
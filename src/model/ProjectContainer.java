@@ -0,0 +1,359 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes layered projects as a single binary file. The file starts with a header,
+ * followed by an index describing every layer and then one chunk of pixel data per layer:
+ *
+ * <pre>
+ *   header:  magic "APEP", format version (int), layer count (int)
+ *   index:   per layer, name length (short), name (UTF-8), visible (byte), width (int),
+ *            height (int), max value (int), codec (byte), alpha (byte), blend mode (byte),
+ *            chunk offset (long), chunk length (long)
+ *   chunks:  packed RGB ints, or premultiplied ARGB ints if alpha is set, stored raw or
+ *            deflated
+ * </pre>
+ *
+ * <p>Version 1 containers, which have no alpha or blend mode bytes, can still be read.
+ *
+ * <p>The header and index are read when a project is opened; chunks are memory-mapped then
+ * and only decoded the first time their layer is used. Opening a project checks that its index
+ * and every chunk fit in the file and describe a valid image; deflated pixel data that is
+ * corrupt is only found when decoded. Before a container is replaced, layers still mapping it
+ * copy their chunks out with {@link Chunk#detachFrom}, as some systems won't replace a file
+ * that is mapped.
+ */
+final class ProjectContainer {
+
+  private static final int MAGIC = 0x41504550;
+  private static final int FORMAT_VERSION = 2;
+  private static final int HEADER_SIZE = 12;
+  // Fixed part of an index entry: everything except the name bytes
+  private static final int ENTRY_SIZE = 2 + 1 + 4 + 4 + 4 + 1 + 1 + 1 + 8 + 8;
+  // Fixed part of a version 1 index entry, which lacks the alpha and blend mode bytes
+  private static final int ENTRY_SIZE_V1 = ENTRY_SIZE - 2;
+
+  private static final byte CODEC_RAW = 0;
+  private static final byte CODEC_DEFLATE = 1;
+
+  private ProjectContainer() {
+  }
+
+  /**
+   * Returns whether the given file starts like a project container.
+   *
+   * @param file    the file to check
+   * @return true if the file is a project container
+   * @throws IOException if the file can't be read
+   */
+  static boolean isContainer(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer magic = ByteBuffer.allocate(4);
+      while (magic.hasRemaining() && channel.read(magic) >= 0) {
+        // Keeps reading until the magic number is complete or the file ends
+      }
+      return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+    }
+  }
+
+  /**
+   * Opens the project container at the given path. Only the header and index are read; each
+   * layer keeps a mapping of its chunk and decodes it on first access.
+   *
+   * @param file    the container to open
+   * @return the layers of the project, in order
+   * @throws IOException if the file can't be read or isn't a valid container
+   */
+  static List<Layer> read(Path file) throws IOException {
+    List<Layer> layers = new ArrayList<Layer>();
+    Path source = file.toAbsolutePath().normalize();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      // The header and index are read in order through one buffer; the channel is closed
+      // rather than the stream
+      DataInputStream header = new DataInputStream(new BufferedInputStream(
+          Channels.newInputStream(channel), 64 * 1024));
+      if (size < HEADER_SIZE || header.readInt() != MAGIC) {
+        throw new IOException("Not a layered project container: " + file);
+      }
+      int version = header.readInt();
+      if (version != FORMAT_VERSION && version != 1) {
+        throw new IOException("Unsupported project container version: " + version);
+      }
+      int entrySize = version == 1 ? ENTRY_SIZE_V1 : ENTRY_SIZE;
+      int count = header.readInt();
+      if (count < 0) {
+        throw new IOException("Corrupt project container: " + file);
+      }
+      long position = HEADER_SIZE;
+      for (int i = 0; i < count; i++) {
+        if (position + 2 > size) {
+          throw new IOException("Project container is truncated: " + file);
+        }
+        int nameSize = header.readUnsignedShort();
+        if (position + entrySize + nameSize > size) {
+          throw new IOException("Project container is truncated: " + file);
+        }
+        byte[] nameBytes = new byte[nameSize];
+        header.readFully(nameBytes);
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+        boolean visible = header.readByte() != 0;
+        int width = header.readInt();
+        int height = header.readInt();
+        int maxValue = header.readInt();
+        byte codec = header.readByte();
+        boolean alpha = false;
+        BlendMode blend = BlendMode.OVER;
+        if (version > 1) {
+          alpha = header.readByte() != 0;
+          int mode = header.readByte();
+          if (mode < 0 || mode >= BlendMode.values().length) {
+            throw new IOException("Layer " + name + " has an unknown blend mode");
+          }
+          blend = BlendMode.values()[mode];
+        }
+        long offset = header.readLong();
+        long length = header.readLong();
+        if (offset < 0 || length < 0 || offset + length > size) {
+          throw new IOException("Layer " + name + " points outside of the project container");
+        }
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE / 4) {
+          throw new IOException("Layer " + name + " has an invalid size");
+        }
+        if (codec != CODEC_RAW && codec != CODEC_DEFLATE) {
+          throw new IOException("Layer " + name + " has an unknown codec: " + codec);
+        }
+        if (codec == CODEC_RAW && length != 4L * width * height) {
+          throw new IOException("Layer " + name + " has corrupt pixel data");
+        }
+        Chunk chunk = new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, offset, length),
+            codec, width, height, maxValue, alpha, source);
+        Layer layer = new Layer(chunk, name, visible);
+        layer.setBlendMode(blend);
+        layers.add(layer);
+        position += entrySize + nameSize;
+      }
+    }
+    return layers;
+  }
+
+  /**
+   * Writes the given layers as a project container. Layers that were opened from a container
+   * and never touched have their chunk copied over as-is; every other layer is encoded,
+   * concurrently, before being written in order.
+   *
+   * @param layers    the layers to write, none of which may be empty
+   * @param file      the file to write to
+   * @throws IOException if the file can't be written
+   */
+  static void write(List<Layer> layers, Path file) throws IOException {
+    List<byte[]> names = new ArrayList<byte[]>();
+    long indexSize = 0;
+    for (Layer layer : layers) {
+      byte[] name = layer.getName().getBytes(StandardCharsets.UTF_8);
+      if (name.length > 0xFFFF) {
+        throw new IllegalArgumentException("Layer name is too long: " + layer.getName());
+      }
+      names.add(name);
+      indexSize += ENTRY_SIZE + name.length;
+    }
+
+    int threads = Math.max(1, Math.min(layers.size(), Runtime.getRuntime().availableProcessors()));
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      List<Future<Chunk>> pending = new ArrayList<Future<Chunk>>();
+      for (Layer layer : layers) {
+        pending.add(executor.submit(layer::toChunk));
+      }
+      ByteBuffer index = ByteBuffer.allocate((int) (HEADER_SIZE + indexSize));
+      index.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(layers.size());
+      long offset = HEADER_SIZE + indexSize;
+      for (int i = 0; i < layers.size(); i++) {
+        Chunk chunk = pending.get(i).get();
+        ByteBuffer bytes = chunk.bytes();
+        long length = bytes.remaining();
+        while (bytes.hasRemaining()) {
+          channel.write(bytes, offset + length - bytes.remaining());
+        }
+        index.putShort((short) names.get(i).length).put(names.get(i))
+            .put((byte) (layers.get(i).isVisible() ? 1 : 0))
+            .putInt(chunk.width).putInt(chunk.height).putInt(chunk.maxValue)
+            .put(chunk.codec).put((byte) (chunk.alpha ? 1 : 0))
+            .put((byte) layers.get(i).getBlendMode().ordinal()).putLong(offset).putLong(length);
+        offset += length;
+      }
+      index.flip();
+      long position = 0;
+      while (index.hasRemaining()) {
+        position += channel.write(index, position);
+      }
+      channel.force(true);
+    }
+    catch (ExecutionException e) {
+      throw new IOException("Cannot encode layer: " + e.getCause().getMessage(), e.getCause());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while saving layered project");
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Encodes the given image as a chunk, deflated at the fastest level unless that doesn't make
+   * it any smaller.
+   *
+   * @param image    the image to encode
+   * @return a chunk holding the image's pixels
+   */
+  static Chunk encode(SingleImageModel image) {
+    int[] data = image.getData();
+    ByteBuffer raw = ByteBuffer.allocate(data.length * 4);
+    raw.asIntBuffer().put(data);
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(raw.array());
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(raw.capacity() / 4);
+      byte[] buffer = new byte[64 * 1024];
+      while (!deflater.finished() && out.size() < raw.capacity()) {
+        int n = deflater.deflate(buffer);
+        out.write(buffer, 0, n);
+      }
+      if (deflater.finished() && out.size() < raw.capacity()) {
+        return new Chunk(ByteBuffer.wrap(out.toByteArray()), CODEC_DEFLATE, image.getWidth(),
+            image.getHeight(), image.getMaxValue(), image.hasAlpha(), null);
+      }
+    }
+    finally {
+      deflater.end();
+    }
+    return new Chunk(raw, CODEC_RAW, image.getWidth(), image.getHeight(), image.getMaxValue(),
+        image.hasAlpha(), null);
+  }
+
+  /**
+   * Representing one layer's pixel data as stored in a project container.
+   */
+  static final class Chunk {
+    private final ByteBuffer bytes;
+    private final byte codec;
+    private final int width;
+    private final int height;
+    private final int maxValue;
+    private final boolean alpha;
+    // The container the bytes are mapped from, or null if they're held in memory
+    private final Path source;
+
+    private Chunk(ByteBuffer bytes, byte codec, int width, int height, int maxValue,
+        boolean alpha, Path source) {
+      this.bytes = bytes;
+      this.codec = codec;
+      this.width = width;
+      this.height = height;
+      this.maxValue = maxValue;
+      this.alpha = alpha;
+      this.source = source;
+    }
+
+    int getWidth() {
+      return width;
+    }
+
+    int getHeight() {
+      return height;
+    }
+
+    // Returns a fresh view of this chunk's stored bytes
+    private ByteBuffer bytes() {
+      return bytes.duplicate();
+    }
+
+    /**
+     * Returns this chunk with its stored bytes copied into memory if they're mapped from the
+     * given container, still not decoded, or this chunk otherwise.
+     *
+     * @param file    the container about to be replaced
+     * @return a chunk that doesn't map the given file
+     */
+    Chunk detachFrom(Path file) {
+      if (source == null || !source.equals(file.toAbsolutePath().normalize())) {
+        return this;
+      }
+      ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+      copy.put(bytes()).flip();
+      return new Chunk(copy, codec, width, height, maxValue, alpha, null);
+    }
+
+    /**
+     * Decodes this chunk into an image.
+     *
+     * @return the image stored in this chunk
+     * @throws IllegalStateException if the stored data is corrupt
+     */
+    SingleImageModel decode() throws IllegalStateException {
+      CodecEvent.Decode event = CodecEvent.startDecode();
+      int[] data = new int[width * height];
+      if (codec == CODEC_RAW) {
+        if (bytes.remaining() != data.length * 4) {
+          throw new IllegalStateException("Corrupt layer data");
+        }
+        bytes().asIntBuffer().get(data);
+      }
+      else if (codec == CODEC_DEFLATE) {
+        byte[] raw = new byte[data.length * 4];
+        Inflater inflater = new Inflater();
+        try {
+          inflater.setInput(bytes());
+          int n = 0;
+          while (n < raw.length && !inflater.finished()) {
+            int read = inflater.inflate(raw, n, raw.length - n);
+            if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+              break;
+            }
+            n += read;
+          }
+          if (n != raw.length) {
+            throw new IllegalStateException("Corrupt layer data");
+          }
+        }
+        catch (DataFormatException e) {
+          throw new IllegalStateException("Corrupt layer data");
+        }
+        finally {
+          inflater.end();
+        }
+        ByteBuffer.wrap(raw).asIntBuffer().get(data);
+      }
+      else {
+        throw new IllegalStateException("Unknown layer codec: " + codec);
+      }
+      SingleImageModel image = new SingleImageModel(width, height, maxValue, data, alpha);
+      CodecEvent.finish(event, null, codec == CODEC_RAW ? "project.raw" : "project.deflate",
+          image);
+      return image;
+    }
+  }
+}
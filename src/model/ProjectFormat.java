@@ -0,0 +1,23 @@
+package model;
+
+/**
+ * Representing the formats a layered project can be saved in.
+ */
+public enum ProjectFormat {
+  TEXT, BINARY;
+
+  /**
+   * Returns the name of the project file for the given reference name in this format.
+   *
+   * @param referenceName    the name the project is being saved under
+   * @return the name of the file holding the project
+   */
+  public String projectFile(String referenceName) {
+    switch (this) {
+      case TEXT: return referenceName + "LayeredProject.txt";
+      case BINARY: return referenceName + "LayeredProject.bin";
+      default: throw new IllegalArgumentException("Invalid ProjectFormat");
+    }
+  }
+
+}
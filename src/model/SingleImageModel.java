@@ -2,31 +2,164 @@ package model;
 
 import java.awt.Color;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Random;
-import javax.imageio.ImageIO;
 
 /**
  * Representing an array-based implementation of ImageModel.
+ *
+ * <p>Operations on an image run one at a time, each building the next version of its pixels
+ * and then publishing it as an {@link ImageSnapshot}. Every method that reads the image reads
+ * the latest snapshot, without waiting for an operation in progress, so a display or export
+ * on another thread always sees a whole version.
  */
 public class SingleImageModel implements ImageModel {
 
+  // How many versions back the changed regions are remembered
+  private static final int CHANGE_LOG_SIZE = 16;
+
   private int width;
   private int height;
   private final int maxValue;
-  private Pixel[][] pixelGrid;
+  // Whether the pixels carry transparency, packed as premultiplied 0xAARRGGBB
+  private final boolean alpha;
+  // Packed pixel values in row-major order. Operations never write into this array; they
+  // build a new one and swap it in, so snapshots and images loaded from the cache can share
+  // it. This and the other mutable fields are only used by operations, under this image's
+  // lock; everything else reads the published snapshot.
+  private int[] data;
+  private long version;
+  // The regions changed by the most recent versions, indexed by version
+  private final Rectangle[] changes = new Rectangle[CHANGE_LOG_SIZE];
+  private volatile ImageSnapshot snapshot;
 
   protected SingleImageModel(int width, int height, int maxValue, Pixel[][] pixelGrid) {
+    this(width, height, maxValue, pack(width, height, pixelGrid));
+  }
+
+  protected SingleImageModel(int width, int height, int maxValue, int[] data) {
+    this(width, height, maxValue, data, false);
+  }
+
+  protected SingleImageModel(int width, int height, int maxValue, int[] data, boolean alpha) {
+    if (data.length != width * height) {
+      throw new IllegalArgumentException("Pixel data does not match the image dimensions");
+    }
     this.width = width;
     this.height = height;
     this.maxValue = maxValue;
-    this.pixelGrid = pixelGrid;
+    this.alpha = alpha;
+    this.data = data;
+    this.version = 0;
+    publish();
+  }
+
+  // Packs a column-major grid of pixels into a row-major array of RGB ints
+  private static int[] pack(int width, int height, Pixel[][] pixelGrid) {
+    int[] packed = new int[width * height];
+    for (int i = 0; i < height; i++) {
+      for (int j = 0; j < width; j++) {
+        Pixel p = pixelGrid[j][i];
+        packed[i * width + j] = Kernels.rgb(p.getRed(), p.getGreen(), p.getBlue());
+      }
+    }
+    return packed;
+  }
+
+  // Swaps in a freshly computed pixel buffer, leaving any previously exported images untouched
+  private void replaceData(int[] newData, int newWidth, int newHeight) {
+    replaceData(newData, newWidth, newHeight, null);
+  }
+
+  // Swaps in a freshly computed pixel buffer that only differs within the given region, or
+  // anywhere if the region is null
+  private void replaceData(int[] newData, int newWidth, int newHeight, Rectangle changed) {
+    boolean resized = newWidth != width || newHeight != height;
+    this.data = newData;
+    this.width = newWidth;
+    this.height = newHeight;
+    this.version++;
+    changes[(int) (version % CHANGE_LOG_SIZE)] = changed == null || resized
+        ? new Rectangle(0, 0, newWidth, newHeight) : new Rectangle(changed);
+    publish();
+  }
+
+  // Makes the current version visible to readers
+  private void publish() {
+    snapshot = new ImageSnapshot(width, height, maxValue, alpha, data, version, changes.clone());
+  }
+
+  /**
+   * Returns the latest version of this image, which stays the same however this image changes
+   * afterwards. Never waits for an operation in progress.
+   *
+   * @return the latest snapshot of this image
+   */
+  public ImageSnapshot snapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Returns the part of this image that changed since the given version. If the image changed
+   * size, or the version is too old to be remembered, the whole image is returned.
+   *
+   * @param since   a version previously returned by {@link #getVersion()}
+   * @return the changed region, empty if nothing changed
+   */
+  public Rectangle getChangedRegion(long since) {
+    return snapshot.getChangedRegion(since);
+  }
+
+  // Swaps back in pixels this image held before, as recorded by an undo history
+  synchronized void restore(int[] oldData, int oldWidth, int oldHeight) {
+    replaceData(oldData, oldWidth, oldHeight);
+  }
+
+  /**
+   * Returns the width of this image.
+   *
+   * @return the width in pixels
+   */
+  public int getWidth() {
+    return snapshot.getWidth();
+  }
+
+  /**
+   * Returns the height of this image.
+   *
+   * @return the height in pixels
+   */
+  public int getHeight() {
+    return snapshot.getHeight();
+  }
+
+  // Returns the largest value a color channel of this image may hold
+  int getMaxValue() {
+    return maxValue;
+  }
+
+  // Returns whether the pixel buffer holds premultiplied ARGB rather than opaque RGB
+  boolean hasAlpha() {
+    return alpha;
+  }
+
+  // Returns the packed pixel buffer of the current version; callers must not modify it
+  int[] getData() {
+    return snapshot.getData();
+  }
+
+  /**
+   * Returns a number that changes every time the pixels of this image change.
+   *
+   * @return the current version of this image
+   */
+  public long getVersion() {
+    return snapshot.getVersion();
   }
 
   /**
@@ -37,9 +170,7 @@ public class SingleImageModel implements ImageModel {
    * @return
    */
   public Color getColorAt(int x, int y) {
-    Pixel nonCopy = pixelGrid[x][y];
-    // Pixel's Color field is final so this may not be necessary
-    return new Color(nonCopy.getRed(), nonCopy.getGreen(), nonCopy.getBlue());
+    return snapshot.getColorAt(x, y);
   }
 
   /**
@@ -47,57 +178,38 @@ public class SingleImageModel implements ImageModel {
    *
    * @param filter FilterType representing the specific type of filter to be applied
    */
-  public void applyFilter(FilterType filter) {
-    // Initializes an array for each of the 3 color channels
-    int[][] oldReds = new int[width][height];
-    int[][] oldGreens = new int[width][height];
-    int[][] oldBlues = new int[width][height];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        oldReds[j][i] = pixelGrid[j][i].getRed();
-        oldGreens[j][i] = pixelGrid[j][i].getGreen();
-        oldBlues[j][i] = pixelGrid[j][i].getBlue();
-      }
-    }
-    // Applies the kernel to each individual channel
-    int[][] newReds = applyKernel(filter, oldReds);
-    int[][] newGreens = applyKernel(filter, oldGreens);
-    int[][] newBlues = applyKernel(filter, oldBlues);
-    // Mixes the channels back into one uniform set of colors
-    Pixel[][] transformedPixels = new Pixel[width][height];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        transformedPixels[j][i] = new Pixel(new Color(newReds[j][i],
-            newGreens[j][i], newBlues[j][i]), new Point(j, i));
-      }
-    }
-    this.pixelGrid = transformedPixels;
+  public synchronized void applyFilter(FilterType filter) {
+    applyFilter(filter, new Rectangle(0, 0, width, height));
   }
 
-  // Applies a kernel to all pixels within a channel
-  private int[][] applyKernel(FilterType filter, int[][] oldValues) {
+  /**
+   * Applies a filter to part of this image, reading only the pixels the filter covers around
+   * it.
+   *
+   * @param filter FilterType representing the specific type of filter to be applied
+   * @param region the part of the image to change, clipped to the image
+   * @throws IllegalArgumentException if the region lies outside of the image
+   */
+  public synchronized void applyFilter(FilterType filter, Rectangle region)
+      throws IllegalArgumentException {
+    OperationMetrics.Sample sample = OperationMetrics.start();
+    Rectangle r = clip(region);
     double[][] fArray = filter.getArray();
     int n = fArray.length;
     int loopn = (n - 1) / 2;
-    // Initializes a new array to later return
-    int[][] newValues = new int[width][height];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        // Accumulator for each new position
-        double acc = 0;
-        for (int k = 0; k < n; k++) {
-          for (int l = 0; l < n; l++) {
-            // Math allows us to overlay each element and add the result
-            if (l - loopn + j >= 0 && l - loopn + j <= width - 1
-                && k - loopn + i >= 0 && k - loopn + i <= height - 1) {
-              acc += oldValues[l - loopn + j][k - loopn + i] * fArray[l][k];
-            }
-          }
-        }
-        newValues[j][i] = minMaxRound(acc);
+    int[] rowOffsets = new int[n];
+    int[] filtered = startCopy(r);
+    for (int i = r.y; i < r.y + r.height; i++) {
+      // Finds the rows the kernel covers, marking those outside of the image
+      for (int k = 0; k < n; k++) {
+        int y = k - loopn + i;
+        rowOffsets[k] = y >= 0 && y <= height - 1 ? y * width : -1;
       }
+      Kernels.filterRow(fArray, maxValue, alpha, data, rowOffsets, width, r.x, r.x + r.width,
+          filtered, i * width);
     }
-    return newValues;
+    replaceData(filtered, width, height, r);
+    sample.stop("filter." + filter.name().toLowerCase(), (long) r.width * r.height);
   }
 
   /**
@@ -106,27 +218,57 @@ public class SingleImageModel implements ImageModel {
    * @param transf TransformationType representing the specific type of transformation to be
    *               applied
    */
-  public void applyTransformation(TransformationType transf) {
-    double[][] tArray = transf.getArray();
-    Pixel[][] transformedPixels = new Pixel[width][height];
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        // Get each of the old color values for a given index
-        int oldR = pixelGrid[j][i].getRed();
-        int oldG = pixelGrid[j][i].getGreen();
-        int oldB = pixelGrid[j][i].getBlue();
-        // Calculate the new values using matrix multiplication
-        double dR = oldR * tArray[0][0] + oldG * tArray[1][0] + oldB * tArray[2][0];
-        double dG = oldR * tArray[0][1] + oldG * tArray[1][1] + oldB * tArray[2][1];
-        double dB = oldR * tArray[0][2] + oldG * tArray[1][2] + oldB * tArray[2][2];
-        int r = minMaxRound(dR);
-        int g = minMaxRound(dG);
-        int b = minMaxRound(dB);
-        // Use the new colors
-        transformedPixels[j][i] = new Pixel(new Color(r, g, b), new Point(j, i));
+  public synchronized void applyTransformation(TransformationType transf) {
+    applyTransformation(transf, new Rectangle(0, 0, width, height));
+  }
+
+  /**
+   * Applies a color transformation to part of this image.
+   *
+   * @param transf TransformationType representing the specific type of transformation to be
+   *               applied
+   * @param region the part of the image to change, clipped to the image
+   * @throws IllegalArgumentException if the region lies outside of the image
+   */
+  public void applyTransformation(TransformationType transf, Rectangle region)
+      throws IllegalArgumentException {
+    applyColorMatrix("transformation." + transf.name().toLowerCase(), transf.getArray(),
+        region);
+  }
+
+  // Applies a color transformation by any matrix to the given region, or to the whole image
+  // if the region is null, recording it under the given name
+  synchronized void applyColorMatrix(String operation, double[][] tArray, Rectangle region)
+      throws IllegalArgumentException {
+    OperationMetrics.Sample sample = OperationMetrics.start();
+    Rectangle r = region == null ? new Rectangle(0, 0, width, height) : clip(region);
+    int[] transformed = startCopy(r);
+    for (int y = r.y; y < r.y + r.height; y++) {
+      for (int i = y * width + r.x; i < y * width + r.x + r.width; i++) {
+        transformed[i] = alpha ? Kernels.transformPremultiplied(tArray, maxValue, data[i])
+            : Kernels.transform(tArray, maxValue, data[i]);
       }
     }
-    this.pixelGrid = transformedPixels;
+    replaceData(transformed, width, height, r);
+    sample.stop(operation, (long) r.width * r.height);
+  }
+
+  // Clips a region to this image
+  private Rectangle clip(Rectangle region) throws IllegalArgumentException {
+    Rectangle r = region.intersection(new Rectangle(0, 0, width, height));
+    if (r.isEmpty()) {
+      throw new IllegalArgumentException("Region lies outside of the image");
+    }
+    return r;
+  }
+
+  // Returns the array an operation on the given region writes to: a copy of the current
+  // pixels, so those outside the region stay the same, unless the region is the whole image
+  private int[] startCopy(Rectangle r) {
+    if (r.width == width && r.height == height) {
+      return new int[data.length];
+    }
+    return data.clone();
   }
 
   /**
@@ -135,8 +277,9 @@ public class SingleImageModel implements ImageModel {
    * @param widthNew     the new width
    * @param heightNew    the new height
    */
-  public void applyDownscale(int widthNew, int heightNew) {
-    Pixel[][] downsizedImage = new Pixel[widthNew][heightNew];
+  public synchronized void applyDownscale(int widthNew, int heightNew) {
+    OperationMetrics.Sample sample = OperationMetrics.start();
+    int[] downsizedImage = new int[widthNew * heightNew];
     // Loops through every pixel in the new image
     for (int i = 0; i < heightNew; i++) {
       for (int j = 0; j < widthNew; j++) {
@@ -147,35 +290,31 @@ public class SingleImageModel implements ImageModel {
         int yMapFloor = (int) Math.floor(yMap);
         int yMapCeil = (int) Math.ceil(yMap);
         if (xMap == xMapFloor || yMap == yMapFloor) {
-          downsizedImage[j][i] = new Pixel(pixelGrid[(int) xMap][(int) yMap].getColor(),
-              new Point(j, i));
+          downsizedImage[i * widthNew + j] = data[(int) yMap * width + (int) xMap];
         }
         // STARTS FLOATING POINT
         else {
-          ArrayList<Pixel> neighbors = new ArrayList<Pixel>();
-          neighbors.add(pixelGrid[xMapFloor][yMapFloor]);
-          neighbors.add(pixelGrid[xMapCeil][yMapFloor]);
-          neighbors.add(pixelGrid[xMapFloor][yMapCeil]);
-          neighbors.add(pixelGrid[xMapCeil][yMapCeil]);
-          ArrayList<Integer> redVals = new ArrayList<Integer>();
-          ArrayList<Integer> greenVals = new ArrayList<Integer>();
-          ArrayList<Integer> blueVals = new ArrayList<Integer>();
-          for (Pixel p : neighbors) {
-            redVals.add(p.getRed());
-            greenVals.add(p.getGreen());
-            blueVals.add(p.getBlue());
-          }
-          downsizedImage[j][i] = new Pixel(new Color(downsizingColor(redVals, xMap, yMap, xMapFloor,
-              xMapCeil, yMapFloor, yMapCeil), downsizingColor(greenVals, xMap, yMap, xMapFloor,
-              xMapCeil, yMapFloor, yMapCeil), downsizingColor(blueVals, xMap, yMap, xMapFloor,
-              xMapCeil, yMapFloor, yMapCeil)), new Point(j, i));
+          int[] neighbors = new int[4];
+          neighbors[0] = data[yMapFloor * width + xMapFloor];
+          neighbors[1] = data[yMapFloor * width + xMapCeil];
+          neighbors[2] = data[yMapCeil * width + xMapFloor];
+          neighbors[3] = data[yMapCeil * width + xMapCeil];
+          int r = downsizingColor(neighbors, 16, xMap, yMap, xMapFloor, xMapCeil, yMapFloor,
+              yMapCeil);
+          int g = downsizingColor(neighbors, 8, xMap, yMap, xMapFloor, xMapCeil, yMapFloor,
+              yMapCeil);
+          int b = downsizingColor(neighbors, 0, xMap, yMap, xMapFloor, xMapCeil, yMapFloor,
+              yMapCeil);
+          // Opaque images have no alpha bits, so this stays zero for them
+          int a = downsizingColor(neighbors, 24, xMap, yMap, xMapFloor, xMapCeil, yMapFloor,
+              yMapCeil);
+          downsizedImage[i * widthNew + j] = (a << 24) | Kernels.rgb(r, g, b);
         }
         // ENDS FLOATING POINTS
       }
     }
-    this.width = widthNew;
-    this.height = heightNew;
-    pixelGrid = downsizedImage;
+    replaceData(downsizedImage, widthNew, heightNew);
+    sample.stop("downscale", (long) widthNew * heightNew);
   }
 
   /**
@@ -183,7 +322,8 @@ public class SingleImageModel implements ImageModel {
    *
    * @param seedNum int representing the number of seeds, or tiles, in this mosaic.
    */
-  public void applyMosaic(int seedNum) {
+  public synchronized void applyMosaic(int seedNum) {
+    OperationMetrics.Sample sample = OperationMetrics.start();
     // Fills intGrid[][] with all 0's
     int[][] seedArray = new int[width][height];
     for (int i = 0; i < height; i++) {
@@ -226,7 +366,8 @@ public class SingleImageModel implements ImageModel {
     clusterSeeds(clusterArray, seedArray, seedPoints);
     // Then, this method takes in the abstract representation of clusters and applies
     // it to the actual pixels within the original image
-    pixelGrid = clustersToPixels(clusterArray, seedNum);
+    replaceData(clustersToPixels(clusterArray, seedNum), width, height);
+    sample.stop("mosaic", (long) width * height);
   }
 
   // Returns a random int in the bounds of the supplied area that isn't already
@@ -282,34 +423,38 @@ public class SingleImageModel implements ImageModel {
 
   // Phase 3: Find the average RGB values of every pixel within a cluster, and assign them to
   //          a final Color[][] array where every pixel in that cluster has the averaged values
-  // * * We end with a 2D-array representing our final image, which we can then reassign
-  // * * pixelGrid to
-  private Pixel[][] clustersToPixels(int[][] clusterArray, int seedNum) {
-    Pixel[][] mosaicGrid = new Pixel[width][height];
+  // * * We end with an array representing our final image, which we can then swap in as
+  // * * the new pixel data
+  private int[] clustersToPixels(int[][] clusterArray, int seedNum) {
+    int[] mosaicGrid = new int[width * height];
     // Loops through each cluster, referenced by the int
     for (int i = 1; i <= seedNum; i++) {
       int numOfThisCluster = 0;
       int accRed = 0;
       int accGreen = 0;
       int accBlue = 0;
+      int accAlpha = 0;
       for (int j = 0; j < height; j++) {
         for (int k = 0; k < width; k++) {
           if (clusterArray[k][j] == i) {
             numOfThisCluster++;
-            accRed += pixelGrid[k][j].getRed();
-            accGreen += pixelGrid[k][j].getGreen();
-            accBlue += pixelGrid[k][j].getBlue();
+            int rgb = data[j * width + k];
+            accRed += (rgb >> 16) & 0xFF;
+            accGreen += (rgb >> 8) & 0xFF;
+            accBlue += rgb & 0xFF;
+            accAlpha += rgb >>> 24;
           }
         }
       }
       int avgRed = Math.round(accRed / numOfThisCluster);
       int avgGreen = Math.round(accGreen / numOfThisCluster);
       int avgBlue = Math.round(accBlue / numOfThisCluster);
-      Color avgCol = new Color(avgRed, avgGreen, avgBlue);
+      int avgAlpha = Math.round(accAlpha / numOfThisCluster);
+      int avgCol = (avgAlpha << 24) | Kernels.rgb(avgRed, avgGreen, avgBlue);
       for (int j = 0; j < height; j++) {
         for (int k = 0; k < width; k++) {
           if (clusterArray[k][j] == i) {
-            mosaicGrid[k][j] = new Pixel(avgCol, new Point(k, j));
+            mosaicGrid[j * width + k] = avgCol;
           }
         }
       }
@@ -317,27 +462,17 @@ public class SingleImageModel implements ImageModel {
     return mosaicGrid;
   }
 
-  private int downsizingColor(ArrayList<Integer> colorInts, double x, double y, int xFloor,
+  // Interpolates one channel, found at the given bit shift, of the four neighboring pixels
+  private int downsizingColor(int[] neighbors, int shift, double x, double y, int xFloor,
       int xCeil,
       int yFloor, int yCeil) {
-    double m = colorInts.get(1) * (x - xFloor) + colorInts.get(0) * (xCeil - x);
-    double n = colorInts.get(3) * (x - xFloor) + colorInts.get(2) * (xCeil - x);
+    double m = ((neighbors[1] >> shift) & 0xFF) * (x - xFloor)
+        + ((neighbors[0] >> shift) & 0xFF) * (xCeil - x);
+    double n = ((neighbors[3] >> shift) & 0xFF) * (x - xFloor)
+        + ((neighbors[2] >> shift) & 0xFF) * (xCeil - x);
     return (int) Math.round(n * (y - yFloor) + m * (yCeil - y));
   }
 
-  // Converts the given double into an appropriate int to represent a color value
-  private int minMaxRound(double d) {
-    if (d < 0) {
-      return 0;
-    } else if (d > maxValue) {
-      return maxValue;
-    }
-    // If 0 < d < maxVal
-    else {
-      return (int) Math.round(d);
-    }
-  }
-
   /**
    * Creates a file from this image.
    *
@@ -345,48 +480,26 @@ public class SingleImageModel implements ImageModel {
    * @param fileType Type of file which this image should be saved to
    */
   public void export(String filename, FileType fileType) throws IOException {
-    if (fileType == FileType.PNG || fileType == FileType.JPEG) {
-      exportJPEGPNG(filename, fileType);
-    } else {
-      FileWriter fw = new FileWriter(filename);
-      fw.write("P3" + "\n");
-      fw.write(width + " " + height);
-      fw.write("\n" + maxValue);
-      for (int i = 0; i < height; i++) {
-        for (int j = 0; j < width; j++) {
-          fw.write("\n" + pixelGrid[j][i].getRed());
-          fw.write("\n" + pixelGrid[j][i].getGreen());
-          fw.write("\n" + pixelGrid[j][i].getBlue());
-        }
-      }
-      fw.flush();
-    }
+    export(filename, new ExportOptions(fileType));
   }
 
-  private void exportJPEGPNG(String filename, FileType fileType) throws IOException {
-    BufferedImage exportImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int rgb = getColorAt(j, i).getRGB();
-        exportImg.setRGB(j, i, rgb);
-      }
-    }
-    File file = new File(filename);
-    ImageIO.write(exportImg, fileType.toString(), file);
+  /**
+   * Creates a file from this image, encoded with the given options.
+   *
+   * @param filename String representing the name of the file that this image should be saved to
+   * @param options  the file type and encoder settings to use
+   */
+  public void export(String filename, ExportOptions options) throws IOException {
+    snapshot.export(filename, options);
   }
 
   /**
-   * Exports the display for the GUI.
+   * Exports the display for the GUI. The returned image shares its memory with the current
+   * version of this model rather than holding a copy, so it must be treated as read-only; later
+   * operations on this model leave it showing the version it was exported from.
    */
   public BufferedImage exportDISPLAY() {
-    BufferedImage exportImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-    for (int i = 0; i < height; i++) {
-      for (int j = 0; j < width; j++) {
-        int rgb = getColorAt(j, i).getRGB();
-        exportImg.setRGB(j, i, rgb);
-      }
-    }
-    return exportImg;
+    return snapshot.exportDISPLAY();
   }
 
 }
@@ -0,0 +1,494 @@
+package model;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.function.UnaryOperator;
+import javax.imageio.ImageIO;
+
+/**
+ * Representing a load, filter/transform, save sequence that runs over an image a band of rows
+ * at a time instead of loading the whole image. Filters keep only the rows their kernel
+ * covers, so peak memory stays at a few bands no matter how tall the image is. The result is
+ * the same as loading the image, applying the same operations and saving it, for any image
+ * without transparency. Rows are streamed without alpha: a PNG with transparency comes out
+ * opaque, each pixel keeping the color stored for it, whereas loading it keeps its
+ * transparency.
+ *
+ * <p>Only PPM and PNG sources are read a band at a time. JPEG decoders can't hand out rows
+ * without decoding from the top again for each band, so a JPEG source is decoded whole, once,
+ * and only the operations and the output are streamed.
+ */
+public class StreamingPipeline {
+
+  /**
+   * The number of rows read from the source at a time unless told otherwise.
+   */
+  public static final int DEFAULT_BAND_HEIGHT = 64;
+
+  private final FileType sourceType;
+  private final String source;
+  private final int bandHeight;
+  private final List<UnaryOperator<RowSource>> stages;
+
+  /**
+   * Constructs a pipeline reading from the given file.
+   *
+   * @param sourceType    the type of the source file
+   * @param source        the name of the source file
+   * @param bandHeight    the number of rows to read from the source at a time
+   */
+  public StreamingPipeline(FileType sourceType, String source, int bandHeight)
+      throws IllegalArgumentException {
+    if (sourceType == null || source == null) {
+      throw new IllegalArgumentException("Null method parameters");
+    }
+    if (bandHeight < 1) {
+      throw new IllegalArgumentException("Band height must be positive");
+    }
+    this.sourceType = sourceType;
+    this.source = source;
+    this.bandHeight = bandHeight;
+    this.stages = new ArrayList<UnaryOperator<RowSource>>();
+  }
+
+  /**
+   * Constructs a pipeline reading from the given file in bands of the default height.
+   *
+   * @param sourceType    the type of the source file
+   * @param source        the name of the source file
+   */
+  public StreamingPipeline(FileType sourceType, String source) throws IllegalArgumentException {
+    this(sourceType, source, DEFAULT_BAND_HEIGHT);
+  }
+
+  /**
+   * Adds a filter to the end of this pipeline.
+   *
+   * @param filter  FilterType representing the specific type of filter to be applied
+   */
+  public void addFilter(FilterType filter) {
+    double[][] fArray = filter.getArray();
+    stages.add(upstream -> new FilterStage(upstream, fArray));
+  }
+
+  /**
+   * Adds a color transformation to the end of this pipeline.
+   *
+   * @param transf  TransformationType representing the specific type of transformation
+   *                to be applied
+   */
+  public void addTransformation(TransformationType transf) {
+    double[][] tArray = transf.getArray();
+    stages.add(upstream -> new TransformStage(upstream, tArray));
+  }
+
+  /**
+   * Runs the source through every operation of this pipeline and writes the result row by row.
+   *
+   * @param targetType    the type of the file to write, which must be PPM or PNG
+   * @param target        the name of the file to write
+   * @throws IOException if the source can't be read or the target can't be written
+   */
+  public void run(FileType targetType, String target) throws IOException,
+      IllegalArgumentException {
+    if (targetType != FileType.PPM && targetType != FileType.PNG) {
+      throw new IllegalArgumentException("Streaming can only save .ppm or .png files");
+    }
+    try (RowSource input = openSource()) {
+      RowSource rows = input;
+      for (UnaryOperator<RowSource> stage : stages) {
+        rows = stage.apply(rows);
+      }
+      int width = rows.width();
+      int height = rows.height();
+      if (targetType == FileType.PNG) {
+        try (PngWriter png = new PngWriter(new BufferedOutputStream(
+            new FileOutputStream(target), 64 * 1024), width, height)) {
+          for (int i = 0; i < height; i++) {
+            png.writeRow(rows.nextRow(), 0);
+          }
+        }
+      }
+      else {
+        try (Writer fw = new BufferedWriter(new FileWriter(target), 64 * 1024)) {
+          fw.write("P3" + "\n");
+          fw.write(width + " " + height);
+          fw.write("\n" + rows.maxValue());
+          for (int i = 0; i < height; i++) {
+            for (int rgb : rows.nextRow()) {
+              fw.write("\n" + ((rgb >> 16) & 0xFF));
+              fw.write("\n" + ((rgb >> 8) & 0xFF));
+              fw.write("\n" + (rgb & 0xFF));
+            }
+          }
+          fw.flush();
+        }
+      }
+    }
+  }
+
+  // Opens the source file as a stream of rows
+  private RowSource openSource() throws IOException {
+    if (!new File(source).isFile()) {
+      throw new FileNotFoundException("File " + source + " not found!");
+    }
+    if (sourceType == FileType.PPM) {
+      return new PpmSource(source, bandHeight);
+    }
+    PngReader png = sourceType == FileType.PNG ? PngReader.open(source) : null;
+    if (png == null) {
+      return DecodedSource.decode(source, bandHeight);
+    }
+    // The largest channel value is needed up front to clamp results the same way as the
+    // in-memory loader, which costs one extra decoding pass
+    int maxValue = 0;
+    try (BandSource scan = new PngSource(png, 0, bandHeight)) {
+      for (int i = 0; i < scan.height() && maxValue < 255; i++) {
+        for (int rgb : scan.nextRow()) {
+          maxValue = Math.max(maxValue, Math.max((rgb >> 16) & 0xFF,
+              Math.max((rgb >> 8) & 0xFF, rgb & 0xFF)));
+        }
+      }
+    }
+    png = PngReader.open(source);
+    if (png == null) {
+      throw new IOException("PNG file changed while being read: " + source);
+    }
+    return new PngSource(png, maxValue, bandHeight);
+  }
+
+  /**
+   * Representing an image that hands out its rows top to bottom, one at a time.
+   */
+  private interface RowSource extends Closeable {
+    int width();
+
+    int height();
+
+    int maxValue();
+
+    // Returns the next row as packed RGB ints; the array may be reused by later calls
+    int[] nextRow() throws IOException;
+  }
+
+  /**
+   * Representing a decoder that reads its source a band of rows at a time.
+   */
+  private abstract static class BandSource implements RowSource {
+    private final int width;
+    private final int height;
+    private final int maxValue;
+    private final int[] band;
+    private final int[] row;
+    private int bandStart;
+    private int bandRows;
+    private int next;
+
+    BandSource(int width, int height, int maxValue, int bandHeight) {
+      this.width = width;
+      this.height = height;
+      this.maxValue = maxValue;
+      this.band = new int[width * Math.min(bandHeight, Math.max(height, 1))];
+      this.row = new int[width];
+    }
+
+    // Reads the given number of rows, starting at the given row, into the given array
+    abstract void readRows(int[] dst, int firstRow, int count) throws IOException;
+
+    @Override
+    public int width() {
+      return width;
+    }
+
+    @Override
+    public int height() {
+      return height;
+    }
+
+    @Override
+    public int maxValue() {
+      return maxValue;
+    }
+
+    @Override
+    public int[] nextRow() throws IOException {
+      if (next == height) {
+        throw new IllegalStateException("No rows left in the image");
+      }
+      if (next == bandStart + bandRows) {
+        bandStart = next;
+        bandRows = Math.min(band.length / width, height - next);
+        WorkUnitEvent event = WorkUnitEvent.start();
+        readRows(band, bandStart, bandRows);
+        event.finish("stream.band", null, 0, bandStart, width, bandRows);
+      }
+      System.arraycopy(band, (next - bandStart) * width, row, 0, width);
+      next++;
+      return row;
+    }
+  }
+
+  /**
+   * Representing a plain PPM file read token by token.
+   */
+  private static final class PpmSource extends BandSource {
+    private final Tokens tokens;
+
+    private PpmSource(String filename, int bandHeight) throws IOException {
+      this(new Tokens(filename), bandHeight);
+    }
+
+    private PpmSource(Tokens tokens, int bandHeight) throws IOException {
+      super(tokens.header[0], tokens.header[1], tokens.header[2], bandHeight);
+      this.tokens = tokens;
+    }
+
+    @Override
+    void readRows(int[] dst, int firstRow, int count) throws IOException {
+      for (int i = 0; i < count * width(); i++) {
+        dst[i] = Kernels.rgb(tokens.nextInt(), tokens.nextInt(), tokens.nextInt());
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      tokens.reader.close();
+    }
+
+    /**
+     * Representing the whitespace-separated tokens of a PPM file, skipping comment lines.
+     */
+    private static final class Tokens {
+      private final BufferedReader reader;
+      private final int[] header;
+      private StringTokenizer line;
+
+      private Tokens(String filename) throws IOException {
+        this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename),
+            StandardCharsets.US_ASCII), 64 * 1024);
+        try {
+          if (!"P3".equals(next())) {
+            throw new IllegalArgumentException(
+                "Invalid PPM file: plain RAW file should begin with P3");
+          }
+          this.header = new int[] {nextInt(), nextInt(), nextInt()};
+        }
+        catch (IOException | RuntimeException e) {
+          reader.close();
+          throw e;
+        }
+      }
+
+      private String next() throws IOException {
+        while (line == null || !line.hasMoreTokens()) {
+          String s = reader.readLine();
+          if (s == null) {
+            throw new IOException("Unexpected end of PPM file");
+          }
+          line = s.startsWith("#") ? null : new StringTokenizer(s);
+        }
+        return line.nextToken();
+      }
+
+      private int nextInt() throws IOException {
+        try {
+          return Integer.parseInt(next());
+        }
+        catch (NumberFormatException e) {
+          throw new IOException("Invalid PPM file: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Representing a PNG file decoded row by row.
+   */
+  private static final class PngSource extends BandSource {
+    private final PngReader png;
+
+    private PngSource(PngReader png, int maxValue, int bandHeight) {
+      super(png.getWidth(), png.getHeight(), maxValue, bandHeight);
+      this.png = png;
+    }
+
+    @Override
+    void readRows(int[] dst, int firstRow, int count) throws IOException {
+      for (int i = 0; i < count; i++) {
+        png.readRow(dst, i * width());
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      png.close();
+    }
+  }
+
+  /**
+   * Representing any file ImageIO can decode, decoded whole up front, for formats without a
+   * decoder that can hand out rows, then handed out a band at a time.
+   */
+  private static final class DecodedSource extends BandSource {
+    private final BufferedImage image;
+
+    private DecodedSource(BufferedImage image, int maxValue, int bandHeight) {
+      super(image.getWidth(), image.getHeight(), maxValue, bandHeight);
+      this.image = image;
+    }
+
+    // Decodes the given file and finds its largest channel value, the same way as the
+    // in-memory loader
+    private static DecodedSource decode(String filename, int bandHeight) throws IOException {
+      BufferedImage image = ImageIO.read(new File(filename));
+      if (image == null) {
+        throw new IllegalArgumentException("Unsupported image file: " + filename);
+      }
+      int maxValue = 0;
+      int[] row = new int[image.getWidth()];
+      for (int y = 0; y < image.getHeight() && maxValue < 255; y++) {
+        image.getRGB(0, y, row.length, 1, row, 0, row.length);
+        for (int rgb : row) {
+          maxValue = Math.max(maxValue, Math.max((rgb >> 16) & 0xFF,
+              Math.max((rgb >> 8) & 0xFF, rgb & 0xFF)));
+        }
+      }
+      return new DecodedSource(image, maxValue, bandHeight);
+    }
+
+    @Override
+    void readRows(int[] dst, int firstRow, int count) {
+      image.getRGB(0, firstRow, width(), count, dst, 0, width());
+      for (int i = 0; i < count * width(); i++) {
+        dst[i] &= 0xFFFFFF;
+      }
+    }
+
+    @Override
+    public void close() {
+      // Nothing is held open once the image is decoded
+    }
+  }
+
+  /**
+   * Representing a filter applied over a sliding window of the rows its kernel covers.
+   */
+  private static final class FilterStage implements RowSource {
+    private final RowSource upstream;
+    private final double[][] fArray;
+    private final int n;
+    private final int loopn;
+    // Ring buffer holding rows y - loopn through y + loopn, row r kept in slot r % n
+    private final int[] window;
+    private final int[] rowOffsets;
+    private final int[] row;
+    private int loaded;
+    private int next;
+
+    private FilterStage(RowSource upstream, double[][] fArray) {
+      this.upstream = upstream;
+      this.fArray = fArray;
+      this.n = fArray.length;
+      this.loopn = (n - 1) / 2;
+      this.window = new int[n * upstream.width()];
+      this.rowOffsets = new int[n];
+      this.row = new int[upstream.width()];
+    }
+
+    @Override
+    public int width() {
+      return upstream.width();
+    }
+
+    @Override
+    public int height() {
+      return upstream.height();
+    }
+
+    @Override
+    public int maxValue() {
+      return upstream.maxValue();
+    }
+
+    @Override
+    public int[] nextRow() throws IOException {
+      int width = width();
+      int height = height();
+      while (loaded < height && loaded <= next + loopn) {
+        System.arraycopy(upstream.nextRow(), 0, window, (loaded % n) * width, width);
+        loaded++;
+      }
+      for (int k = 0; k < n; k++) {
+        int y = k - loopn + next;
+        rowOffsets[k] = y >= 0 && y <= height - 1 ? (y % n) * width : -1;
+      }
+      Kernels.filterRow(fArray, maxValue(), false, window, rowOffsets, width, row, 0);
+      next++;
+      return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+      upstream.close();
+    }
+  }
+
+  /**
+   * Representing a color transformation applied to each row as it passes through.
+   */
+  private static final class TransformStage implements RowSource {
+    private final RowSource upstream;
+    private final double[][] tArray;
+    private final int[] row;
+
+    private TransformStage(RowSource upstream, double[][] tArray) {
+      this.upstream = upstream;
+      this.tArray = tArray;
+      this.row = new int[upstream.width()];
+    }
+
+    @Override
+    public int width() {
+      return upstream.width();
+    }
+
+    @Override
+    public int height() {
+      return upstream.height();
+    }
+
+    @Override
+    public int maxValue() {
+      return upstream.maxValue();
+    }
+
+    @Override
+    public int[] nextRow() throws IOException {
+      int[] src = upstream.nextRow();
+      for (int j = 0; j < row.length; j++) {
+        row[j] = Kernels.transform(tArray, maxValue(), src[j]);
+      }
+      return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+      upstream.close();
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package model;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Holds the work-stealing pool that operations spanning many layers run on, along with a cap
+ * on the memory their work may hold at once. Work reserves an estimate of the memory it needs
+ * before it is submitted and releases it when done, so submitting waits while the cap is
+ * reached instead of running every operation at once.
+ */
+public final class WorkPool {
+
+  private static final ForkJoinPool POOL =
+      new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  private static final Object LOCK = new Object();
+  private static long maxBytes = Runtime.getRuntime().maxMemory() / 4;
+  private static long reservedBytes;
+
+  private WorkPool() {
+  }
+
+  /**
+   * Sets the most memory, in bytes, that work on the pool may reserve at once.
+   *
+   * @param bytes    the new cap
+   * @throws IllegalArgumentException if the cap isn't positive
+   */
+  public static void setMaxBytes(long bytes) throws IllegalArgumentException {
+    if (bytes <= 0) {
+      throw new IllegalArgumentException("Memory cap must be positive");
+    }
+    synchronized (LOCK) {
+      maxBytes = bytes;
+      LOCK.notifyAll();
+    }
+  }
+
+  /**
+   * Returns the most memory, in bytes, that work on the pool may reserve at once.
+   *
+   * @return the cap
+   */
+  public static long getMaxBytes() {
+    synchronized (LOCK) {
+      return maxBytes;
+    }
+  }
+
+  /**
+   * Returns the memory, in bytes, currently reserved by work on the pool.
+   *
+   * @return the reserved bytes
+   */
+  public static long getReservedBytes() {
+    synchronized (LOCK) {
+      return reservedBytes;
+    }
+  }
+
+  // Returns the shared pool
+  static ForkJoinPool pool() {
+    return POOL;
+  }
+
+  // Waits until the given number of bytes fits under the cap, then reserves it. Work larger
+  // than the whole cap still runs, but only once nothing else is reserved.
+  static void reserve(long bytes) throws InterruptedException {
+    synchronized (LOCK) {
+      while (reservedBytes > 0 && reservedBytes + bytes > maxBytes) {
+        LOCK.wait();
+      }
+      reservedBytes += bytes;
+    }
+  }
+
+  // Returns reserved bytes once the work holding them is done
+  static void release(long bytes) {
+    synchronized (LOCK) {
+      reservedBytes -= bytes;
+      LOCK.notifyAll();
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Representing a Java Flight Recorder event for one piece of a larger job that runs on its
+ * own, often alongside others: one layer of an operation on several, one block of a PNG being
+ * compressed, one band of a streamed image, or one tile of the display.
+ */
+@Name("imageprocessing.WorkUnit")
+@Label("Image Work Unit")
+@Category("Image Processing")
+@Description("One piece of a larger job, such as a block, band, layer or tile")
+public final class WorkUnitEvent extends Event {
+
+  @Label("Work")
+  @Description("What the piece is part of")
+  private String work;
+
+  @Label("Layer")
+  private String layer;
+
+  @Label("X")
+  private int x;
+
+  @Label("Y")
+  private int y;
+
+  @Label("Width")
+  private int width;
+
+  @Label("Height")
+  private int height;
+
+  /**
+   * Starts timing a piece of work.
+   *
+   * @return the event, to finish once the piece is done
+   */
+  public static WorkUnitEvent start() {
+    WorkUnitEvent event = new WorkUnitEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Records the piece as done, if a recording wants it.
+   *
+   * @param work     what the piece is part of
+   * @param layer    the layer it was on, or null
+   * @param x        the left edge of the area it covered
+   * @param y        the top edge of the area it covered
+   * @param width    the width of the area it covered
+   * @param height   the height of the area it covered
+   */
+  public void finish(String work, String layer, int x, int y, int width, int height) {
+    end();
+    if (shouldCommit()) {
+      this.work = work;
+      this.layer = layer;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+      commit();
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package view;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import model.LayeredImageModel;
+
+/**
+ * Interface for a view that shows commands running in the background and the model they
+ * leave behind. All of its methods are called on the event thread.
+ */
+public interface ImageModelGUIView extends ImageModelView {
+
+  /**
+   * Shows that a command is running, along with how many more are waiting.
+   *
+   * @param command   the command running
+   * @param queued    the number of commands waiting to run after it
+   */
+  void showRunning(String command, int queued);
+
+  /**
+   * Shows how the last command ended, and that nothing is running.
+   *
+   * @param message   what happened
+   */
+  void showFinished(String message);
+
+  /**
+   * Shows the model as it is after a command, updating the image in place. Only the changed
+   * region is repainted when the image keeps its size.
+   *
+   * @param m         the model, which replaces the one shown if a project was loaded
+   * @param display   the model's visible layers blended together, or null if it has no image
+   * @param changed   the part of the display that changed, or null if unknown
+   */
+  void showModel(LayeredImageModel m, BufferedImage display, Rectangle changed);
+
+  /**
+   * Shows a quick, smaller rendering of what a command will produce, until the model is shown
+   * again.
+   *
+   * @param preview   the rendering, drawn scaled to fit like the model's image
+   * @param command   the command previewed
+   */
+  void showPreview(BufferedImage preview, String command);
+
+  /**
+   * Returns the height previews should be made at, which is the height the image is shown at.
+   *
+   * @return the height, in pixels
+   */
+  int getPreviewHeight();
+
+  /**
+   * Shows the given error message, which the window can always do.
+   *
+   * @param message   the message to show
+   */
+  @Override
+  void renderMessage(String message);
+}
@@ -4,6 +4,7 @@ import controller.ImageModelGUIController;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
@@ -11,19 +12,27 @@ import java.io.IOException;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import model.LayeredImageModel;
 
 /**
  * Representing a GUI visualization of an Image Model's state.
  */
-public class ImageModelGraphicsView extends JFrame implements ImageModelView {
+public class ImageModelGraphicsView extends JFrame implements ImageModelGUIView {
   private ImagePanel imagePanel;
   private String input;
+  private LayeredImageModel model;
+  private JLabel status;
+  private JProgressBar progress;
+  private JButton cancelButton;
+  // Whether a preview is shown in place of the model's image
+  private boolean previewing;
 
   /**
    * Constructs an ImageModelGraphicsView to represent the model's state.
@@ -47,11 +56,16 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
     JMenuItem save;
     JMenuItem saveAll;
 
+    JMenu editMenu;
+    JMenuItem undo;
+    JMenuItem redo;
+
     JMenu layerMenu;
     JMenuItem newLayer;
     JMenuItem setCurrentLayer;
     JMenuItem visible;
     JMenuItem invisible;
+    JMenuItem blendMode;
 
     JMenu filterMenu;
     JMenuItem blur;
@@ -65,8 +79,13 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
     JMenuItem downscale;
     JMenuItem mosaic;
 
+    JMenu viewMenu;
+    JMenuItem zoomIn;
+    JMenuItem zoomOut;
+    JMenuItem zoomToFit;
+
     // initial setup
-    LayeredImageModel model = m;
+    this.model = m;
     this.setTitle("A+ Image Processor");
     this.setSize(750, 500);
     this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -98,12 +117,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
         if (returnValue == JFileChooser.APPROVE_OPTION) {
           input = "load " + chooser.getSelectedFile().toString();
         }
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     saveButton = new JButton("Save");
@@ -112,12 +126,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       @Override
       public void actionPerformed(ActionEvent e) {
         input = "save " + JOptionPane.showInputDialog("What would you like to name your file?");
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     quitButton = new JButton("Quit");
@@ -128,6 +137,20 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
     buttonPanel.add(saveButton);
     buttonPanel.add(quitButton);
 
+    // progress of the commands running in the background
+    status = new JLabel(" ");
+    progress = new JProgressBar();
+    progress.setIndeterminate(true);
+    progress.setVisible(false);
+    cancelButton = new JButton("Cancel");
+    cancelButton.setVisible(false);
+    cancelButton.addActionListener((ActionEvent e) -> {
+      ImageModelGUIController.cancelCommands();
+    });
+    buttonPanel.add(status);
+    buttonPanel.add(progress);
+    buttonPanel.add(cancelButton);
+
     // file dropdown
     fileMenu = new JMenu("File");
     load = new JMenuItem("Load");
@@ -141,12 +164,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
         if (returnValue == JFileChooser.APPROVE_OPTION) {
           input = "load " + chooser.getSelectedFile().toString();
         }
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     loadAll = new JMenuItem("Load All");
@@ -160,12 +178,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
         if (returnValue == JFileChooser.APPROVE_OPTION) {
           input = "load full " + chooser.getSelectedFile().toString();
         }
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     save = new JMenuItem("Save");
@@ -174,12 +187,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       @Override
       public void actionPerformed(ActionEvent e) {
         input = "save " + JOptionPane.showInputDialog("What would you like to name your file?");
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     saveAll = new JMenuItem("Save All");
@@ -189,12 +197,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       public void actionPerformed(ActionEvent e) {
         input = "save full " + JOptionPane.showInputDialog("What would you like to name your "
             + "project?");
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     fileMenu.add(load);
@@ -202,6 +205,29 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
     fileMenu.add(save);
     fileMenu.add(saveAll);
 
+    // edit dropdown
+    editMenu = new JMenu("Edit");
+    undo = new JMenuItem("Undo");
+    undo.addActionListener(new ActionListener() {
+
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        input = "undo";
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
+      }
+    });
+    redo = new JMenuItem("Redo");
+    redo.addActionListener(new ActionListener() {
+
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        input = "redo";
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
+      }
+    });
+    editMenu.add(undo);
+    editMenu.add(redo);
+
     // layer dropdown
     layerMenu = new JMenu("Layer");
     newLayer = new JMenuItem("New Layer");
@@ -211,12 +237,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       public void actionPerformed(ActionEvent e) {
         input = "create layer " + JOptionPane.showInputDialog("What would you like to name your "
             + "layer?");
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     setCurrentLayer = new JMenuItem("Set Current Layer");
@@ -226,12 +247,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       public void actionPerformed(ActionEvent e) {
         input = "current " + JOptionPane.showInputDialog("What would you like the current layer to "
             + "be?");
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     visible = new JMenuItem("Set Visible");
@@ -240,12 +256,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       @Override
       public void actionPerformed(ActionEvent e) {
         input = "visible";
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     invisible = new JMenuItem("Set Invisible");
@@ -254,18 +265,24 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       @Override
       public void actionPerformed(ActionEvent e) {
         input = "invisible";
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
+      }
+    });
+    blendMode = new JMenuItem("Set Blend Mode");
+    blendMode.addActionListener(new ActionListener() {
+
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        input = "blend " + JOptionPane.showInputDialog("How should the current layer blend "
+            + "(over, multiply or screen)?");
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     layerMenu.add(newLayer);
     layerMenu.add(setCurrentLayer);
     layerMenu.add(visible);
     layerMenu.add(invisible);
+    layerMenu.add(blendMode);
 
     // filter dropdown
     filterMenu = new JMenu("Filter");
@@ -275,12 +292,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       @Override
       public void actionPerformed(ActionEvent e) {
         input = "filter blur";
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     sharpen = new JMenuItem("Sharpen");
@@ -289,12 +301,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       @Override
       public void actionPerformed(ActionEvent e) {
         input = "filter sharpen";
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     filterMenu.add(blur);
@@ -308,12 +315,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       @Override
       public void actionPerformed(ActionEvent e) {
         input = "transformation monochrome";
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     sepia = new JMenuItem("Sepia");
@@ -322,12 +324,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       @Override
       public void actionPerformed(ActionEvent e) {
         input = "transformation sepia";
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     transformationMenu.add(monochrome);
@@ -342,12 +339,7 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       public void actionPerformed(ActionEvent e) {
         input = "adjustment downscale "
             + JOptionPane.showInputDialog("Enter in the new width, followed by &, then height.");
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     mosaic = new JMenuItem("Mosaic");
@@ -356,24 +348,39 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
       @Override
       public void actionPerformed(ActionEvent e) {
         input = "adjustment mosaic " + JOptionPane.showInputDialog("Enter in the seed.");
-        try {
-          ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
-        }
-        catch (IOException ioException) {
-          ioException.printStackTrace();
-        }
+        ImageModelGUIController.processCommand(model, ImageModelGraphicsView.this, input);
       }
     });
     adjustmentMenu.add(downscale);
     adjustmentMenu.add(mosaic);
 
+    // view dropdown; the mouse wheel zooms too, and dragging pans
+    viewMenu = new JMenu("View");
+    zoomIn = new JMenuItem("Zoom In");
+    zoomIn.addActionListener((ActionEvent e) -> {
+      imagePanel.zoomIn();
+    });
+    zoomOut = new JMenuItem("Zoom Out");
+    zoomOut.addActionListener((ActionEvent e) -> {
+      imagePanel.zoomOut();
+    });
+    zoomToFit = new JMenuItem("Fit to Window");
+    zoomToFit.addActionListener((ActionEvent e) -> {
+      imagePanel.zoomToFit();
+    });
+    viewMenu.add(zoomIn);
+    viewMenu.add(zoomOut);
+    viewMenu.add(zoomToFit);
+
     // initialize menu bar
     menuBar = new JMenuBar();
     menuBar.add(fileMenu);
+    menuBar.add(editMenu);
     menuBar.add(layerMenu);
     menuBar.add(filterMenu);
     menuBar.add(transformationMenu);
     menuBar.add(adjustmentMenu);
+    menuBar.add(viewMenu);
     this.setJMenuBar(menuBar);
 
     this.pack();
@@ -393,6 +400,48 @@ public class ImageModelGraphicsView extends JFrame implements ImageModelView {
     this.setVisible(false);
   }
 
+  @Override
+  public void showRunning(String command, int queued) {
+    status.setText("Running " + command + (queued > 0 ? " (" + queued + " more waiting)" : ""));
+    progress.setVisible(true);
+    cancelButton.setVisible(true);
+    revalidate();
+  }
+
+  @Override
+  public void showFinished(String message) {
+    status.setText(message);
+    progress.setVisible(false);
+    cancelButton.setVisible(false);
+    revalidate();
+  }
+
+  @Override
+  public void showModel(LayeredImageModel m, BufferedImage display, Rectangle changed) {
+    boolean replaced = m != model || previewing;
+    this.model = m;
+    this.previewing = false;
+    if (display == null) {
+      imagePanel.setImage(new BufferedImage(750, 500, BufferedImage.TYPE_INT_RGB), null);
+    }
+    else {
+      imagePanel.setImage(display, replaced ? null : changed);
+    }
+  }
+
+  @Override
+  public void showPreview(BufferedImage preview, String command) {
+    previewing = true;
+    imagePanel.setImage(preview, null);
+    status.setText("Previewing " + command);
+  }
+
+  @Override
+  public int getPreviewHeight() {
+    return imagePanel.getHeight() > 0 ? imagePanel.getHeight()
+        : imagePanel.getPreferredSize().height;
+  }
+
   @Override
   public void renderMessage(String message) {
     JOptionPane.showMessageDialog(this, message, "Error",
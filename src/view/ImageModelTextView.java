@@ -16,11 +16,22 @@ public class ImageModelTextView implements ImageModelView {
    * @param model     the model of the image
    */
   public ImageModelTextView(ImageModel model) {
+    this(model, System.out);
+  }
+
+  /**
+   * Constructs a ImageModelTextView that renders messages to the given destination.
+   *
+   * @param model     the model of the image
+   * @param ap        the destination for rendered messages
+   */
+  public ImageModelTextView(ImageModel model, Appendable ap) {
     this.model = model;
+    this.ap = ap;
   }
 
   @Override
   public void renderMessage(String message) throws IOException {
-    this.ap.append(message);
+    this.ap.append(message).append(System.lineSeparator());
   }
 }
@@ -1,24 +1,499 @@
 package view;
 
 import java.awt.Graphics;
-import java.awt.Image;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import model.WorkUnitEvent;
 
 /**
- * Representing an image panel for the GUI display.
+ * Representing an image panel for the GUI display. The image is drawn scaled to the panel's
+ * height. The scaled copy is made in the background and kept until the image or the height
+ * changes; until it's ready, a quick, rougher scaling is drawn instead. Only the part of the
+ * panel being repainted is drawn, and when only part of the image changes, only that part of
+ * the scaled copy is made again.
+ *
+ * <p>The image can be zoomed in, doubling its size each step, and dragged to pan. Zoomed in,
+ * the image is drawn from square tiles, each made in the background the first time it comes
+ * into view; tiles of every zoom level are kept for reuse, the least recently drawn discarded
+ * first once there are too many. The mouse wheel zooms in and out around the pointer.
  */
 public class ImagePanel extends JPanel {
+
+  // Scales images off the event thread; shared by every panel, since only one is shown
+  private static final ExecutorService SCALER = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "image-scaler");
+    thread.setDaemon(true);
+    return thread;
+  });
+  // Tiles of the zoomed image are this many pixels square
+  private static final int TILE = 256;
+  // The most tiles kept, at every zoom level together; 128 is 32 MB
+  private static final int MAX_TILES = 128;
+  // The image is never zoomed in past this many panel pixels to an image pixel
+  private static final int MAX_MAGNIFICATION = 16;
+
   private BufferedImage image;
+  // The scaled copy and the height it was made for
+  private BufferedImage scaled;
+  private int scaledHeight;
+  // The part of the image, in image pixels, that changed since the scaled copy was made, or
+  // null if all of it may have
+  private Rectangle stale;
+  // The image and height the newest scaled copy was requested for
+  private BufferedImage requestedFrom;
+  private int requestedHeight;
+  // Counts requests, so that one overtaken by a newer request is skipped
+  private final AtomicLong requests = new AtomicLong();
+
+  // How many times the image has been zoomed in from fitting the panel's height
+  private int zoom;
+  // The point of the zoomed image at the panel's top left corner
+  private final Point offset = new Point();
+  // The tiles made, least recently drawn first, and the panel height they were made for
+  private final LinkedHashMap<Tile, BufferedImage> tiles =
+      new LinkedHashMap<Tile, BufferedImage>(16, 0.75f, true);
+  private int tilesHeight;
+  // The tiles being made, and the image each is made from
+  private final Map<Tile, BufferedImage> requestedTiles = new HashMap<Tile, BufferedImage>();
+  // The area of the zoomed image in view and its zoom, read by the scaler to skip tiles
+  // scrolled out of view before their turn
+  private volatile Rectangle viewport = new Rectangle();
+  private volatile int viewportZoom;
 
   public ImagePanel(BufferedImage image) {
     this.image = image;
+    MouseAdapter mouse = new MouseAdapter() {
+      private Point dragFrom;
+
+      @Override
+      public void mousePressed(MouseEvent e) {
+        dragFrom = e.getPoint();
+      }
+
+      @Override
+      public void mouseDragged(MouseEvent e) {
+        if (dragFrom != null && zoom > 0) {
+          offset.translate(dragFrom.x - e.getX(), dragFrom.y - e.getY());
+          repaint();
+        }
+        dragFrom = e.getPoint();
+      }
+
+      @Override
+      public void mouseWheelMoved(MouseWheelEvent e) {
+        zoomAt(e.getWheelRotation() < 0 ? zoom + 1 : zoom - 1, e.getPoint());
+      }
+    };
+    addMouseListener(mouse);
+    addMouseMotionListener(mouse);
+    addMouseWheelListener(mouse);
+  }
+
+  /**
+   * Zooms in one step, doubling the image's size around the middle of the panel, unless it
+   * is already zoomed in as far as it goes.
+   */
+  public void zoomIn() {
+    zoomAt(zoom + 1, new Point(getWidth() / 2, getHeight() / 2));
+  }
+
+  /**
+   * Zooms out one step, halving the image's size around the middle of the panel, unless it
+   * already fits the panel's height.
+   */
+  public void zoomOut() {
+    zoomAt(zoom - 1, new Point(getWidth() / 2, getHeight() / 2));
+  }
+
+  /**
+   * Zooms out all the way, so the whole image fits the panel's height again.
+   */
+  public void zoomToFit() {
+    zoomAt(0, new Point());
+  }
+
+  // Changes the zoom, keeping the point of the image under the given point of the panel there
+  private void zoomAt(int newZoom, Point anchor) {
+    int height = getHeight();
+    newZoom = Math.max(0, newZoom);
+    if (height <= 0 || newZoom == zoom) {
+      return;
+    }
+    if (newZoom > zoom && (newZoom > 20
+        || (long) height << newZoom > (long) image.getHeight() * MAX_MAGNIFICATION)) {
+      return;
+    }
+    double factor = Math.pow(2, newZoom - zoom);
+    offset.setLocation(Math.round((offset.x + anchor.x) * factor - anchor.x),
+        Math.round((offset.y + anchor.y) * factor - anchor.y));
+    zoom = newZoom;
+    if (zoom == 0) {
+      offset.setLocation(0, 0);
+    }
+    repaint();
+  }
+
+  /**
+   * Shows a new image, repainting only the part of the panel covering the changed region
+   * when the image keeps its size.
+   *
+   * @param image   the image to show
+   * @param changed the region of the image that differs from the one shown, in image pixels
+   */
+  public void setImage(BufferedImage image, Rectangle changed) {
+    boolean sameSize = image.getWidth() == this.image.getWidth()
+        && image.getHeight() == this.image.getHeight();
+    this.image = image;
+    if (!sameSize || changed == null) {
+      stale = null;
+      tiles.clear();
+      repaint();
+      return;
+    }
+    if (stale != null) {
+      stale.add(changed);
+    }
+    if (changed.isEmpty()) {
+      return;
+    }
+    // tiles of every zoom level that cover the change are made again when next in view
+    Iterator<Tile> covering = tiles.keySet().iterator();
+    while (covering.hasNext()) {
+      Tile tile = covering.next();
+      Rectangle zoomed = toZoomed(changed, tilesHeight << tile.zoom);
+      zoomed.grow(2, 2);
+      if (zoomed.intersects(tile.bounds())) {
+        covering.remove();
+      }
+    }
+    // the image is drawn scaled to the panel height; pad for smoothing at the edges
+    Rectangle area = toZoomed(changed, getHeight() << zoom);
+    area.translate(-offset.x, -offset.y);
+    area.grow(2, 2);
+    repaint(area);
   }
 
   @Override
   protected void paintComponent(Graphics g) {
     super.paintComponent(g);
-    g.drawImage(image.getScaledInstance(-1, getHeight(), Image.SCALE_SMOOTH), 0, 0,
-        this);
+    int height = getHeight();
+    if (height <= 0) {
+      return;
+    }
+    Rectangle clip = g.getClipBounds() != null ? g.getClipBounds()
+        : new Rectangle(0, 0, getWidth(), height);
+    if (zoom > 0) {
+      paintTiles(g, clip, height);
+      return;
+    }
+    int width = scaledWidth(image, height);
+    boolean cached = scaled != null && scaledHeight == height && stale != null;
+    if (cached) {
+      g.drawImage(scaled, 0, 0, null);
+      if (stale.isEmpty()) {
+        return;
+      }
+      clip = clip.intersection(toZoomed(stale, height));
+    }
+    // Until the scaled copy is ready, samples the nearest pixels of just the area repainted
+    Graphics2D quick = (Graphics2D) g.create();
+    quick.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+    quick.clip(clip);
+    quick.drawImage(image, 0, 0, width, height, null);
+    quick.dispose();
+    requestScaled(height, cached);
+  }
+
+  // Draws the tiles of the zoomed image in the given area of the panel, drawing a quick,
+  // rougher scaling in place of any not made yet, and asking for them to be made
+  private void paintTiles(Graphics g, Rectangle clip, int height) {
+    if (tilesHeight != height) {
+      tiles.clear();
+      tilesHeight = height;
+    }
+    int zoomedHeight = height << zoom;
+    int zoomedWidth = scaledWidth(image, zoomedHeight);
+    offset.setLocation(Math.max(0, Math.min(offset.x, zoomedWidth - getWidth())),
+        Math.max(0, Math.min(offset.y, zoomedHeight - height)));
+    viewport = new Rectangle(offset.x, offset.y, getWidth(), height);
+    viewportZoom = zoom;
+    Rectangle shown = new Rectangle(clip.x + offset.x, clip.y + offset.y, clip.width,
+        clip.height).intersection(new Rectangle(0, 0, zoomedWidth, zoomedHeight));
+    if (shown.isEmpty()) {
+      return;
+    }
+    for (int row = shown.y / TILE; row <= (shown.y + shown.height - 1) / TILE; row++) {
+      for (int column = shown.x / TILE; column <= (shown.x + shown.width - 1) / TILE; column++) {
+        Tile key = new Tile(zoom, column, row);
+        BufferedImage tile = tiles.get(key);
+        if (tile != null) {
+          g.drawImage(tile, column * TILE - offset.x, row * TILE - offset.y, null);
+          continue;
+        }
+        Graphics2D quick = (Graphics2D) g.create();
+        quick.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+            RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        quick.clipRect(column * TILE - offset.x, row * TILE - offset.y, TILE, TILE);
+        quick.drawImage(image, -offset.x, -offset.y, zoomedWidth, zoomedHeight, null);
+        quick.dispose();
+        requestTile(key, zoomedHeight);
+      }
+    }
+  }
+
+  // Starts making the given tile of the image zoomed to the given height, unless it already
+  // is. It is skipped if scrolled out of view before its turn, and dropped if the image or
+  // panel height changes before it is made.
+  private void requestTile(Tile key, int zoomedHeight) {
+    if (requestedTiles.get(key) == image) {
+      return;
+    }
+    BufferedImage source = image;
+    int height = tilesHeight;
+    requestedTiles.put(key, source);
+    SCALER.execute(() -> {
+      BufferedImage tile = viewportZoom == key.zoom && viewport.intersects(key.bounds())
+          ? tile(source, zoomedHeight, key.bounds()) : null;
+      SwingUtilities.invokeLater(() -> {
+        requestedTiles.remove(key, source);
+        if (tile != null && image == source && tilesHeight == height) {
+          tiles.put(key, tile);
+          if (tiles.size() > MAX_TILES) {
+            tiles.remove(tiles.keySet().iterator().next());
+          }
+          if (zoom == key.zoom) {
+            Rectangle area = key.bounds();
+            area.translate(-offset.x, -offset.y);
+            repaint(area);
+          }
+        }
+      });
+    });
+  }
+
+  // Returns the given region of the image as the area of the image scaled to the given height
+  private Rectangle toZoomed(Rectangle region, int height) {
+    double scale = (double) height / image.getHeight();
+    int x = (int) Math.floor(region.x * scale);
+    int y = (int) Math.floor(region.y * scale);
+    return new Rectangle(x, y, (int) Math.ceil((region.x + region.width) * scale) - x,
+        (int) Math.ceil((region.y + region.height) * scale) - y);
+  }
+
+  // Starts making a scaled copy of the image at the given height, unless one already is.
+  // If the current copy is only partly stale, just that part is made again.
+  private void requestScaled(int height, boolean partial) {
+    if (requestedFrom == image && requestedHeight == height) {
+      return;
+    }
+    BufferedImage source = image;
+    BufferedImage base = partial ? scaled : null;
+    Rectangle region = partial ? new Rectangle(stale) : null;
+    requestedFrom = source;
+    requestedHeight = height;
+    long request = requests.incrementAndGet();
+    SCALER.execute(() -> {
+      if (requests.get() != request) {
+        return;
+      }
+      BufferedImage result = base == null ? scale(source, height)
+          : rescale(base, source, region);
+      SwingUtilities.invokeLater(() -> {
+        if (requestedFrom == source && requestedHeight == height) {
+          requestedFrom = null;
+        }
+        // A copy of an image since replaced is dropped, keeping what has changed since the
+        // current copy was made, so the next request covers it
+        if (image == source && getHeight() == height) {
+          scaled = result;
+          scaledHeight = height;
+          stale = new Rectangle();
+          repaint();
+        }
+      });
+    });
+  }
+
+  // Returns the width the image is drawn at, at the given height
+  private static int scaledWidth(BufferedImage image, int height) {
+    return Math.max(1, (int) ((long) image.getWidth() * height / image.getHeight()));
+  }
+
+  // Returns the given area of the image scaled to the given height, which, shrinking, is the same
+  // as that area of the whole scaled image; growing, each pixel becomes a block, so they can be
+  // told apart
+  static BufferedImage tile(BufferedImage source, int height, Rectangle area) {
+    WorkUnitEvent event = WorkUnitEvent.start();
+    int width = scaledWidth(source, height);
+    area = area.intersection(new Rectangle(0, 0, width, height));
+    BufferedImage result = new BufferedImage(area.width, area.height,
+        source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB_PRE
+        : BufferedImage.TYPE_INT_RGB);
+    if (height >= source.getHeight()) {
+      Graphics2D g = result.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+      g.drawImage(source, -area.x, -area.y, width, height, null);
+      g.dispose();
+    }
+    else {
+      average(packed(source), width, height,
+          result.getRaster().createWritableTranslatedChild(area.x, area.y), area);
+    }
+    event.finish("display.tile", null, area.x, area.y, area.width, area.height);
+    return result;
+  }
+
+  // Returns a copy of the image scaled to the given height, keeping its proportions
+  static BufferedImage scale(BufferedImage source, int height) {
+    int width = scaledWidth(source, height);
+    BufferedImage result = new BufferedImage(width, height, source.getColorModel().hasAlpha()
+        ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB);
+    if (height >= source.getHeight()) {
+      Graphics2D g = result.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(source, 0, 0, width, height, null);
+      g.dispose();
+    }
+    else {
+      average(packed(source), width, height, result.getRaster(),
+          new Rectangle(0, 0, width, height));
+    }
+    return result;
+  }
+
+  // Returns a copy of the given scaled image with the part covering the given region of the
+  // source made again
+  static BufferedImage rescale(BufferedImage base, BufferedImage source, Rectangle region) {
+    if (base.getHeight() >= source.getHeight()) {
+      return scale(source, base.getHeight());
+    }
+    BufferedImage result = new BufferedImage(base.getColorModel(),
+        base.copyData(null), base.isAlphaPremultiplied(), null);
+    double scale = (double) base.getHeight() / source.getHeight();
+    // a pixel more each way, for the rounding of where blocks start
+    int x0 = (int) Math.floor(region.x * scale) - 1;
+    int y0 = (int) Math.floor(region.y * scale) - 1;
+    int x1 = (int) Math.ceil((region.x + region.width) * scale) + 1;
+    int y1 = (int) Math.ceil((region.y + region.height) * scale) + 1;
+    average(packed(source), result.getWidth(), result.getHeight(), result.getRaster(),
+        new Rectangle(x0, y0, x1 - x0, y1 - y0)
+        .intersection(new Rectangle(0, 0, result.getWidth(), result.getHeight())));
+    return result;
+  }
+
+  // Returns the image itself if its pixels are packed RGB or premultiplied ARGB ints, as the
+  // model's images are, or else a copy that is
+  private static BufferedImage packed(BufferedImage source) {
+    if (source.getType() == BufferedImage.TYPE_INT_RGB
+        || source.getType() == BufferedImage.TYPE_INT_ARGB_PRE) {
+      return source;
+    }
+    BufferedImage copy = new BufferedImage(source.getWidth(), source.getHeight(),
+        BufferedImage.TYPE_INT_ARGB_PRE);
+    Graphics2D g = copy.createGraphics();
+    g.drawImage(source, 0, 0, null);
+    g.dispose();
+    return copy;
+  }
+
+  // Sets each pixel of the given area of the source shrunk to the given size to the average of
+  // the block of the source it covers, which is at least one pixel each way since the image
+  // shrinks. Every pixel depends only on its own block, so redoing part of the image gives the
+  // same pixels as redoing all of it.
+  private static void average(BufferedImage source, int width, int height,
+      WritableRaster target, Rectangle area) {
+    if (area.isEmpty()) {
+      return;
+    }
+    int sourceWidth = source.getWidth();
+    int sourceHeight = source.getHeight();
+    int[] firstColumn = new int[area.width + 1];
+    for (int i = 0; i <= area.width; i++) {
+      firstColumn[i] = (int) ((long) (area.x + i) * sourceWidth / width);
+    }
+    int left = firstColumn[0];
+    int[] row = new int[firstColumn[area.width] - left];
+    long[] sums = new long[4 * area.width];
+    int[] out = new int[area.width];
+    Raster in = source.getRaster();
+    for (int y = area.y; y < area.y + area.height; y++) {
+      int top = (int) ((long) y * sourceHeight / height);
+      int bottom = Math.max(top + 1, (int) ((long) (y + 1) * sourceHeight / height));
+      Arrays.fill(sums, 0);
+      for (int sy = top; sy < bottom; sy++) {
+        in.getDataElements(left, sy, row.length, 1, row);
+        for (int i = 0; i < area.width; i++) {
+          for (int sx = firstColumn[i]; sx < firstColumn[i + 1]; sx++) {
+            int argb = row[sx - left];
+            sums[4 * i] += argb >>> 24;
+            sums[4 * i + 1] += (argb >> 16) & 0xFF;
+            sums[4 * i + 2] += (argb >> 8) & 0xFF;
+            sums[4 * i + 3] += argb & 0xFF;
+          }
+        }
+      }
+      for (int i = 0; i < area.width; i++) {
+        long count = (long) (bottom - top) * (firstColumn[i + 1] - firstColumn[i]);
+        out[i] = (int) (sums[4 * i] / count) << 24 | (int) (sums[4 * i + 1] / count) << 16
+            | (int) (sums[4 * i + 2] / count) << 8 | (int) (sums[4 * i + 3] / count);
+      }
+      target.setDataElements(area.x, y, area.width, 1, out);
+    }
+  }
+
+  /**
+   * Representing one tile of the image zoomed in: the given column and row of tiles of the
+   * image at the given zoom.
+   */
+  private static final class Tile {
+    private final int zoom;
+    private final int column;
+    private final int row;
+
+    private Tile(int zoom, int column, int row) {
+      this.zoom = zoom;
+      this.column = column;
+      this.row = row;
+    }
+
+    // Returns the area this tile covers of the zoomed image
+    private Rectangle bounds() {
+      return new Rectangle(column * TILE, row * TILE, TILE, TILE);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Tile)) {
+        return false;
+      }
+      Tile tile = (Tile) other;
+      return zoom == tile.zoom && column == tile.column && row == tile.row;
+    }
+
+    @Override
+    public int hashCode() {
+      return (zoom * 31 + column) * 31 + row;
+    }
   }
 }
@@ -0,0 +1,56 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import model.BackgroundSaver;
+import model.ExportOptions;
+import model.FileType;
+import model.ImageModelCreator;
+import model.SingleImageModel;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for saving images in the background.
+ */
+public class BackgroundSaverTests {
+
+  @Test
+  public void testSavesSnapshotTakenAtSave() throws IOException {
+    File file = File.createTempFile("saver", ".png");
+    SingleImageModel image = ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE);
+    try (BackgroundSaver saver = new BackgroundSaver()) {
+      saver.save(image.snapshot(), file.getPath(), new ExportOptions(FileType.PNG));
+      image.applyTransformation(TransformationType.MONOCHROME);
+      saver.await(file.getPath());
+    }
+    SingleImageModel saved = ImageModelCreator.load(FileType.PNG, file.getPath());
+    assertEquals(Color.RED, saved.getColorAt(0, 0));
+  }
+
+  @Test
+  public void testLaterSaveOfSameFileWins() throws IOException {
+    File file = File.createTempFile("saver", ".ppm");
+    SingleImageModel image = ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE);
+    try (BackgroundSaver saver = new BackgroundSaver()) {
+      for (int i = 0; i < 6; i++) {
+        saver.save(image.snapshot(), file.getPath(), new ExportOptions(FileType.PPM));
+        image.applyDownscale(image.getWidth() - 1, image.getHeight() - 1);
+      }
+    }
+    assertEquals(11, ImageModelCreator.load(FileType.PPM, file.getPath()).getWidth());
+  }
+
+  @Test(expected = IOException.class)
+  public void testFailureReportedOnAwait() throws IOException {
+    String missing = Files.createTempDirectory("saver").resolve("no/such/dir.png").toString();
+    BackgroundSaver saver = new BackgroundSaver();
+    saver.save(ImageModelCreator.drawCheckerboard(2, 2, Color.RED, Color.BLUE).snapshot(),
+        missing, new ExportOptions(FileType.PNG));
+    saver.awaitAll();
+  }
+}
@@ -0,0 +1,74 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import model.BatchProcessor;
+import model.FileType;
+import model.ImageModel;
+import model.ImageModelCreator;
+import model.SingleImageModel;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for applying one recipe to a directory of images.
+ */
+public class BatchTests {
+
+  // Creates a directory holding the given number of checkerboard PNGs
+  private static Path imageDirectory(int count) throws IOException {
+    Path dir = Files.createTempDirectory("batch-in");
+    for (int i = 0; i < count; i++) {
+      ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE)
+          .export(dir.resolve("board" + i + ".png").toString(), FileType.PNG);
+    }
+    return dir;
+  }
+
+  @Test
+  public void testEveryImageProcessed() throws IOException {
+    Path in = imageDirectory(5);
+    Path out = Files.createTempDirectory("batch-out");
+    List<Consumer<ImageModel>> recipe = Arrays.asList(
+        image -> image.applyTransformation(TransformationType.MONOCHROME),
+        image -> image.applyDownscale(8, 8));
+    BatchProcessor.Summary summary = new BatchProcessor(recipe, 2).run(in, out);
+    assertEquals(5, summary.getSucceeded());
+    assertTrue(summary.getFailures().isEmpty());
+    for (int i = 0; i < 5; i++) {
+      SingleImageModel result = ImageModelCreator.load(FileType.PNG,
+          out.resolve("board" + i + ".png").toString());
+      assertEquals(8, result.getWidth());
+      assertEquals(result.getColorAt(0, 0).getRed(), result.getColorAt(0, 0).getBlue());
+    }
+    assertTrue(summary.getLatencyPercentile(0.5) <= summary.getLatencyPercentile(1));
+  }
+
+  @Test
+  public void testFailuresIsolated() throws IOException {
+    Path in = imageDirectory(2);
+    Files.write(in.resolve("broken.png"), new byte[] {1, 2, 3});
+    Files.write(in.resolve("notes.txt"), new byte[] {1, 2, 3});
+    Path out = Files.createTempDirectory("batch-out");
+    List<Consumer<ImageModel>> recipe = Arrays.asList(
+        image -> image.applyTransformation(TransformationType.SEPIA));
+    BatchProcessor.Summary summary = new BatchProcessor(recipe, 1).run(in, out);
+    assertEquals(2, summary.getSucceeded());
+    assertEquals(1, summary.getSkipped());
+    assertTrue(summary.getFailures().containsKey("broken.png"));
+    assertTrue(Files.exists(out.resolve("board1.png")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoImagesInFlight() {
+    new BatchProcessor(Arrays.asList(), 0);
+  }
+}
@@ -0,0 +1,123 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import model.ImageModelCreator;
+import model.LayeredImageModel;
+import model.TransformationType;
+import model.WorkPool;
+import org.junit.Test;
+
+/**
+ * Representing tests for applying an operation to several layers of a LayeredImageModel.
+ */
+public class BulkOperationTests {
+
+  // Creates a model with three red/blue layers named a, b and c
+  private static LayeredImageModel threeLayers() {
+    LayeredImageModel model = new LayeredImageModel();
+    for (String name : new String[] {"a", "b", "c"}) {
+      model.newLayer(name);
+      model.current(name);
+      model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 2, Color.RED, Color.BLUE));
+    }
+    return model;
+  }
+
+  @Test
+  public void testNamedLayersOnly() {
+    LayeredImageModel model = threeLayers();
+    model.applyToLayers(Arrays.asList("a", "c"),
+        image -> image.applyTransformation(TransformationType.MONOCHROME));
+    Color gray = new Color(54, 54, 54);
+    model.current("a");
+    assertEquals(gray, model.getColorAt(0, 0));
+    model.current("b");
+    assertEquals(Color.RED, model.getColorAt(0, 0));
+    model.current("c");
+    assertEquals(gray, model.getColorAt(0, 0));
+  }
+
+  @Test
+  public void testEveryLayer() {
+    LayeredImageModel model = threeLayers();
+    model.applyToLayers(null, image -> image.applyDownscale(4, 4));
+    for (String name : new String[] {"a", "b", "c"}) {
+      model.current(name);
+      assertEquals(4, model.exportDISPLAY().getWidth());
+    }
+  }
+
+  @Test
+  public void testInterruptedWhileWaitingForMemoryRecordsWhatChanged() throws Exception {
+    LayeredImageModel model = threeLayers();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch proceed = new CountDownLatch(1);
+    AtomicReference<RuntimeException> thrown = new AtomicReference<RuntimeException>();
+    AtomicBoolean stillInterrupted = new AtomicBoolean();
+    long maxBytes = WorkPool.getMaxBytes();
+    // Only one layer's work fits at once, so b waits for memory while a is being changed
+    WorkPool.setMaxBytes(1);
+    try {
+      Thread caller = new Thread(() -> {
+        try {
+          model.applyToLayers(null, image -> {
+            started.countDown();
+            try {
+              proceed.await();
+            }
+            catch (InterruptedException e) {
+              throw new IllegalStateException(e);
+            }
+            image.applyTransformation(TransformationType.MONOCHROME);
+          });
+        }
+        catch (RuntimeException e) {
+          thrown.set(e);
+        }
+        stillInterrupted.set(Thread.currentThread().isInterrupted());
+      });
+      caller.start();
+      started.await();
+      while (caller.getState() != Thread.State.WAITING) {
+        Thread.sleep(1);
+      }
+      caller.interrupt();
+      // a is only let finish once the wait for b's memory has ended with the interrupt
+      while (caller.isInterrupted()) {
+        Thread.sleep(1);
+      }
+      proceed.countDown();
+      caller.join();
+    }
+    finally {
+      proceed.countDown();
+      WorkPool.setMaxBytes(maxBytes);
+    }
+
+    assertTrue(thrown.get() instanceof IllegalStateException);
+    assertTrue(thrown.get().getMessage().contains("Interrupted before changing layer b"));
+    assertTrue(thrown.get().getMessage().contains("Interrupted before changing layer c"));
+    assertTrue(stillInterrupted.get());
+    model.current("a");
+    assertEquals(new Color(54, 54, 54), model.getColorAt(0, 0));
+    model.current("b");
+    assertEquals(Color.RED, model.getColorAt(0, 0));
+    // The one change made is one step of the history
+    model.undo();
+    model.current("a");
+    assertEquals(Color.RED, model.getColorAt(0, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownLayer() {
+    threeLayers().applyToLayers(Arrays.asList("a", "z"),
+        image -> image.applyTransformation(TransformationType.SEPIA));
+  }
+}
@@ -0,0 +1,112 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import model.BlendMode;
+import model.ExportOptions;
+import model.FileType;
+import model.ImageModelCreator;
+import model.ImageSnapshot;
+import model.LayeredImageModel;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for blending the visible layers of a LayeredImageModel together.
+ */
+public class CompositeTests {
+
+  // Creates a model with a large red/blue bottom layer and a small green/white top layer
+  private static LayeredImageModel twoLayers() {
+    LayeredImageModel model = new LayeredImageModel();
+    model.newLayer("bottom");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 2, Color.RED, Color.BLUE));
+    model.newLayer("top");
+    model.current("top");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(2, 2, Color.GREEN, Color.WHITE));
+    return model;
+  }
+
+  @Test
+  public void testTopLayerCoversBottom() {
+    BufferedImage composite = twoLayers().exportDISPLAY();
+    assertEquals(8, composite.getWidth());
+    assertEquals(Color.GREEN.getRGB(), composite.getRGB(0, 0));
+    assertEquals(Color.RED.getRGB(), composite.getRGB(7, 7));
+  }
+
+  @Test
+  public void testHidingAndEditingUpdatesComposite() {
+    LayeredImageModel model = twoLayers();
+    ImageSnapshot before = model.snapshot();
+    model.invisible();
+    assertEquals(Color.RED.getRGB(), model.exportDISPLAY().getRGB(0, 0));
+    model.current("top");
+    model.visible();
+    model.applyTransformation(TransformationType.MONOCHROME);
+    assertEquals(new Color(182, 182, 182).getRGB(), model.exportDISPLAY().getRGB(0, 0));
+    // Snapshots taken earlier are left as they were
+    assertEquals(Color.GREEN.getRGB(), before.exportDISPLAY().getRGB(0, 0));
+  }
+
+  @Test
+  public void testSmallChangesMatchFullComposite() {
+    LayeredImageModel model = twoLayers();
+    model.exportDISPLAY();
+    ImageSnapshot kept = model.snapshot();
+    model.applyTransformation(TransformationType.SEPIA, new Rectangle(0, 0, 1, 1));
+    model.exportDISPLAY();
+    model.current("bottom");
+    model.applyTransformation(TransformationType.MONOCHROME, new Rectangle(6, 6, 2, 2));
+    model.exportDISPLAY();
+    model.current("top");
+    model.invisible();
+    model.exportDISPLAY();
+    model.current("top");
+    model.visible();
+    BufferedImage updated = model.exportDISPLAY();
+
+    // The same edits blended from scratch
+    LayeredImageModel fresh = twoLayers();
+    fresh.applyTransformation(TransformationType.SEPIA, new Rectangle(0, 0, 1, 1));
+    fresh.current("bottom");
+    fresh.applyTransformation(TransformationType.MONOCHROME, new Rectangle(6, 6, 2, 2));
+    BufferedImage expected = fresh.exportDISPLAY();
+    for (int y = 0; y < 8; y++) {
+      for (int x = 0; x < 8; x++) {
+        assertEquals(expected.getRGB(x, y), updated.getRGB(x, y));
+      }
+    }
+    assertEquals(Color.GREEN.getRGB(), kept.exportDISPLAY().getRGB(0, 0));
+    assertEquals(Color.RED.getRGB(), kept.exportDISPLAY().getRGB(7, 7));
+  }
+
+  @Test
+  public void testMultiplyDarkens() {
+    LayeredImageModel model = twoLayers();
+    model.setBlendMode(BlendMode.MULTIPLY);
+    // Green multiplied onto red leaves nothing, white multiplied onto blue leaves blue
+    assertEquals(Color.BLACK.getRGB(), model.exportDISPLAY().getRGB(0, 0));
+    assertEquals(Color.BLUE.getRGB(), model.exportDISPLAY().getRGB(2, 0));
+  }
+
+  @Test
+  public void testUncoveredAreaStaysTransparentInPng() throws IOException {
+    LayeredImageModel model = twoLayers();
+    model.current("bottom");
+    model.invisible();
+    File file = File.createTempFile("composite", ".png");
+    file.deleteOnExit();
+    model.exportComposite(file.getPath(), new ExportOptions(FileType.PNG));
+    BufferedImage saved = ImageIO.read(file);
+    assertEquals(8, saved.getWidth());
+    assertEquals(Color.GREEN.getRGB(), saved.getRGB(0, 0));
+    assertEquals(0, saved.getRGB(7, 7) >>> 24);
+  }
+}
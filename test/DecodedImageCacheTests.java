@@ -0,0 +1,72 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import model.DecodedImageCache;
+import model.FileType;
+import model.ImageModelCreator;
+import model.SingleImageModel;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for the cache of decoded images used by ImageModelCreator.
+ */
+public class DecodedImageCacheTests {
+
+  private static File writeCheckerboard() throws IOException {
+    File file = File.createTempFile("checkerboard", ".png");
+    file.deleteOnExit();
+    ImageModelCreator.drawCheckerboard(4, 2, Color.RED, Color.BLUE)
+        .export(file.getPath(), FileType.PNG);
+    return file;
+  }
+
+  @Test
+  public void testSecondLoadIsHit() throws IOException {
+    File file = writeCheckerboard();
+    DecodedImageCache cache = ImageModelCreator.getCache();
+    ImageModelCreator.load(FileType.PNG, file.getPath());
+    long hits = cache.getHits();
+    ImageModelCreator.load(FileType.PNG, file.getPath());
+    assertEquals(hits + 1, cache.getHits());
+  }
+
+  @Test
+  public void testLoadsDoNotShareEdits() throws IOException {
+    File file = writeCheckerboard();
+    SingleImageModel first = ImageModelCreator.load(FileType.PNG, file.getPath());
+    SingleImageModel second = ImageModelCreator.load(FileType.PNG, file.getPath());
+    first.applyTransformation(TransformationType.SEPIA);
+    assertEquals(Color.RED, second.getColorAt(0, 0));
+    assertNotEquals(Color.RED, first.getColorAt(0, 0));
+  }
+
+  @Test
+  public void testModifiedFileIsMiss() throws IOException {
+    File file = writeCheckerboard();
+    DecodedImageCache cache = ImageModelCreator.getCache();
+    ImageModelCreator.load(FileType.PNG, file.getPath());
+    long misses = cache.getMisses();
+    file.setLastModified(file.lastModified() + 10000);
+    ImageModelCreator.load(FileType.PNG, file.getPath());
+    assertEquals(misses + 1, cache.getMisses());
+  }
+
+  @Test
+  public void testEvictsBeyondLimit() throws IOException {
+    File file = writeCheckerboard();
+    DecodedImageCache cache = ImageModelCreator.getCache();
+    long limit = cache.getMaxBytes();
+    ImageModelCreator.load(FileType.PNG, file.getPath());
+    long evictions = cache.getEvictions();
+    cache.setMaxBytes(0);
+    assertEquals(0, cache.getBytes());
+    assertNotEquals(evictions, cache.getEvictions());
+    cache.setMaxBytes(limit);
+  }
+}
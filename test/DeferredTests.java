@@ -0,0 +1,107 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import model.FilterType;
+import model.ImageModelCreator;
+import model.LayeredImageModel;
+import model.OperationMetrics;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for deferring the operations on a LayeredImageModel until they are read.
+ */
+public class DeferredTests {
+
+  // Creates a model with one checkerboard layer, deferring its operations if asked to
+  private static LayeredImageModel checkerboard(boolean deferred) {
+    LayeredImageModel model = new LayeredImageModel();
+    model.setDeferred(deferred);
+    model.newLayer("first");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 4, Color.ORANGE, Color.CYAN));
+    return model;
+  }
+
+  @Test
+  public void testDeferredMatchesEager() {
+    LayeredImageModel eager = checkerboard(false);
+    LayeredImageModel deferred = checkerboard(true);
+    for (LayeredImageModel model : new LayeredImageModel[] {eager, deferred}) {
+      model.applyTransformation(TransformationType.MONOCHROME);
+      model.applyFilter(FilterType.BLUR);
+      model.applyTransformation(TransformationType.MONOCHROME);
+      model.applyDownscale(10, 10);
+      model.applyTransformation(TransformationType.SEPIA);
+    }
+    BufferedImage expected = eager.exportDISPLAY();
+    BufferedImage actual = deferred.exportDISPLAY();
+    assertEquals(10, actual.getWidth());
+    for (int y = 0; y < 10; y++) {
+      for (int x = 0; x < 10; x++) {
+        for (int shift = 0; shift < 24; shift += 8) {
+          int difference = ((expected.getRGB(x, y) >> shift) & 0xFF)
+              - ((actual.getRGB(x, y) >> shift) & 0xFF);
+          assertTrue(Math.abs(difference) <= 3);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testQueuedOperationsUndoneTogether() {
+    LayeredImageModel model = checkerboard(true);
+    model.applyTransformation(TransformationType.SEPIA);
+    model.applyFilter(FilterType.SHARPEN);
+    assertEquals(16, model.exportDISPLAY().getWidth());
+    model.undo();
+    assertEquals(Color.ORANGE, model.getColorAt(0, 0));
+  }
+
+  @Test
+  public void testTurningOffRunsQueue() {
+    LayeredImageModel model = checkerboard(true);
+    model.applyDownscale(8, 8);
+    model.setDeferred(false);
+    model.undo();
+    assertEquals(16, model.exportDISPLAY().getWidth());
+  }
+
+  // Returns how many operations with the given name have run since the metrics were reset
+  private static long count(String name) {
+    for (OperationMetrics.Stats stats : OperationMetrics.get().getOperations()) {
+      if (stats.getName().equals(name)) {
+        return stats.getCount();
+      }
+    }
+    return 0;
+  }
+
+  @Test
+  public void testOnlyMergedTransformationsRecordedAsCombined() {
+    OperationMetrics.get().reset();
+    LayeredImageModel model = checkerboard(true);
+    model.applyTransformation(TransformationType.SEPIA);
+    model.exportDISPLAY();
+    assertEquals(1, count("transformation.sepia"));
+    assertEquals(0, count("transformation.combined"));
+
+    model.applyTransformation(TransformationType.MONOCHROME);
+    model.applyTransformation(TransformationType.SEPIA);
+    model.exportDISPLAY();
+    assertEquals(1, count("transformation.sepia"));
+    assertEquals(0, count("transformation.monochrome"));
+    assertEquals(1, count("transformation.combined"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRegionCheckedAgainstQueuedSize() {
+    LayeredImageModel model = checkerboard(true);
+    model.applyDownscale(8, 8);
+    model.applyFilter(FilterType.BLUR, new Rectangle(10, 10, 4, 4));
+  }
+}
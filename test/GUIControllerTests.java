@@ -0,0 +1,191 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import controller.ImageModelGUIController;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.SwingUtilities;
+import model.ImageModelCreator;
+import model.LayeredImageModel;
+import model.ProjectFormat;
+import model.TransformationType;
+import org.junit.Test;
+import view.ImageModelGUIView;
+
+/**
+ * Representing tests for running GUI commands in the background, without a display.
+ */
+public class GUIControllerTests {
+
+  /**
+   * Representing a view that records what it's asked to show.
+   */
+  private static final class RecordingView implements ImageModelGUIView {
+    private final BlockingQueue<String> finished = new LinkedBlockingQueue<String>();
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile LayeredImageModel shown;
+
+    @Override
+    public void showRunning(String command, int queued) {
+      running.incrementAndGet();
+    }
+
+    @Override
+    public void showFinished(String message) {
+      finished.add(message);
+    }
+
+    @Override
+    public void showModel(LayeredImageModel m, BufferedImage display, Rectangle changed) {
+      shown = m;
+    }
+
+    @Override
+    public void showPreview(BufferedImage preview, String command) {
+      // Previews aren't checked
+    }
+
+    @Override
+    public int getPreviewHeight() {
+      return 100;
+    }
+
+    @Override
+    public void renderMessage(String message) {
+      finished.add("Error: " + message);
+    }
+
+    // Waits for the next command to finish and returns how it ended
+    private String nextFinished() throws InterruptedException {
+      String message = finished.poll(60, TimeUnit.SECONDS);
+      if (message == null) {
+        throw new AssertionError("No command finished in time");
+      }
+      return message;
+    }
+  }
+
+  // Gives the commands to the controller on the event thread, as the window does
+  private static void give(LayeredImageModel model, ImageModelGUIView view, String... inputs)
+      throws InterruptedException, InvocationTargetException {
+    SwingUtilities.invokeAndWait(() -> {
+      for (String input : inputs) {
+        ImageModelGUIController.processCommand(model, view, input);
+      }
+    });
+  }
+
+  private static int[] pixels(BufferedImage image) {
+    return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+  }
+
+  @Test
+  public void testCancelledFilterLeavesImageUnchanged() throws Exception {
+    LayeredImageModel model = new LayeredImageModel();
+    model.newLayer("a");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(50, 40, Color.RED, Color.BLUE));
+    int[] before = pixels(model.exportDISPLAY());
+    RecordingView view = new RecordingView();
+
+    give(model, view, "filter blur");
+    // Shown once when given and again once it starts running
+    long deadline = System.currentTimeMillis() + 60_000;
+    while (view.running.get() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    SwingUtilities.invokeAndWait(ImageModelGUIController::cancelCommands);
+    assertEquals("Cancelled filter blur", view.nextFinished());
+    assertArrayEquals(before, pixels(model.exportDISPLAY()));
+    assertArrayEquals(before, pixels(view.shown.exportDISPLAY()));
+  }
+
+  @Test
+  public void testCancelledQueueNeverRuns() throws Exception {
+    LayeredImageModel model = new LayeredImageModel();
+    model.newLayer("a");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(50, 40, Color.RED, Color.BLUE));
+    RecordingView view = new RecordingView();
+
+    // The slow blur keeps the later commands waiting until they're cancelled
+    SwingUtilities.invokeAndWait(() -> {
+      ImageModelGUIController.processCommand(model, view, "filter blur");
+      ImageModelGUIController.processCommand(model, view, "transformation sepia");
+      ImageModelGUIController.processCommand(model, view, "filter sharpen");
+      ImageModelGUIController.cancelCommands();
+    });
+    assertEquals("Cancelled filter blur", view.nextFinished());
+    assertEquals("Cancelled transformation sepia", view.nextFinished());
+    assertEquals("Cancelled filter sharpen", view.nextFinished());
+    assertEquals(Color.RED, model.getColorAt(0, 0));
+
+    give(model, view, "transformation monochrome");
+    assertEquals("Finished transformation monochrome", view.nextFinished());
+    assertEquals(new Color(54, 54, 54), model.getColorAt(0, 0));
+  }
+
+  @Test
+  public void testCommandsQueuedBehindLoadApplyToLoadedModel() throws Exception {
+    Path dir = Files.createTempDirectory("gui");
+    LayeredImageModel saved = new LayeredImageModel();
+    saved.newLayer("loaded");
+    saved.loadToLayer(ImageModelCreator.drawCheckerboard(4, 2, Color.GREEN, Color.WHITE));
+    String reference = dir.resolve("project").toString();
+    saved.exportFullProject(reference, ProjectFormat.BINARY);
+    saved.applyTransformation(TransformationType.SEPIA);
+    Color expected = saved.getColorAt(0, 0);
+
+    LayeredImageModel old = new LayeredImageModel();
+    old.newLayer("old");
+    old.loadToLayer(ImageModelCreator.drawCheckerboard(4, 2, Color.RED, Color.BLUE));
+    RecordingView view = new RecordingView();
+    // The window still holds the old model when the second command is given
+    give(old, view, "load full " + ProjectFormat.BINARY.projectFile(reference),
+        "transformation sepia");
+    assertTrue(view.nextFinished().startsWith("Finished load full "));
+    assertEquals("Finished transformation sepia", view.nextFinished());
+
+    assertTrue(view.shown != old);
+    assertEquals("loaded", view.shown.getName());
+    assertEquals(expected, view.shown.getColorAt(0, 0));
+    assertEquals(Color.RED, old.getColorAt(0, 0));
+
+    // Commands given later with the old model still reach the loaded one
+    give(old, view, "undo");
+    assertEquals("Finished undo", view.nextFinished());
+    assertEquals(Color.GREEN, view.shown.getColorAt(0, 0));
+  }
+
+  @Test
+  public void testDownscaleParsesWidthAndHeight() throws Exception {
+    LayeredImageModel model = new LayeredImageModel();
+    model.newLayer("a");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 5, Color.RED, Color.BLUE));
+    RecordingView view = new RecordingView();
+    give(model, view, "adjustment downscale 10&6");
+    assertEquals("Finished adjustment downscale 10&6", view.nextFinished());
+    assertEquals(10, model.exportDISPLAY().getWidth());
+    assertEquals(6, model.exportDISPLAY().getHeight());
+  }
+
+  @Test
+  public void testFailedCommandReported() throws Exception {
+    LayeredImageModel model = new LayeredImageModel();
+    model.newLayer("a");
+    RecordingView view = new RecordingView();
+    give(model, view, "filter blur");
+    assertEquals("Failed filter blur", view.nextFinished());
+    assertTrue(view.nextFinished().startsWith("Error: "));
+  }
+}
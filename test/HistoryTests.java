@@ -0,0 +1,84 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import model.FilterType;
+import model.ImageModelCreator;
+import model.LayeredImageModel;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for undoing and redoing changes to a LayeredImageModel.
+ */
+public class HistoryTests {
+
+  // Creates a model with one red/blue layer
+  private static LayeredImageModel oneLayer() {
+    LayeredImageModel model = new LayeredImageModel();
+    model.newLayer("a");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 2, Color.RED, Color.BLUE));
+    return model;
+  }
+
+  @Test
+  public void testUndoAndRedoOperations() {
+    LayeredImageModel model = oneLayer();
+    model.applyTransformation(TransformationType.MONOCHROME);
+    model.applyDownscale(4, 4);
+    model.undo();
+    assertEquals(8, model.exportDISPLAY().getWidth());
+    assertEquals(new Color(54, 54, 54), model.getColorAt(0, 0));
+    model.undo();
+    assertEquals(Color.RED, model.getColorAt(0, 0));
+    model.redo();
+    assertEquals(new Color(54, 54, 54), model.getColorAt(0, 0));
+  }
+
+  @Test
+  public void testUndoVisibility() {
+    LayeredImageModel model = oneLayer();
+    model.invisible();
+    model.undo();
+    assertEquals(Color.RED.getRGB(), model.exportDISPLAY().getRGB(0, 0));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNewChangeClearsRedo() {
+    LayeredImageModel model = oneLayer();
+    model.applyFilter(FilterType.BLUR);
+    model.undo();
+    model.applyTransformation(TransformationType.SEPIA);
+    model.redo();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testOldestChangesForgottenOverBudget() {
+    LayeredImageModel model = oneLayer();
+    model.setHistoryLimit(0);
+    model.applyTransformation(TransformationType.SEPIA);
+    model.applyTransformation(TransformationType.MONOCHROME);
+    model.undo();
+    // Only the newest change is kept
+    model.undo();
+  }
+
+  @Test
+  public void testRedoKeptOverBudget() {
+    LayeredImageModel model = oneLayer();
+    // Smaller than any step, even compacted
+    model.setHistoryLimit(0);
+    model.applyTransformation(TransformationType.SEPIA);
+    Color sepia = model.getColorAt(0, 0);
+    model.applyTransformation(TransformationType.MONOCHROME);
+    Color gray = model.getColorAt(0, 0);
+    model.undo();
+    assertEquals(sepia, model.getColorAt(0, 0));
+    model.redo();
+    assertEquals(gray, model.getColorAt(0, 0));
+    model.undo();
+    model.redo();
+    assertEquals(gray, model.getColorAt(0, 0));
+  }
+}
@@ -0,0 +1,113 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import controller.ImageModelScriptController;
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import model.FileType;
+import model.ImageModel;
+import model.ImageModelCreator;
+import model.JobService;
+import model.SingleImageModel;
+import org.junit.Test;
+
+/**
+ * Representing tests for running many independent jobs through a job service.
+ */
+public class JobServiceTests {
+
+  @Test
+  public void testManyJobsEachWriteTheirOutput() throws Exception {
+    Path dir = Files.createTempDirectory("jobs");
+    Path input = dir.resolve("board.png");
+    ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE)
+        .export(input.toString(), FileType.PNG);
+    List<Consumer<ImageModel>> recipe = ImageModelScriptController.parseRecipe(Arrays.asList(
+        "# thumbnail", "transformation monochrome", "", "adjustment downscale 8&8"));
+    List<CompletableFuture<JobService.Result>> results =
+        new ArrayList<CompletableFuture<JobService.Result>>();
+    try (JobService jobs = new JobService(2, 3)) {
+      for (int i = 0; i < 40; i++) {
+        results.add(jobs.submit(recipe, input,
+            dir.resolve("thumb" + i + (i % 2 == 0 ? ".png" : ".ppm"))));
+      }
+      for (CompletableFuture<JobService.Result> result : results) {
+        JobService.Result done = result.get();
+        assertTrue(done.getMillis(JobService.Stage.PROCESS) >= 0);
+        assertTrue(done.getTotalMillis() >= done.getMillis(JobService.Stage.DECODE));
+      }
+    }
+    for (int i = 0; i < 40; i++) {
+      FileType type = i % 2 == 0 ? FileType.PNG : FileType.PPM;
+      SingleImageModel thumb = ImageModelCreator.load(type,
+          dir.resolve("thumb" + i + (i % 2 == 0 ? ".png" : ".ppm")).toString());
+      assertEquals(8, thumb.getWidth());
+      assertEquals(thumb.getColorAt(0, 0).getRed(), thumb.getColorAt(0, 0).getGreen());
+    }
+  }
+
+  @Test
+  public void testFailedJobDoesNotAffectOthers() throws Exception {
+    Path dir = Files.createTempDirectory("jobs");
+    Path good = dir.resolve("good.png");
+    Path broken = dir.resolve("broken.png");
+    ImageModelCreator.drawCheckerboard(2, 2, Color.RED, Color.BLUE)
+        .export(good.toString(), FileType.PNG);
+    Files.write(broken, new byte[] {1, 2, 3});
+    List<Consumer<ImageModel>> recipe = ImageModelScriptController.parseRecipe(
+        Arrays.asList("filter blur"));
+    try (JobService jobs = new JobService(1, 1)) {
+      CompletableFuture<JobService.Result> failed =
+          jobs.submit(recipe, broken, dir.resolve("out1.png"));
+      CompletableFuture<JobService.Result> missing =
+          jobs.submit(recipe, dir.resolve("missing.png"), dir.resolve("out2.png"));
+      CompletableFuture<JobService.Result> passed =
+          jobs.submit(recipe, good, dir.resolve("out3.jpeg"));
+      assertEquals(good, passed.get().getInput());
+      try {
+        failed.get();
+        fail("A broken image should fail its job");
+      }
+      catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+      }
+      try {
+        missing.get();
+        fail("A missing image should fail its job");
+      }
+      catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IOException);
+      }
+    }
+    assertTrue(Files.exists(dir.resolve("out3.jpeg")));
+  }
+
+  @Test
+  public void testBadRecipeNamesLine() {
+    try {
+      ImageModelScriptController.parseRecipe(Arrays.asList("filter blur", "filter nothing"));
+      fail("An unknown filter should be rejected");
+    }
+    catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Line 2: "));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testClosedServiceRejectsJobs() throws IOException {
+    JobService jobs = new JobService(1, 1);
+    jobs.close();
+    jobs.submit(Arrays.asList(), Path.of("in.png"), Path.of("out.png"));
+  }
+}
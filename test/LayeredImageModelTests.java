@@ -4,6 +4,10 @@ import static org.junit.Assert.assertEquals;
 
 import java.awt.Color;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import model.FileType;
 import model.ImageModelCreator;
 import model.LayeredImageModel;
@@ -21,21 +25,28 @@ public class LayeredImageModelTests {
   static LayeredImageModel catDog;
 
   private static void initLayeredModel() throws FileNotFoundException {
-    initReadModel();
+    Path project = initReadModel();
     initDrawModel();
-    catDog = ImageModelCreator.loadLayeredProject("catdogLayeredProject.txt");
+    catDog = ImageModelCreator.loadLayeredProject(project.toString());
     catDog.newLayer("checkerboard");
     catDog.current("checkerboard");
     catDog.loadToLayer(drawModel);
   }
 
-  private static void initReadModel() {
+  // Reads the sadie and anthony images from res/, and writes a text project listing them as
+  // the layers sadie and anthony, returning the project file
+  private static Path initReadModel() {
+    String sadie = Path.of("res", "sadie.png").toAbsolutePath().toString();
+    String anthony = Path.of("res", "anthony.png").toAbsolutePath().toString();
     try {
-      readModelSadie = ImageModelCreator.load(FileType.PNG, "sadie.png");
-      readModelAnthony = ImageModelCreator.load(FileType.PNG, "anthony.png");
+      readModelSadie = ImageModelCreator.load(FileType.PNG, sadie);
+      readModelAnthony = ImageModelCreator.load(FileType.PNG, anthony);
+      String project = "\n" + sadie + "\nsadie\n" + anthony + "\nanthony";
+      return Files.write(Files.createTempDirectory("catdog").resolve("catdogLayeredProject.txt"),
+          project.getBytes(StandardCharsets.UTF_8));
     }
-    catch (FileNotFoundException e) {
-      System.out.println("Couldn't find designated files");
+    catch (IOException e) {
+      throw new IllegalStateException("Couldn't find designated files: " + e.getMessage());
     }
   }
 
@@ -0,0 +1,138 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import model.FileType;
+import model.ImageModelCreator;
+import model.LayeredImageModel;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for loading and saving layered projects in the text format, whose layers
+ * are each kept in their own PNG file.
+ */
+public class LayeredProjectTests {
+
+  // Writes a text project listing the given image files and layer names, in pairs
+  private static Path writeProject(Path dir, String... filesAndNames) throws IOException {
+    StringBuilder project = new StringBuilder();
+    for (String line : filesAndNames) {
+      project.append("\n").append(line);
+    }
+    return Files.write(dir.resolve("testLayeredProject.txt"),
+        project.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  // Creates a model with two layers whose PNGs are saved in the given directory; layers are
+  // saved under their names, so the names are paths into it
+  private static LayeredImageModel twoLayers(Path dir) {
+    LayeredImageModel model = new LayeredImageModel();
+    for (String name : new String[] {"a", "b"}) {
+      String layer = dir.resolve(name).toString();
+      model.newLayer(layer);
+      model.current(layer);
+      model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 2, Color.RED, Color.BLUE));
+    }
+    return model;
+  }
+
+  @Test
+  public void testLoadKeepsLayerOrder() throws IOException {
+    Path dir = Files.createTempDirectory("project");
+    String red = dir.resolve("red.png").toString();
+    String blue = dir.resolve("blue.png").toString();
+    ImageModelCreator.drawCheckerboard(2, 2, Color.RED, Color.RED).export(red, FileType.PNG);
+    ImageModelCreator.drawCheckerboard(2, 2, Color.BLUE, Color.BLUE).export(blue, FileType.PNG);
+    LayeredImageModel model = ImageModelCreator.loadLayeredProject(
+        writeProject(dir, blue, "under", red, "over").toString());
+    assertEquals(2, model.getSize());
+    model.current("under");
+    assertEquals(Color.BLUE, model.getColorAt(0, 0));
+    assertEquals(Color.RED.getRGB(), model.exportDISPLAY().getRGB(0, 0));
+  }
+
+  @Test
+  public void testLoadReportsEveryBadLayer() throws IOException {
+    Path dir = Files.createTempDirectory("project");
+    String good = dir.resolve("good.png").toString();
+    String garbage = dir.resolve("garbage.png").toString();
+    ImageModelCreator.drawCheckerboard(2, 2, Color.RED, Color.BLUE).export(good, FileType.PNG);
+    Files.write(Path.of(garbage), "not an image".getBytes(StandardCharsets.UTF_8));
+    Path project = writeProject(dir, good, "good", dir.resolve("missing.png").toString(),
+        "missing", garbage, "garbage");
+    try {
+      ImageModelCreator.loadLayeredProject(project.toString());
+      throw new AssertionError("Loaded a project with bad layers");
+    }
+    catch (FileNotFoundException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Cannot load layer missing from "));
+      assertTrue(e.getMessage(), e.getMessage().contains("Cannot load layer garbage from "));
+      assertTrue(e.getMessage(), !e.getMessage().contains("layer good"));
+    }
+  }
+
+  @Test
+  public void testSaveRewritesOnlyChangedLayers() throws IOException {
+    Path dir = Files.createTempDirectory("project");
+    LayeredImageModel model = twoLayers(dir);
+    String reference = dir.resolve("test").toString();
+    model.exportFullProject(reference);
+    Path a = dir.resolve("a.png");
+    Path b = dir.resolve("b.png");
+    FileTime old = FileTime.fromMillis(0);
+    Files.setLastModifiedTime(a, old);
+    Files.setLastModifiedTime(b, old);
+    byte[] before = Files.readAllBytes(b);
+
+    model.current(dir.resolve("b").toString());
+    model.applyTransformation(TransformationType.SEPIA);
+    model.exportFullProject(reference);
+    assertEquals(old, Files.getLastModifiedTime(a));
+    assertTrue(!Arrays.equals(before, Files.readAllBytes(b)));
+
+    LayeredImageModel loaded = ImageModelCreator.loadLayeredProject(
+        reference + "LayeredProject.txt");
+    loaded.current(dir.resolve("b").toString());
+    assertEquals(model.getColorAt(0, 0), loaded.getColorAt(0, 0));
+  }
+
+  @Test
+  public void testFailedLayerLeavesManifestIntact() throws IOException {
+    Path dir = Files.createTempDirectory("project");
+    LayeredImageModel model = twoLayers(dir);
+    String reference = dir.resolve("test").toString();
+    model.exportFullProject(reference);
+    Path manifest = Path.of(reference + "LayeredProject.txt");
+    byte[] savedManifest = Files.readAllBytes(manifest);
+    byte[] savedLayer = Files.readAllBytes(dir.resolve("b.png"));
+
+    model.current(dir.resolve("b").toString());
+    model.applyTransformation(TransformationType.SEPIA);
+    model.newLayer(dir.resolve("c").toString());
+    model.current(dir.resolve("c").toString());
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 2, Color.GREEN, Color.BLUE));
+    // A directory where the layer's temporary file goes makes writing the layer fail
+    Files.createDirectory(dir.resolve("b.png.tmp"));
+    try {
+      model.exportFullProject(reference);
+      throw new AssertionError("Saved a project whose layer can't be written");
+    }
+    catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Cannot save layer "));
+    }
+    assertTrue(Arrays.equals(savedManifest, Files.readAllBytes(manifest)));
+    assertTrue(Arrays.equals(savedLayer, Files.readAllBytes(dir.resolve("b.png"))));
+    assertTrue(!Files.exists(Path.of(manifest + ".tmp")));
+    assertEquals(2, ImageModelCreator.loadLayeredProject(manifest.toString()).getSize());
+  }
+}
@@ -0,0 +1,83 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import model.FilterType;
+import model.ImageModelCreator;
+import model.OperationMetrics;
+import model.SingleImageModel;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for the metrics recorded for each kind of operation.
+ */
+public class OperationMetricsTests {
+
+  // Returns the metrics of the operation with the given name, failing if it hasn't run
+  private static OperationMetrics.Stats find(String name) {
+    for (OperationMetrics.Stats stats : OperationMetrics.get().getOperations()) {
+      if (stats.getName().equals(name)) {
+        return stats;
+      }
+    }
+    throw new AssertionError("No metrics for " + name);
+  }
+
+  @Test
+  public void testOperationsCounted() {
+    OperationMetrics.get().reset();
+    SingleImageModel image = ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE);
+    image.applyFilter(FilterType.BLUR);
+    image.applyFilter(FilterType.BLUR, new Rectangle(0, 0, 2, 2));
+    image.applyTransformation(TransformationType.SEPIA);
+    image.applyDownscale(8, 8);
+
+    OperationMetrics.Stats blur = find("filter.blur");
+    assertEquals(2, blur.getCount());
+    assertEquals(256 + 4, blur.getPixels());
+    assertTrue(blur.getMaxMillis() <= blur.getTotalMillis());
+    assertTrue(blur.getP50Millis() <= blur.getP99Millis());
+    assertEquals(1, find("transformation.sepia").getCount());
+    assertEquals(64, find("downscale").getPixels());
+    assertTrue(OperationMetrics.get().getReport().contains("filter.blur"));
+  }
+
+  @Test
+  public void testNothingCountedWhileDisabled() {
+    OperationMetrics.get().reset();
+    OperationMetrics.get().setEnabled(false);
+    try {
+      ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE)
+          .applyFilter(FilterType.SHARPEN);
+    }
+    finally {
+      OperationMetrics.get().setEnabled(true);
+    }
+    assertTrue(OperationMetrics.get().getOperations().isEmpty());
+  }
+
+  @Test
+  public void testReadableOverJmx() throws Exception {
+    OperationMetrics.register();
+    OperationMetrics.register();
+    ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE)
+        .applyTransformation(TransformationType.MONOCHROME);
+    ObjectName name = new ObjectName(OperationMetrics.NAME);
+    CompositeData[] operations = (CompositeData[]) ManagementFactory.getPlatformMBeanServer()
+        .getAttribute(name, "Operations");
+    boolean found = false;
+    for (CompositeData operation : operations) {
+      found |= operation.get("name").equals("transformation.monochrome");
+    }
+    assertTrue(found);
+    assertTrue(((String) ManagementFactory.getPlatformMBeanServer()
+        .getAttribute(name, "Report")).contains("transformation.monochrome"));
+  }
+}
@@ -0,0 +1,92 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+import model.ExportOptions;
+import model.FileType;
+import model.ImageModelCreator;
+import model.SingleImageModel;
+import org.junit.Test;
+
+/**
+ * Representing tests for writing PNGs, in one piece and in blocks compressed in parallel.
+ */
+public class PngWriterTests {
+
+  // Loads noise over a gradient, tall enough to be cut into several blocks, with or without
+  // varying transparency
+  private static SingleImageModel image(Path dir, boolean alpha) throws IOException {
+    BufferedImage image = new BufferedImage(200, 1500,
+        alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(11);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        int opacity = alpha ? 64 + (x + y) % 192 : 255;
+        image.setRGB(x, y, opacity << 24 | (x + random.nextInt(40)) % 256 << 16
+            | y % 256 << 8 | random.nextInt(256));
+      }
+    }
+    File file = dir.resolve(alpha ? "alpha.png" : "opaque.png").toFile();
+    ImageIO.write(image, "png", file);
+    return ImageModelCreator.load(FileType.PNG, file.getPath());
+  }
+
+  private static int[] pixels(File file) throws IOException {
+    BufferedImage image = ImageIO.read(file);
+    return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+  }
+
+  // Checks the CRC of every chunk of the given PNG file, which ImageIO doesn't
+  private static void assertChunksValid(File file) throws IOException {
+    ByteBuffer png = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    png.position(8);
+    while (png.hasRemaining()) {
+      int length = png.getInt();
+      CRC32 crc = new CRC32();
+      crc.update(png.array(), png.position(), 4 + length);
+      png.position(png.position() + 4 + length);
+      assertEquals(file.getName(), crc.getValue(), png.getInt() & 0xFFFFFFFFL);
+    }
+  }
+
+  // Checks that the image written in parallel blocks decodes to the same pixels as written in
+  // one piece, at every level, even with only one processor to run the blocks on
+  private static void assertParallelMatchesSerial(boolean alpha) throws IOException {
+    Path dir = Files.createTempDirectory("png");
+    SingleImageModel image = image(dir, alpha);
+    for (int level : new int[] {0, 1, 6, 9}) {
+      File serial = dir.resolve("serial" + level + ".png").toFile();
+      File parallel = dir.resolve("parallel" + level + ".png").toFile();
+      image.export(serial.getPath(), ExportOptions.png(level, false));
+      image.export(parallel.getPath(), ExportOptions.png(level, true));
+      // The blocks are flushed separately, so the bytes only match if they weren't used
+      assertFalse("level " + level, Arrays.equals(Files.readAllBytes(serial.toPath()),
+          Files.readAllBytes(parallel.toPath())));
+      assertChunksValid(parallel);
+      assertArrayEquals("level " + level, pixels(serial), pixels(parallel));
+      assertEquals(alpha, ImageIO.read(parallel).getColorModel().hasAlpha());
+    }
+  }
+
+  @Test
+  public void testParallelOpaque() throws IOException {
+    assertParallelMatchesSerial(false);
+  }
+
+  @Test
+  public void testParallelWithAlpha() throws IOException {
+    assertParallelMatchesSerial(true);
+  }
+}
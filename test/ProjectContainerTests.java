@@ -0,0 +1,176 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import model.BlendMode;
+import model.FileType;
+import model.ImageModelCreator;
+import model.LayeredImageModel;
+import model.ProjectFormat;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for saving layered projects in the binary format and opening them again.
+ */
+public class ProjectContainerTests {
+
+  // Creates a model with an opaque bottom layer, a multiplied layer, a half-transparent layer
+  // and a hidden white layer on top that would cover the rest if shown
+  private static LayeredImageModel fourLayers(Path dir) throws IOException {
+    BufferedImage translucent = new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < 8; y++) {
+      for (int x = 0; x < 8; x++) {
+        translucent.setRGB(x, y, new Color(0, 255, 0, 128).getRGB());
+      }
+    }
+    File png = dir.resolve("translucent.png").toFile();
+    ImageIO.write(translucent, "png", png);
+
+    LayeredImageModel model = new LayeredImageModel();
+    model.newLayer("bottom");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 2, Color.RED, Color.BLUE));
+    model.newLayer("multiplied");
+    model.current("multiplied");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(2, 4, Color.YELLOW, Color.WHITE));
+    model.setBlendMode(BlendMode.MULTIPLY);
+    model.newLayer("translucent");
+    model.current("translucent");
+    model.loadToLayer(ImageModelCreator.load(FileType.PNG, png.getPath()));
+    model.newLayer("hidden");
+    model.current("hidden");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(1, 8, Color.WHITE, Color.WHITE));
+    model.invisible();
+    return model;
+  }
+
+  // Saves the model as a binary project under the given name in the given directory, returning
+  // the project file
+  private static Path save(LayeredImageModel model, Path dir, String name) throws IOException {
+    String reference = dir.resolve(name).toString();
+    model.exportFullProject(reference, ProjectFormat.BINARY);
+    return Path.of(ProjectFormat.BINARY.projectFile(reference));
+  }
+
+  private static int[] pixels(BufferedImage image) {
+    return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+  }
+
+  @Test
+  public void testRoundTripKeepsAlphaBlendAndVisibility() throws IOException {
+    Path dir = Files.createTempDirectory("container");
+    LayeredImageModel model = fourLayers(dir);
+    LayeredImageModel loaded = ImageModelCreator.loadLayeredProject(
+        save(model, dir, "project").toString());
+
+    assertEquals(4, loaded.getSize());
+    assertArrayEquals(pixels(model.exportDISPLAY()), pixels(loaded.exportDISPLAY()));
+    model.current("translucent");
+    loaded.current("translucent");
+    assertEquals(model.getColorAt(3, 5), loaded.getColorAt(3, 5));
+    assertEquals(128, loaded.getColorAt(3, 5).getAlpha(), 1);
+    // The hidden layer is still hidden, and still there to be shown
+    loaded.current("hidden");
+    loaded.visible();
+    assertEquals(Color.WHITE.getRGB(), loaded.exportDISPLAY().getRGB(0, 0));
+  }
+
+  @Test
+  public void testResaveCopiesChunksWithoutDecoding() throws IOException {
+    Path dir = Files.createTempDirectory("container");
+    Path original = save(fourLayers(dir), dir, "original");
+    // Breaks the deflated data of the bottom layer, which decoding it would find
+    ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(original));
+    int nameLength = bytes.getShort(12);
+    int codec = bytes.get(12 + 2 + nameLength + 13);
+    int offset = (int) bytes.getLong(12 + 2 + nameLength + 16);
+    assertEquals(1, codec);
+    bytes.put(offset, (byte) 0);
+    Files.write(original, bytes.array());
+
+    LayeredImageModel loaded = ImageModelCreator.loadLayeredProject(original.toString());
+    Path resaved = save(loaded, dir, "resaved");
+    assertArrayEquals(Files.readAllBytes(original), Files.readAllBytes(resaved));
+    try {
+      loaded.current("bottom");
+      loaded.getColorAt(0, 0);
+      throw new AssertionError("Corrupt layer was decoded without failing");
+    }
+    catch (IllegalStateException e) {
+      assertEquals("Corrupt layer data", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testResaveOfUnchangedProjectIsIdentical() throws IOException {
+    Path dir = Files.createTempDirectory("container");
+    Path original = save(fourLayers(dir), dir, "original");
+    LayeredImageModel loaded = ImageModelCreator.loadLayeredProject(original.toString());
+    loaded.current("translucent");
+    loaded.getColorAt(0, 0);
+    assertArrayEquals(Files.readAllBytes(original),
+        Files.readAllBytes(save(loaded, dir, "resaved")));
+  }
+
+  @Test
+  public void testSaveOverOpenedProject() throws IOException {
+    Path dir = Files.createTempDirectory("container");
+    LayeredImageModel model = fourLayers(dir);
+    Path project = save(model, dir, "project");
+    LayeredImageModel loaded = ImageModelCreator.loadLayeredProject(project.toString());
+    loaded.current("bottom");
+    loaded.applyTransformation(TransformationType.SEPIA);
+    // The other layers are still undecoded when the file they were opened from is replaced
+    save(loaded, dir, "project");
+    byte[] saved = Files.readAllBytes(project);
+
+    for (String name : new String[] {"multiplied", "translucent"}) {
+      model.current(name);
+      loaded.current(name);
+      assertEquals(model.getColorAt(3, 5), loaded.getColorAt(3, 5));
+    }
+    LayeredImageModel reloaded = ImageModelCreator.loadLayeredProject(project.toString());
+    assertArrayEquals(pixels(loaded.exportDISPLAY()), pixels(reloaded.exportDISPLAY()));
+    assertArrayEquals(saved, Files.readAllBytes(save(loaded, dir, "project")));
+  }
+
+  @Test
+  public void testTruncatedProjectFailsToLoad() throws IOException {
+    Path dir = Files.createTempDirectory("container");
+    Path project = save(fourLayers(dir), dir, "project");
+    byte[] bytes = Files.readAllBytes(project);
+    for (int length : new int[] {6, 20, 60, bytes.length - 10}) {
+      Files.write(project, Arrays.copyOf(bytes, length));
+      try {
+        ImageModelCreator.loadLayeredProject(project.toString());
+        throw new AssertionError("Loaded a project cut to " + length + " bytes");
+      }
+      catch (FileNotFoundException e) {
+        // Expected: the project is reported as unreadable when opened
+      }
+    }
+  }
+
+  @Test(expected = FileNotFoundException.class)
+  public void testCorruptIndexFailsToLoad() throws IOException {
+    Path dir = Files.createTempDirectory("container");
+    Path project = save(fourLayers(dir), dir, "project");
+    ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(project));
+    int nameLength = bytes.getShort(12);
+    // Gives the bottom layer a codec that doesn't exist
+    bytes.put(12 + 2 + nameLength + 13, (byte) 7);
+    Files.write(project, bytes.array());
+    ImageModelCreator.loadLayeredProject(project.toString());
+  }
+}
@@ -0,0 +1,64 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import model.FilterType;
+import model.ImageModelCreator;
+import model.LayeredImageModel;
+import model.SingleImageModel;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for operations on a region of an image and the tracking of changed regions.
+ */
+public class RegionTests {
+
+  @Test
+  public void testRegionOpChangesOnlyRegion() {
+    SingleImageModel full = ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE);
+    SingleImageModel part = ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE);
+    Rectangle region = new Rectangle(2, 3, 6, 5);
+    full.applyFilter(FilterType.BLUR);
+    part.applyFilter(FilterType.BLUR, region);
+    for (int y = 0; y < 16; y++) {
+      for (int x = 0; x < 16; x++) {
+        Color expected = region.contains(x, y) ? full.getColorAt(x, y)
+            : (((x / 4) + (y / 4)) % 2 == 0 ? Color.RED : Color.BLUE);
+        assertEquals(expected, part.getColorAt(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void testChangedRegion() {
+    SingleImageModel image = ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE);
+    long version = image.getVersion();
+    assertEquals(new Rectangle(), image.getChangedRegion(version));
+    image.applyTransformation(TransformationType.SEPIA, new Rectangle(-2, -2, 5, 4));
+    assertEquals(new Rectangle(0, 0, 3, 2), image.getChangedRegion(version));
+    image.applyFilter(FilterType.SHARPEN, new Rectangle(10, 10, 2, 2));
+    assertEquals(new Rectangle(0, 0, 12, 12), image.getChangedRegion(version));
+    image.applyDownscale(8, 8);
+    assertEquals(new Rectangle(0, 0, 8, 8), image.getChangedRegion(version));
+  }
+
+  @Test
+  public void testLastDisplayChange() {
+    LayeredImageModel model = new LayeredImageModel();
+    model.newLayer("first");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE));
+    model.exportDISPLAY();
+    model.applyFilter(FilterType.BLUR, new Rectangle(4, 4, 3, 3));
+    model.exportDISPLAY();
+    assertEquals(new Rectangle(4, 4, 3, 3), model.getLastDisplayChange());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRegionOutsideImage() {
+    ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE)
+        .applyFilter(FilterType.BLUR, new Rectangle(20, 20, 5, 5));
+  }
+}
@@ -0,0 +1,55 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import controller.ImageModelScriptController;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import javax.imageio.ImageIO;
+import model.FileType;
+import model.ImageModelCreator;
+import org.junit.Test;
+
+/**
+ * Representing tests for running commands typed into the script controller.
+ */
+public class ScriptControllerTests {
+
+  // Runs the commands as if typed in, one per line
+  private static void type(String... commands) throws IOException {
+    InputStream in = System.in;
+    System.setIn(new ByteArrayInputStream(String.join("\n", commands)
+        .getBytes(StandardCharsets.UTF_8)));
+    try {
+      ImageModelScriptController.run();
+    }
+    finally {
+      System.setIn(in);
+    }
+  }
+
+  @Test
+  public void testDownscaleOneLayerAndEvery() throws IOException {
+    Path dir = Files.createTempDirectory("script");
+    String source = dir.resolve("in.png").toString();
+    ImageModelCreator.drawCheckerboard(4, 5, Color.RED, Color.BLUE).export(source,
+        FileType.PNG);
+    String one = dir.resolve("one.png").toString();
+    String every = dir.resolve("every.png").toString();
+
+    type("create layer a", "load " + source, "adjustment downscale 10&6", "save " + one,
+        "all adjustment downscale 5&3", "save " + every);
+    BufferedImage downscaled = ImageIO.read(Path.of(one).toFile());
+    assertEquals(10, downscaled.getWidth());
+    assertEquals(6, downscaled.getHeight());
+    downscaled = ImageIO.read(Path.of(every).toFile());
+    assertEquals(5, downscaled.getWidth());
+    assertEquals(3, downscaled.getHeight());
+  }
+}
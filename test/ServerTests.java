@@ -0,0 +1,88 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import controller.ImageModelServerController;
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import model.FileType;
+import model.ImageModelCreator;
+import model.SingleImageModel;
+import org.junit.Test;
+
+/**
+ * Representing tests for processing images sent to the server over localhost.
+ */
+public class ServerTests {
+
+  // Sends a request to the server, returning its status and writing its body to the given file
+  private static int request(ImageModelServerController server, String method, String path,
+      byte[] body, File response) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection)
+        new URL("http://localhost:" + server.getPort() + path).openConnection();
+    connection.setRequestMethod(method);
+    if (body != null) {
+      connection.setDoOutput(true);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body);
+      }
+    }
+    int status = connection.getResponseCode();
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    in.transferTo(bytes);
+    in.close();
+    Files.write(response.toPath(), bytes.toByteArray());
+    return status;
+  }
+
+  private static byte[] checkerboard() throws IOException {
+    File file = File.createTempFile("server", ".png");
+    ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE)
+        .export(file.getPath(), FileType.PNG);
+    return Files.readAllBytes(file.toPath());
+  }
+
+  @Test
+  public void testProcessesImageWithRecipe() throws IOException {
+    File response = File.createTempFile("response", ".ppm");
+    try (ImageModelServerController server = new ImageModelServerController(0, 2, 2)) {
+      int status = request(server, "POST", "/process?in=png&out=ppm"
+          + "&op=transformation%20monochrome&op=adjustment%20downscale%208%268",
+          checkerboard(), response);
+      assertEquals(200, status);
+    }
+    SingleImageModel result = ImageModelCreator.load(FileType.PPM, response.getPath());
+    assertEquals(8, result.getWidth());
+    assertEquals(result.getColorAt(0, 0).getRed(), result.getColorAt(0, 0).getBlue());
+  }
+
+  @Test
+  public void testBadRequestsAnsweredAndCounted() throws IOException {
+    File response = File.createTempFile("response", ".txt");
+    try (ImageModelServerController server = new ImageModelServerController(0, 1, 0)) {
+      assertEquals(400, request(server, "POST", "/process?in=png&op=filter%20nothing",
+          checkerboard(), response));
+      assertEquals(400, request(server, "POST", "/process?in=png", new byte[] {1, 2, 3},
+          response));
+      assertEquals(400, request(server, "POST", "/process?in=gif", checkerboard(), response));
+      assertEquals(405, request(server, "GET", "/process?in=png", null, response));
+      assertEquals(200, request(server, "POST", "/process?in=png", checkerboard(), response));
+
+      assertEquals(200, request(server, "GET", "/metrics", null, response));
+      String metrics = new String(Files.readAllBytes(response.toPath()));
+      assertTrue(metrics.contains("requests_total 5"));
+      assertTrue(metrics.contains("requests_succeeded 1"));
+      assertTrue(metrics.contains("requests_bad 4"));
+      assertTrue(metrics.contains("requests_outstanding 0"));
+    }
+  }
+}
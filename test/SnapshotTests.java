@@ -0,0 +1,94 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.concurrent.atomic.AtomicReference;
+import model.FilterType;
+import model.ImageModelCreator;
+import model.ImageSnapshot;
+import model.LayeredImageModel;
+import model.SingleImageModel;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for reading snapshots of images while they change.
+ */
+public class SnapshotTests {
+
+  @Test
+  public void testSnapshotKeepsItsVersion() {
+    SingleImageModel image = ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE);
+    ImageSnapshot before = image.snapshot();
+    image.applyTransformation(TransformationType.MONOCHROME);
+    image.applyDownscale(8, 8);
+    assertEquals(16, before.getWidth());
+    assertEquals(Color.RED, before.getColorAt(0, 0));
+    assertNotEquals(before.getVersion(), image.getVersion());
+    assertEquals(image.getVersion(), image.snapshot().getVersion());
+  }
+
+  @Test
+  public void testModelSnapshotShowsComposite() {
+    LayeredImageModel model = new LayeredImageModel();
+    model.newLayer("first");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE));
+    ImageSnapshot before = model.snapshot();
+    model.applyFilter(FilterType.BLUR);
+    assertEquals(Color.RED, before.getColorAt(1, 1));
+    assertNotEquals(Color.RED, model.snapshot().getColorAt(3, 3));
+  }
+
+  @Test
+  public void testProxyShrinksEveryLayerAlike() {
+    LayeredImageModel model = new LayeredImageModel();
+    model.newLayer("big");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(16, 4, Color.RED, Color.BLUE));
+    model.newLayer("small");
+    model.current("small");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 4, Color.RED, Color.BLUE));
+    model.invisible();
+    LayeredImageModel proxy = model.proxy(16);
+    assertEquals("big", proxy.getName());
+    assertEquals(16, proxy.layerSnapshot().getHeight());
+    assertEquals(16, proxy.exportDISPLAY().getWidth());
+    proxy.current("small");
+    assertEquals(4, proxy.layerSnapshot().getWidth());
+    proxy.current("big");
+    proxy.applyTransformation(TransformationType.MONOCHROME);
+    model.current("big");
+    assertEquals(Color.RED, model.getColorAt(0, 0));
+    assertEquals(64, model.layerSnapshot().getWidth());
+  }
+
+  @Test
+  public void testReadsDuringOperations() throws InterruptedException {
+    LayeredImageModel model = new LayeredImageModel();
+    model.newLayer("first");
+    model.loadToLayer(ImageModelCreator.drawCheckerboard(32, 8, Color.RED, Color.BLUE));
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread writer = new Thread(() -> {
+      try {
+        for (int i = 0; i < 10; i++) {
+          model.applyFilter(FilterType.SHARPEN);
+          model.applyDownscale(256 - i * 16, 256 - i * 16);
+        }
+      }
+      catch (Throwable t) {
+        failure.set(t);
+      }
+    });
+    writer.start();
+    while (writer.isAlive()) {
+      ImageSnapshot snapshot = model.snapshot();
+      assertEquals(snapshot.getWidth(), snapshot.exportDISPLAY().getWidth());
+      assertTrue(snapshot.getWidth() <= 256);
+    }
+    writer.join();
+    assertEquals(null, failure.get());
+    assertEquals(112, model.snapshot().getWidth());
+  }
+}
@@ -0,0 +1,132 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import model.ExportOptions;
+import model.FileType;
+import model.FilterType;
+import model.ImageModelCreator;
+import model.SingleImageModel;
+import model.StreamingPipeline;
+import model.TransformationType;
+import org.junit.Test;
+
+/**
+ * Representing tests for running operations over an image a band of rows at a time.
+ */
+public class StreamingPipelineTests {
+
+  // Writes noise over a gradient, with more rows than several bands, in the given format
+  private static Path source(Path dir, FileType type) throws IOException {
+    BufferedImage image = new BufferedImage(37, 101, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(7);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        int gray = Math.min(255, 2 * x + y + random.nextInt(16));
+        image.setRGB(x, y, gray << 16 | (255 - gray) << 8 | random.nextInt(200));
+      }
+    }
+    File png = dir.resolve("source.png").toFile();
+    ImageIO.write(image, "png", png);
+    if (type == FileType.PNG) {
+      return png.toPath();
+    }
+    Path file = dir.resolve("source." + type.name().toLowerCase());
+    if (type == FileType.JPEG) {
+      ImageIO.write(image, "jpeg", file.toFile());
+    }
+    else {
+      ImageModelCreator.load(FileType.PNG, png.getPath()).export(file.toString(), FileType.PPM);
+    }
+    return file;
+  }
+
+  // Checks that streaming the given source through a blur and a sepia gives the same bytes as
+  // loading it, applying both and saving it
+  private static void assertSameAsInMemory(FileType sourceType) throws IOException {
+    Path dir = Files.createTempDirectory("streaming");
+    Path source = source(dir, sourceType);
+    for (FileType targetType : new FileType[] {FileType.PNG, FileType.PPM}) {
+      String extension = "." + targetType.name().toLowerCase();
+      StreamingPipeline pipeline = new StreamingPipeline(sourceType, source.toString(), 16);
+      pipeline.addFilter(FilterType.BLUR);
+      pipeline.addTransformation(TransformationType.SEPIA);
+      Path streamed = dir.resolve("streamed" + extension);
+      pipeline.run(targetType, streamed.toString());
+
+      SingleImageModel image = ImageModelCreator.load(sourceType, source.toString());
+      image.applyFilter(FilterType.BLUR);
+      image.applyTransformation(TransformationType.SEPIA);
+      Path loaded = dir.resolve("loaded" + extension);
+      image.export(loaded.toString(), targetType == FileType.PNG
+          ? ExportOptions.png(ExportOptions.DEFAULT_PNG_LEVEL, false)
+          : new ExportOptions(targetType));
+
+      assertArrayEquals(sourceType + " to " + targetType, Files.readAllBytes(loaded),
+          Files.readAllBytes(streamed));
+    }
+  }
+
+  @Test
+  public void testPngMatchesInMemory() throws IOException {
+    assertSameAsInMemory(FileType.PNG);
+  }
+
+  @Test
+  public void testPpmMatchesInMemory() throws IOException {
+    assertSameAsInMemory(FileType.PPM);
+  }
+
+  @Test
+  public void testJpegMatchesInMemory() throws IOException {
+    assertSameAsInMemory(FileType.JPEG);
+  }
+
+  @Test
+  public void testTranslucentPngStreamsOpaque() throws IOException {
+    Path dir = Files.createTempDirectory("streaming");
+    Path opaque = source(dir, FileType.PNG);
+    BufferedImage colors = ImageIO.read(opaque.toFile());
+    BufferedImage image = new BufferedImage(colors.getWidth(), colors.getHeight(),
+        BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < image.getHeight(); y++) {
+      for (int x = 0; x < image.getWidth(); x++) {
+        int alpha = x % 3 == 0 ? 0 : x % 3 == 1 ? 128 : 255;
+        image.setRGB(x, y, alpha << 24 | colors.getRGB(x, y) & 0xFFFFFF);
+      }
+    }
+    Path translucent = dir.resolve("translucent.png");
+    ImageIO.write(image, "png", translucent.toFile());
+
+    // Streaming drops the alpha, keeping the colors stored in the file
+    byte[][] streamed = new byte[2][];
+    Path[] sources = {translucent, opaque};
+    for (int i = 0; i < 2; i++) {
+      StreamingPipeline pipeline = new StreamingPipeline(FileType.PNG, sources[i].toString(), 16);
+      pipeline.addTransformation(TransformationType.SEPIA);
+      Path result = dir.resolve("streamed" + i + ".png");
+      pipeline.run(FileType.PNG, result.toString());
+      streamed[i] = Files.readAllBytes(result);
+    }
+    assertArrayEquals(streamed[1], streamed[0]);
+    assertFalse(ImageIO.read(dir.resolve("streamed0.png").toFile()).getColorModel().hasAlpha());
+
+    // Loading it keeps the transparency
+    SingleImageModel loaded = ImageModelCreator.load(FileType.PNG, translucent.toString());
+    loaded.applyTransformation(TransformationType.SEPIA);
+    Path saved = dir.resolve("loaded.png");
+    loaded.export(saved.toString(), FileType.PNG);
+    BufferedImage reread = ImageIO.read(saved.toFile());
+    assertEquals(0, reread.getRGB(0, 0) >>> 24);
+    assertEquals(128, reread.getRGB(1, 0) >>> 24, 1);
+  }
+}
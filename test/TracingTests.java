@@ -0,0 +1,96 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import model.CommandEvent;
+import model.FileType;
+import model.FilterType;
+import model.ImageModelCreator;
+import model.LayeredImageModel;
+import model.SingleImageModel;
+import org.junit.Test;
+
+/**
+ * Representing tests for the flight recorder events emitted while images are worked on.
+ */
+public class TracingTests {
+
+  // Returns the recorded events with the given name
+  private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+    List<RecordedEvent> found = new ArrayList<RecordedEvent>();
+    for (RecordedEvent event : events) {
+      if (event.getEventType().getName().equals(name)) {
+        found.add(event);
+      }
+    }
+    return found;
+  }
+
+  @Test
+  public void testEventsRecorded() throws Exception {
+    Path dir = Files.createTempDirectory("tracing");
+    File image = dir.resolve("image.png").toFile();
+    File recordingFile = dir.resolve("recording.jfr").toFile();
+    List<RecordedEvent> events;
+    try (Recording recording = new Recording()) {
+      for (String name : new String[] {"Command", "Decode", "Encode", "Operation", "WorkUnit"}) {
+        recording.enable("imageprocessing." + name).withoutThreshold();
+      }
+      recording.start();
+
+      LayeredImageModel model = new LayeredImageModel();
+      model.newLayer("a");
+      model.current("a");
+      CommandEvent command = CommandEvent.start();
+      model.loadToLayer(ImageModelCreator.drawCheckerboard(4, 2, Color.RED, Color.BLUE));
+      command.finish("script", "load checkerboard", 3, model);
+      model.applyToLayers(null, layer -> layer.applyFilter(FilterType.BLUR));
+      SingleImageModel single = ImageModelCreator.drawCheckerboard(4, 2, Color.RED, Color.BLUE);
+      single.export(image.getPath(), FileType.PNG);
+      ImageModelCreator.load(FileType.PNG, image.getPath());
+
+      recording.stop();
+      recording.dump(recordingFile.toPath());
+      events = RecordingFile.readAllEvents(recordingFile.toPath());
+    }
+    finally {
+      image.delete();
+      recordingFile.delete();
+      dir.toFile().delete();
+    }
+
+    RecordedEvent command = named(events, "imageprocessing.Command").get(0);
+    assertEquals("script", command.getString("source"));
+    assertEquals("load checkerboard", command.getString("command"));
+    assertEquals(3, command.getInt("line"));
+    assertEquals("a", command.getString("layer"));
+    assertEquals(8, command.getInt("width"));
+    assertEquals(8, command.getInt("height"));
+    assertTrue(command.getThread() != null);
+
+    boolean blurred = false;
+    for (RecordedEvent operation : named(events, "imageprocessing.Operation")) {
+      blurred |= operation.getString("operation").equals("filter.blur")
+          && operation.getLong("pixels") == 64;
+    }
+    assertTrue(blurred);
+    RecordedEvent layer = named(events, "imageprocessing.WorkUnit").get(0);
+    assertEquals("layers", layer.getString("work"));
+    assertEquals("a", layer.getString("layer"));
+    assertEquals(image.getPath(),
+        named(events, "imageprocessing.Encode").get(0).getString("file"));
+    RecordedEvent decode = named(events, "imageprocessing.Decode").get(0);
+    assertEquals("png", decode.getString("format"));
+    assertEquals(8, decode.getInt("width"));
+  }
+}
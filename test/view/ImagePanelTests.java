@@ -0,0 +1,86 @@
+package view;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Representing tests for how the image panel scales the image it shows.
+ */
+public class ImagePanelTests {
+
+  @Test
+  public void testRescaleMatchesFullScale() {
+    Rectangle[] regions = {new Rectangle(50, 40, 37, 29), new Rectangle(0, 0, 1, 1),
+        new Rectangle(299, 7, 2, 196), new Rectangle(13, 201, 288, 2)};
+    for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB_PRE}) {
+      for (int height : new int[] {67, 100, 202}) {
+        for (Rectangle region : regions) {
+          BufferedImage source = noise(301, 203, type, 1);
+          BufferedImage base = ImagePanel.scale(source, height);
+          BufferedImage changed = noise(region.width, region.height, type, 2);
+          source.getRaster().setRect(region.x, region.y, changed.getRaster());
+          assertArrayEquals(height + " " + region, pixels(ImagePanel.scale(source, height)),
+              pixels(ImagePanel.rescale(base, source, region)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testTileMatchesAreaOfFullScale() {
+    for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB_PRE}) {
+      BufferedImage source = noise(1000, 700, type, 3);
+      for (int zoom = 0; zoom < 3; zoom++) {
+        int height = 87 << zoom;
+        BufferedImage full = ImagePanel.scale(source, height);
+        for (int y = 0; y < full.getHeight(); y += 256) {
+          for (int x = 0; x < full.getWidth(); x += 256) {
+            Rectangle area = new Rectangle(x, y, 256, 256)
+                .intersection(new Rectangle(0, 0, full.getWidth(), full.getHeight()));
+            assertArrayEquals(height + " " + area,
+                pixels(full.getSubimage(area.x, area.y, area.width, area.height)),
+                pixels(ImagePanel.tile(source, height, new Rectangle(x, y, 256, 256))));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testTileGrowingMakesBlocks() {
+    BufferedImage source = noise(30, 20, BufferedImage.TYPE_INT_RGB, 4);
+    BufferedImage tile = ImagePanel.tile(source, 80, new Rectangle(10, 6, 50, 40));
+    for (int y = 0; y < tile.getHeight(); y++) {
+      for (int x = 0; x < tile.getWidth(); x++) {
+        assertEquals(source.getRGB((x + 10) / 4, (y + 6) / 4), tile.getRGB(x, y));
+      }
+    }
+  }
+
+  // Returns an image of the given size and type with pixels drawn at random from the given seed
+  private static BufferedImage noise(int width, int height, int type, long seed) {
+    BufferedImage image = new BufferedImage(width, height, type);
+    Random random = new Random(seed);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int alpha = type == BufferedImage.TYPE_INT_RGB ? 255 : random.nextInt(256);
+        int rgb = 0;
+        for (int i = 0; i < 3; i++) {
+          rgb = rgb << 8 | random.nextInt(alpha + 1);
+        }
+        image.getRaster().setDataElements(x, y, new int[] {alpha << 24 | rgb});
+      }
+    }
+    return image;
+  }
+
+  // Returns the pixels of the given image, row by row
+  private static int[] pixels(BufferedImage image) {
+    return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+  }
+}